@@ -43,9 +43,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Writer;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -217,6 +214,24 @@ public class Monkey {
 
     long mDroppedRotationEvents = 0;
 
+    /** Injection latency statistics, created once the verbosity is known **/
+    private MonkeyLatencyStats mLatencyStats;
+
+    /** where to write the latency histograms, if anywhere **/
+    private String mLatencyStatsFileName = null;
+
+    /** Target event rate for --rate, in events per second; 0 if not pacing by rate **/
+    private double mRate = 0;
+
+    private int mRatePolicy = MonkeyRateScheduler.POLICY_BURST;
+
+    private MonkeyRateScheduler mRateScheduler;
+
+    /** where to log the injected events, if anywhere **/
+    private String mRecordEventsFileName = null;
+
+    private MonkeyEventRecorder mEventRecorder;
+
     /** The delay between user actions. This is for the scripted monkey. **/
     long mProfileWaitTime = 5000;
 
@@ -236,16 +251,13 @@ public class Monkey {
     /** filenames of the script (if any) */
     private ArrayList<String> mScriptFileNames = new ArrayList<String>();
 
+    /** where to write the compiled script, if only compiling */
+    private String mCompileScriptFileName = null;
+
     /** a TCP port to listen on for remote commands. */
     private int mServerPort = -1;
 
-    private static final File TOMBSTONES_PATH = new File("/data/tombstones");
-
-    private static final String TOMBSTONE_PREFIX = "tombstone_";
-
-    private static int NUM_READ_TOMBSTONE_RETRIES = 5;
-
-    private HashSet<Long> mTombstones = null;
+    private MonkeyTombstoneWatcher mTombstoneWatcher = new MonkeyTombstoneWatcher();
 
     float[] mFactors = new float[MonkeySourceRandom.FACTORZ_COUNT];
 
@@ -611,6 +623,10 @@ public class Monkey {
             return -1;
         }
 
+        if (mCompileScriptFileName != null) {
+            return compileScript();
+        }
+
         if (!loadPackageLists()) {
             return -1;
         }
@@ -652,7 +668,7 @@ public class Monkey {
 
         if (mScriptFileNames != null && mScriptFileNames.size() == 1) {
             // script mode, ignore other options
-            mEventSource = new MonkeySourceScript(mRandom, mScriptFileNames.get(0), mThrottle,
+            mEventSource = MonkeySourceScript.forFile(mRandom, mScriptFileNames.get(0), mThrottle,
                     mRandomizeThrottle, mProfileWaitTime, mDeviceSleepTime);
             mEventSource.setVerbose(mVerbose);
 
@@ -708,17 +724,40 @@ public class Monkey {
             signalPersistentProcesses();
         }
 
+        if (mRecordEventsFileName != null) {
+            try {
+                mEventRecorder = new MonkeyEventRecorder(mRecordEventsFileName);
+            } catch (IOException e) {
+                Logger.err.println("** Error: Unable to record events: " + e);
+                return -5;
+            }
+        }
+
         mNetworkMonitor.start();
+        mLatencyStats = new MonkeyLatencyStats(mVerbose > 0);
+        mLatencyStats.start();
+        if (mRate > 0) {
+            mRateScheduler = new MonkeyRateScheduler(mRate, mRatePolicy, mVerbose > 0);
+            mRateScheduler.start();
+        }
+        if (mMonitorNativeCrashes) {
+            mTombstoneWatcher.start();
+        }
         int crashedAtCycle = 0;
         try {
             crashedAtCycle = runMonkeyCycles();
         } finally {
+            // Keep what was recorded even if the run failed
+            if (mEventRecorder != null) {
+                mEventRecorder.close();
+            }
             // Release the rotation lock if it's still held and restore the
             // original orientation.
             new MonkeyRotationEvent(Surface.ROTATION_0, false).injectEvent(
                 mWm, mAm, mVerbose);
         }
         mNetworkMonitor.stop();
+        mTombstoneWatcher.stop();
 
         synchronized (this) {
             if (mRequestAnrTraces) {
@@ -778,6 +817,18 @@ public class Monkey {
                     + " trackballs=" + mDroppedTrackballEvents
                     + " flips=" + mDroppedFlipEvents
                     + " rotations=" + mDroppedRotationEvents);
+            mLatencyStats.dump();
+        }
+        if (mLatencyStatsFileName != null) {
+            try {
+                mLatencyStats.writeHistograms(mLatencyStatsFileName);
+            } catch (IOException e) {
+                Logger.err.println("** Unable to write " + mLatencyStatsFileName + ": " + e);
+            }
+        }
+
+        if (mRateScheduler != null) {
+            mRateScheduler.dump();
         }
 
         // report network stats
@@ -877,6 +928,22 @@ public class Monkey {
                     mPkgWhitelistFile = nextOptionData();
                 } else if (opt.equals("--throttle")) {
                     mThrottle = nextOptionLong("delay (in milliseconds) to wait between events");
+                } else if (opt.equals("--rate")) {
+                    mRate = nextOptionDouble("events per second");
+                    if (!(mRate > 0) || Double.isInfinite(mRate)) {
+                        Logger.err.println("** Error: --rate must be a positive number: "
+                                + mRate);
+                        showUsage();
+                        return false;
+                    }
+                } else if (opt.equals("--rate-policy")) {
+                    String policy = nextOptionData();
+                    mRatePolicy = MonkeyRateScheduler.parsePolicy(policy);
+                    if (mRatePolicy < 0) {
+                        Logger.err.println("** Error: Unknown rate policy: " + policy);
+                        showUsage();
+                        return false;
+                    }
                 } else if (opt.equals("--randomize-throttle")) {
                     mRandomizeThrottle = true;
                 } else if (opt.equals("--wait-dbg")) {
@@ -889,6 +956,8 @@ public class Monkey {
                     mSetupFileName = nextOptionData();
                 } else if (opt.equals("-f")) {
                     mScriptFileNames.add(nextOptionData());
+                } else if (opt.equals("--compile-script")) {
+                    mCompileScriptFileName = nextOptionData();
                 } else if (opt.equals("--profile-wait")) {
                     mProfileWaitTime = nextOptionLong("Profile delay" +
                                 " (in milliseconds) to wait between user action");
@@ -904,6 +973,10 @@ public class Monkey {
                 } else if (opt.equals("--periodic-bugreport")){
                     mGetPeriodicBugreport = true;
                     mBugreportFrequency = nextOptionLong("Number of iterations");
+                } else if (opt.equals("--record-events")) {
+                    mRecordEventsFileName = nextOptionData();
+                } else if (opt.equals("--latency-stats-file")) {
+                    mLatencyStatsFileName = nextOptionData();
                 } else if (opt.equals("--permission-target-system")){
                     mPermissionTargetSystem = true;
                 } else if (opt.equals("-h")) {
@@ -922,9 +995,15 @@ public class Monkey {
             return false;
         }
 
+        if (mRate > 0 && mThrottle > 0) {
+            Logger.err.println("** Error: --rate and --throttle can't be used together");
+            showUsage();
+            return false;
+        }
+
         // If a server port hasn't been specified, we need to specify
-        // a count
-        if (mServerPort == -1) {
+        // a count, unless we're only compiling a script
+        if (mServerPort == -1 && mCompileScriptFileName == null) {
             String countStr = nextArg();
             if (countStr == null) {
                 Logger.err.println("** Error: Count not specified");
@@ -977,6 +1056,29 @@ public class Monkey {
         return true;
     }
 
+    /**
+     * Compile the single script given with -f into a binary script that can be
+     * replayed with -f.
+     *
+     * @return Returns a posix-style result code. 0 for no error.
+     */
+    private int compileScript() {
+        if (mScriptFileNames.size() != 1) {
+            Logger.err.println("** Error: --compile-script needs exactly one -f script");
+            showUsage();
+            return -1;
+        }
+        try {
+            int records = MonkeyScriptCompiler.compile(mScriptFileNames.get(0),
+                    mCompileScriptFileName);
+            Logger.out.println(":Compiled " + records + " records to " + mCompileScriptFileName);
+            return 0;
+        } catch (IOException e) {
+            Logger.err.println("** Error: Unable to compile script: " + e);
+            return -1;
+        }
+    }
+
     /**
      * Load package denylist or allowlist (if specified).
      *
@@ -1159,9 +1261,8 @@ public class Monkey {
                         shouldReportDumpsysMemInfo = true;
                     }
                     if (mMonitorNativeCrashes) {
-                        // first time through, when eventCounter == 0, just set up
-                        // the watcher (ignore the error)
-                        if (checkNativeCrashes() && (eventCounter > 0)) {
+                        // The watcher runs on its own thread; this only reads its flag.
+                        if (mTombstoneWatcher.takeNewCrash() && (eventCounter > 0)) {
                             Logger.out.println("** New native crash detected.");
                             if (mRequestBugreport) {
                                 getBugreport("native_crash_");
@@ -1216,7 +1317,15 @@ public class Monkey {
 
                 MonkeyEvent ev = mEventSource.getNextEvent();
                 if (ev != null) {
+                    if (mRateScheduler != null && !(ev instanceof MonkeyThrottleEvent)) {
+                        mRateScheduler.awaitNextSlot();
+                    }
+                    long injectStart = System.nanoTime();
                     int injectCode = ev.injectEvent(mWm, mAm, mVerbose);
+                    mLatencyStats.record(ev, injectStart, System.nanoTime());
+                    if (mEventRecorder != null) {
+                        mEventRecorder.record(ev, injectStart, injectCode);
+                    }
                     if (injectCode == MonkeyEvent.INJECT_FAIL) {
                         Logger.out.println("    // Injection Failed");
                         if (ev instanceof MonkeyKeyEvent) {
@@ -1245,6 +1354,9 @@ public class Monkey {
                             cycleCounter++;
                         }
                     }
+
+                    // Pooled events go back to their pool; the source is done with them.
+                    ev.recycle();
                 } else {
                     if (!mCountEvents) {
                         cycleCounter++;
@@ -1285,74 +1397,6 @@ public class Monkey {
         }
     }
 
-    /**
-     * Watch for appearance of new tombstone files, which indicate native
-     * crashes.
-     *
-     * @return Returns true if new files have appeared in the list
-     */
-    private boolean checkNativeCrashes() {
-        String[] tombstones = TOMBSTONES_PATH.list();
-
-        // shortcut path for usually empty directory, so we don't waste even
-        // more objects
-        if (tombstones == null || tombstones.length == 0) {
-            mTombstones = null;
-            return false;
-        }
-
-        boolean result = false;
-
-        // use set logic to look for new files
-        HashSet<Long> newStones = new HashSet<Long>();
-        for (String t : tombstones) {
-            if (t.startsWith(TOMBSTONE_PREFIX)) {
-                File f = new File(TOMBSTONES_PATH, t);
-                newStones.add(f.lastModified());
-                if (mTombstones == null || !mTombstones.contains(f.lastModified())) {
-                    result = true;
-                    waitForTombstoneToBeWritten(Paths.get(TOMBSTONES_PATH.getPath(), t));
-                    Logger.out.println("** New tombstone found: " + f.getAbsolutePath()
-                                       + ", size: " + f.length());
-                }
-            }
-        }
-
-        // keep the new list for the next time
-        mTombstones = newStones;
-
-        return result;
-    }
-
-    /**
-     * Wait for the given tombstone file to be completely written.
-     *
-     * @param path The path of the tombstone file.
-     */
-    private void waitForTombstoneToBeWritten(Path path) {
-        boolean isWritten = false;
-        try {
-            // Ensure file is done writing by sleeping and comparing the previous and current size
-            for (int i = 0; i < NUM_READ_TOMBSTONE_RETRIES; i++) {
-                long size = Files.size(path);
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) { }
-                if (size > 0 && Files.size(path) == size) {
-                    //File size is bigger than 0 and hasn't changed
-                    isWritten = true;
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            Logger.err.println("Failed to get tombstone file size: " + e.toString());
-        }
-        if (!isWritten) {
-            Logger.err.println("Incomplete tombstone file.");
-            return;
-        }
-    }
-
     /**
      * Return the next command line option. This has a number of special cases
      * which closely, but not exactly, follow the POSIX command line options
@@ -1435,6 +1479,24 @@ public class Monkey {
         return result;
     }
 
+    /**
+     * Returns a double converted from the next data argument, with error handling
+     * if not available.
+     *
+     * @param opt The name of the option.
+     * @return Returns a double converted from the argument.
+     */
+    private double nextOptionDouble(final String opt) {
+        double result;
+        try {
+            result = Double.parseDouble(nextOptionData());
+        } catch (NumberFormatException e) {
+            Logger.err.println("** Error: " + opt + " is not a number");
+            throw e;
+        }
+        return result;
+    }
+
     /**
      * Return the next argument on the command line.
      *
@@ -1471,9 +1533,11 @@ public class Monkey {
         usage.append("              [--pkg-whitelist-file PACKAGE_WHITELIST_FILE]\n");
         usage.append("              [--wait-dbg] [--dbg-no-events]\n");
         usage.append("              [--setup scriptfile] [-f scriptfile [-f scriptfile] ...]\n");
+        usage.append("              [-f scriptfile --compile-script OUTFILE]\n");
         usage.append("              [--port port]\n");
         usage.append("              [-s SEED] [-v [-v] ...]\n");
         usage.append("              [--throttle MILLISEC] [--randomize-throttle]\n");
+        usage.append("              [--rate EVENTS_PER_SEC [--rate-policy burst|drop]]\n");
         usage.append("              [--profile-wait MILLISEC]\n");
         usage.append("              [--device-sleep-time MILLISEC]\n");
         usage.append("              [--randomize-script]\n");
@@ -1481,6 +1545,8 @@ public class Monkey {
         usage.append("              [--bugreport]\n");
         usage.append("              [--periodic-bugreport]\n");
         usage.append("              [--permission-target-system]\n");
+        usage.append("              [--latency-stats-file OUTFILE]\n");
+        usage.append("              [--record-events OUTFILE]\n");
         usage.append("              COUNT\n");
         Logger.err.println(usage.toString());
     }
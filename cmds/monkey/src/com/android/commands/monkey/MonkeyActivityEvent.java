@@ -55,6 +55,17 @@ public class MonkeyActivityEvent extends MonkeyEvent {
         mMainApps = MainApps;
     }
 
+    ComponentName getApp() {
+        return mApp;
+    }
+
+    /**
+     * @return the category the activity is launched with, if it isn't the launcher category.
+     */
+    String getCategory() {
+        return mMainApps.get(mApp);
+    }
+
     /**
      * @return Intent for the new activity
      */
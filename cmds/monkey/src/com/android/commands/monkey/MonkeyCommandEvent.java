@@ -33,6 +33,10 @@ public class MonkeyCommandEvent extends MonkeyEvent {
         mCmd = cmd;
     }
 
+    String getCommand() {
+        return mCmd;
+    }
+
     @Override
     public int injectEvent(IWindowManager iwm, IActivityManager iam, int verbose) {
         if (mCmd != null) {
@@ -61,6 +61,14 @@ public abstract class MonkeyEvent {
     }
 
 
+    /**
+     * Returns this event to its pool, if it was obtained from one. The event
+     * must not be used afterwards. Events created with {@code new} are left
+     * alone.
+     */
+    public void recycle() {
+    }
+
     /**
      * a method for injecting event
      * @param iwm wires to current window manager
@@ -16,31 +16,51 @@
 
 package com.android.commands.monkey;
 
-import java.util.LinkedList;
+import java.util.NoSuchElementException;
 import java.util.Random;
 
 /**
- * class for keeping a monkey event queue
+ * Queue of generated events, held in an array-backed ring buffer.
+ *
+ * <p>Throttling is recorded on the queue entry rather than as a separate
+ * event. Once a throttled entry's event has been removed, the entry turns
+ * into a throttle event which is removed in turn, so consumers see the same
+ * sequence they always have. The throttle event is a single instance owned
+ * by the queue, so none is allocated per event.
+ *
+ * <p>The buffer doubles when full. Sources drain it before generating more,
+ * so in steady state it never allocates.
  */
-@SuppressWarnings("serial")
-public class MonkeyEventQueue extends LinkedList<MonkeyEvent> {
+public class MonkeyEventQueue {
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Marks an entry that isn't followed by a throttle. */
+    private static final long NO_THROTTLE = -1;
 
     private Random mRandom;
     private long mThrottle;
     private boolean mRandomizeThrottle;
 
+    private MonkeyEvent[] mEvents = new MonkeyEvent[INITIAL_CAPACITY];
+    private long[] mThrottles = new long[INITIAL_CAPACITY];
+    private int mHead;
+    private int mSize;
+
+    private final MonkeyThrottleEvent mThrottleEvent = new MonkeyThrottleEvent(0);
+
     public MonkeyEventQueue(Random random, long throttle, boolean randomizeThrottle) {
-        super();
         mRandom = random;
         mThrottle = throttle;
         mRandomizeThrottle = randomizeThrottle;
     }
 
-    @Override
+    /**
+     * Adds an event, followed by a throttle if the event is throttlable.
+     */
     public void addLast(MonkeyEvent e) {
-        super.add(e);
+        long throttle = NO_THROTTLE;
         if (e.isThrottlable()) {
-            long throttle = mThrottle;
+            throttle = mThrottle;
             if (mRandomizeThrottle && (mThrottle > 0)) {
                 throttle = mRandom.nextLong();
                 if (throttle < 0) {
@@ -49,7 +69,79 @@ public class MonkeyEventQueue extends LinkedList<MonkeyEvent> {
                 throttle %= mThrottle;
                 ++throttle;
             }
-            super.add(new MonkeyThrottleEvent(throttle));
         }
+        enqueue(e, throttle);
+    }
+
+    /**
+     * Adds an event without any throttle.
+     */
+    public void add(MonkeyEvent e) {
+        enqueue(e, NO_THROTTLE);
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the event at the head of the queue
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public MonkeyEvent getFirst() {
+        if (mSize == 0) {
+            throw new NoSuchElementException();
+        }
+        return mEvents[mHead];
+    }
+
+    /**
+     * Removes the event at the head of the queue. If the entry is throttled,
+     * its throttle event becomes the new head.
+     *
+     * @return the removed event
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public MonkeyEvent removeFirst() {
+        MonkeyEvent e = getFirst();
+        long throttle = mThrottles[mHead];
+        if (throttle != NO_THROTTLE) {
+            mThrottleEvent.setThrottle(throttle);
+            mEvents[mHead] = mThrottleEvent;
+            mThrottles[mHead] = NO_THROTTLE;
+        } else {
+            mEvents[mHead] = null;
+            mHead = (mHead + 1) & (mEvents.length - 1);
+            mSize--;
+        }
+        return e;
+    }
+
+    private void enqueue(MonkeyEvent e, long throttle) {
+        if (mSize == mEvents.length) {
+            grow();
+        }
+        int tail = (mHead + mSize) & (mEvents.length - 1);
+        mEvents[tail] = e;
+        mThrottles[tail] = throttle;
+        mSize++;
+    }
+
+    private void grow() {
+        int capacity = mEvents.length * 2;
+        MonkeyEvent[] events = new MonkeyEvent[capacity];
+        long[] throttles = new long[capacity];
+        for (int i = 0; i < mSize; i++) {
+            int from = (mHead + i) & (mEvents.length - 1);
+            events[i] = mEvents[from];
+            throttles[i] = mThrottles[from];
+        }
+        mEvents = events;
+        mThrottles = throttles;
+        mHead = 0;
     }
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.content.ComponentName;
+import android.view.MotionEvent;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes every injected event to an append-only binary log, which
+ * {@link MonkeySourceCompiledScript} can replay on the original timeline.
+ * <p>
+ * Records are encoded into a buffer on the monkey thread and written out by a background
+ * thread, so a slow disk doesn't change the pacing being recorded. The layout follows
+ * {@link MonkeyScriptCompiler}, with the record types and payloads it defines, and a few
+ * differences:
+ *
+ * <pre>
+ *   int    magic
+ *   int    version
+ *   long   wall clock time recording started, in milliseconds
+ *   per record:
+ *     byte   type
+ *     byte   flags
+ *     byte   result of the injection, one of the MonkeyEvent.INJECT_ codes
+ *     varint microseconds after the previous injection started, unsigned LEB128
+ *     ...    payload, depending on the type
+ * </pre>
+ *
+ * Activity records may have {@link #FLAG_CATEGORY}. Permission records hold the package and
+ * permission names. Events that can't be replayed, such as shell commands, are logged with
+ * just their class name. Throttle events aren't logged; the timestamps already cover them.
+ */
+public class MonkeyEventRecorder implements Runnable {
+    static final int MAGIC = 0x4d4b594c; // "MKYL"
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+
+    static final int RECORD_PERMISSION = 14;
+    static final int RECORD_UNREPLAYABLE = 15;
+
+    /** Activity records: the record ends with the launch category. */
+    static final int FLAG_CATEGORY = 16;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int SPARE_BUFFERS = 4;
+
+    // Largest record without strings: a key, or a motion event with up to 127 pointers
+    private static final int MAX_FIXED_RECORD_SIZE = 64 + 127 * 17;
+
+    // Handed to the writer thread to make it finish
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final String mFileName;
+
+    private final FileChannel mChannel;
+
+    private final LinkedBlockingQueue<ByteBuffer> mFull = new LinkedBlockingQueue<ByteBuffer>();
+
+    private final ArrayBlockingQueue<ByteBuffer> mFree =
+            new ArrayBlockingQueue<ByteBuffer>(SPARE_BUFFERS);
+
+    private final Thread mThread;
+
+    private volatile IOException mError;
+
+    private ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private long mRecordCount;
+
+    // Start time of the last injection recorded, in microseconds
+    private long mLastMicros;
+
+    private long mLastKeyDownTime = -1;
+
+    private long mLastMotionDownTime = -1;
+
+    /**
+     * Creates the log and starts its writer thread. Injections are timed from here on.
+     */
+    public MonkeyEventRecorder(String fileName) throws IOException {
+        mFileName = fileName;
+        mChannel = new FileOutputStream(fileName).getChannel();
+        for (int i = 0; i < SPARE_BUFFERS; i++) {
+            mFree.add(ByteBuffer.allocate(BUFFER_SIZE));
+        }
+        mBuffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        mLastMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+        mThread = new Thread(this, "MonkeyEventRecorder");
+        mThread.start();
+    }
+
+    /**
+     * Returns true if the file starts like an event log.
+     */
+    public static boolean isEventLog(String fileName) {
+        try (FileInputStream in = new FileInputStream(fileName)) {
+            byte[] header = new byte[4];
+            return in.read(header) == 4 && ByteBuffer.wrap(header).getInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Logs an injected event. Must be called before the event is recycled.
+     *
+     * @param ev The event.
+     * @param startNanos The {@link System#nanoTime} value from just before it was injected.
+     * @param result What {@link MonkeyEvent#injectEvent} returned.
+     */
+    public void record(MonkeyEvent ev, long startNanos, int result) {
+        if (ev.getEventType() == MonkeyEvent.EVENT_TYPE_THROTTLE) {
+            return;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(startNanos);
+        long delay = Math.max(0, micros - mLastMicros);
+        mLastMicros = micros;
+
+        if (ev instanceof MonkeyKeyEvent) {
+            MonkeyKeyEvent e = (MonkeyKeyEvent) ev;
+            long downTime = e.getDownTime();
+            int flags = 0;
+            if (downTime > 0) {
+                flags |= MonkeyScriptCompiler.FLAG_TIMED;
+                if (downTime != mLastKeyDownTime) {
+                    flags |= MonkeyScriptCompiler.FLAG_NEW_DOWN;
+                    mLastKeyDownTime = downTime;
+                }
+            }
+            ByteBuffer buf = startRecord(MonkeyScriptCompiler.RECORD_KEY, flags, result, delay,
+                    0);
+            buf.putInt(e.getAction()).putInt(e.getKeyCode()).putInt(e.getRepeatCount())
+                    .putInt(e.getMetaState()).putInt(e.getDeviceId()).putInt(e.getScanCode());
+        } else if (ev instanceof MonkeyMotionEvent) {
+            MonkeyMotionEvent e = (MonkeyMotionEvent) ev;
+            int flags = 0;
+            if (e.getDownTime() != mLastMotionDownTime) {
+                flags |= MonkeyScriptCompiler.FLAG_NEW_DOWN;
+                mLastMotionDownTime = e.getDownTime();
+            }
+            if (e.getIntermediateNote()) {
+                flags |= MonkeyScriptCompiler.FLAG_INTERMEDIATE;
+            }
+            int type = ev.getEventType() == MonkeyEvent.EVENT_TYPE_TOUCH
+                    ? MonkeyScriptCompiler.RECORD_TOUCH : MonkeyScriptCompiler.RECORD_TRACKBALL;
+            ByteBuffer buf = startRecord(type, flags, result, delay, 0);
+            int pointerCount = Math.min(e.getPointerCount(), Byte.MAX_VALUE);
+            buf.putInt(e.getAction()).putInt(e.getMetaState())
+                    .putFloat(e.getXPrecision()).putFloat(e.getYPrecision())
+                    .putInt(e.getDeviceId()).putInt(e.getEdgeFlags())
+                    .put((byte) pointerCount);
+            for (int i = 0; i < pointerCount; i++) {
+                MotionEvent.PointerCoords c = e.getPointerCoords(i);
+                buf.put((byte) e.getPointerId(i)).putFloat(c.x).putFloat(c.y)
+                        .putFloat(c.pressure).putFloat(c.size);
+            }
+        } else if (ev instanceof MonkeyRotationEvent) {
+            MonkeyRotationEvent e = (MonkeyRotationEvent) ev;
+            startRecord(MonkeyScriptCompiler.RECORD_ROTATION, 0, result, delay, 0)
+                    .putInt(e.getRotation()).put((byte) (e.getPersist() ? 1 : 0));
+        } else if (ev instanceof MonkeyFlipEvent) {
+            startRecord(MonkeyScriptCompiler.RECORD_FLIP, 0, result, delay, 0)
+                    .put((byte) (((MonkeyFlipEvent) ev).isKeyboardOpen() ? 1 : 0));
+        } else if (ev instanceof MonkeyActivityEvent) {
+            MonkeyActivityEvent e = (MonkeyActivityEvent) ev;
+            ComponentName app = e.getApp();
+            byte[] pkg = encode(app.getPackageName());
+            byte[] cls = encode(app.getClassName());
+            byte[] category = e.getCategory() != null ? encode(e.getCategory()) : null;
+            int flags = 0;
+            if (e.mAlarmTime != 0) {
+                flags |= MonkeyScriptCompiler.FLAG_ALARM;
+            }
+            if (category != null) {
+                flags |= FLAG_CATEGORY;
+            }
+            ByteBuffer buf = startRecord(MonkeyScriptCompiler.RECORD_ACTIVITY, flags, result,
+                    delay, pkg.length + cls.length + (category != null ? category.length : 0));
+            putString(buf, pkg);
+            putString(buf, cls);
+            if (e.mAlarmTime != 0) {
+                buf.putLong(e.mAlarmTime);
+            }
+            if (category != null) {
+                putString(buf, category);
+            }
+        } else if (ev instanceof MonkeyPermissionEvent) {
+            MonkeyPermissionEvent e = (MonkeyPermissionEvent) ev;
+            byte[] pkg = encode(e.getPackageName());
+            byte[] permission = encode(e.getPermissionName());
+            ByteBuffer buf = startRecord(RECORD_PERMISSION, 0, result, delay,
+                    pkg.length + permission.length);
+            putString(buf, pkg);
+            putString(buf, permission);
+        } else {
+            byte[] name = encode(ev.getClass().getSimpleName());
+            putString(startRecord(RECORD_UNREPLAYABLE, 0, result, delay, name.length), name);
+        }
+        mRecordCount++;
+    }
+
+    /**
+     * Writes out everything logged so far, and closes the log.
+     */
+    public void close() {
+        if (mBuffer.position() > 0) {
+            mFull.add(mBuffer);
+        }
+        mBuffer = null;
+        mFull.add(END);
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+        }
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            if (mError == null) {
+                mError = e;
+            }
+        }
+        if (mError != null) {
+            Logger.err.println("** Error writing event log " + mFileName + ": " + mError);
+        } else {
+            Logger.out.println(":Recorded " + mRecordCount + " events to " + mFileName);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            ByteBuffer buf;
+            while ((buf = mFull.take()) != END) {
+                buf.flip();
+                try {
+                    if (mError == null) {
+                        while (buf.hasRemaining()) {
+                            mChannel.write(buf);
+                        }
+                    }
+                } catch (IOException e) {
+                    // Keep draining the queue so the monkey thread isn't affected
+                    mError = e;
+                }
+                if (buf.capacity() == BUFFER_SIZE) {
+                    buf.clear();
+                    mFree.offer(buf);
+                }
+            }
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /**
+     * Makes room for a record and writes its header.
+     *
+     * @param stringBytes The total length of the strings in the payload.
+     */
+    private ByteBuffer startRecord(int type, int flags, int result, long delay,
+            int stringBytes) {
+        int size = MAX_FIXED_RECORD_SIZE + stringBytes;
+        if (mBuffer.remaining() < size) {
+            // Hand the full buffer to the writer. If it has fallen behind, use more memory
+            // rather than wait for it.
+            mFull.add(mBuffer);
+            mBuffer = size <= BUFFER_SIZE ? mFree.poll() : null;
+            if (mBuffer == null) {
+                mBuffer = ByteBuffer.allocate(Math.max(size, BUFFER_SIZE));
+            }
+        }
+        ByteBuffer buf = mBuffer;
+        buf.put((byte) type).put((byte) flags).put((byte) result);
+        while (delay > 0x7f) {
+            buf.put((byte) ((delay & 0x7f) | 0x80));
+            delay >>>= 7;
+        }
+        buf.put((byte) delay);
+        return buf;
+    }
+
+    private static byte[] encode(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length > 0xffff) {
+            throw new IllegalArgumentException("String too long to record: " + value.length());
+        }
+        return utf8;
+    }
+
+    private static void putString(ByteBuffer buf, byte[] utf8) {
+        buf.putShort((short) utf8.length).put(utf8);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey
+
+import android.content.ComponentName
+import android.content.pm.PermissionInfo
+import android.view.KeyEvent
+import android.view.MotionEvent
+
+import java.io.File
+import java.util.Random
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+
+import org.junit.Test
+
+private fun describe(event: MonkeyEvent): String {
+    if (event is MonkeyKeyEvent) {
+        return "key " + event.getAction() + " " + event.getKeyCode()
+    }
+    if (event is MonkeyMotionEvent) {
+        val description = StringBuilder("motion " + event.getAction())
+        for (i in 0 until event.getPointerCount()) {
+            val coords = event.getPointerCoords(i)
+            description.append(" " + event.getPointerId(i) + ":" + coords.x + "," + coords.y)
+        }
+        return description.toString()
+    }
+    if (event is MonkeyRotationEvent) {
+        return "rotation " + event.getRotation()
+    }
+    if (event is MonkeyActivityEvent) {
+        return "activity " + event.getApp().flattenToShortString() + " " + event.getCategory()
+    }
+    if (event is MonkeyPermissionEvent) {
+        return "permission " + event.getPackageName() + " " + event.getPermissionName()
+    }
+    return event.javaClass.getSimpleName()
+}
+
+/**
+ * Test for class MonkeyEventRecorder
+ */
+class MonkeyEventRecorderTest {
+    companion object {
+        const val GAP_MS = 50L
+        // How far the replay may play an event from where it was recorded
+        const val TOLERANCE_MS = 30L
+    }
+
+    /**
+     * Record a run, replay the log, and check that it produces the same events with the same
+     * spacing. Events that can't be replayed are left out.
+     */
+    @Test
+    fun replayMatchesRecording() {
+        val app = ComponentName("com.example", "com.example.Main")
+        val categories = HashMap<ComponentName, String>()
+        categories.put(app, "android.intent.category.MONKEY")
+        val permission = PermissionInfo()
+        permission.name = "android.permission.CAMERA"
+        val events = listOf(
+                MonkeyKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_MENU),
+                MonkeyKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_MENU),
+                MonkeyTouchEvent(MotionEvent.ACTION_DOWN).addPointer(0, 10f, 20f),
+                MonkeyTouchEvent(MotionEvent.ACTION_MOVE).setIntermediateNote(true)
+                        .addPointer(0, 15f, 25f).addPointer(1, 100f, 200f),
+                MonkeyNoopEvent(),
+                MonkeyRotationEvent(1, false),
+                MonkeyActivityEvent(app, categories),
+                MonkeyPermissionEvent("com.example", permission))
+
+        val file = File.createTempFile("events", ".mkyl")
+        val recorder = MonkeyEventRecorder(file.getAbsolutePath())
+        val recorded = ArrayList<Pair<String, Long>>()
+        val start = System.nanoTime()
+        for (event in events) {
+            Thread.sleep(GAP_MS)
+            val injectStart = System.nanoTime()
+            recorder.record(event, injectStart, MonkeyEvent.INJECT_SUCCESS)
+            recorder.record(MonkeyThrottleEvent(0), System.nanoTime(), MonkeyEvent.INJECT_SUCCESS)
+            if (event !is MonkeyNoopEvent) {
+                recorded.add(Pair(describe(event), (injectStart - start) / 1000000))
+            }
+        }
+        recorder.close()
+        assertTrue(MonkeyEventRecorder.isEventLog(file.getAbsolutePath()))
+
+        val source = MonkeySourceScript.forFile(Random(), file.getAbsolutePath(), 0, false, 0, 0)
+        assertTrue(source.validate())
+        val replayed = ArrayList<Pair<String, Long>>()
+        val replayStart = System.nanoTime()
+        while (true) {
+            val event = source.getNextEvent() ?: break
+            if (event.getEventType() == MonkeyEvent.EVENT_TYPE_THROTTLE) {
+                // The queue adds these after some events; they're not from the log
+                continue
+            }
+            replayed.add(Pair(describe(event), (System.nanoTime() - replayStart) / 1000000))
+        }
+
+        assertEquals(recorded.map { it.first }, replayed.map { it.first })
+        // The first record is timed from when the recorder was created, the rest from each other
+        for (i in 1 until recorded.size) {
+            val expected = recorded[i].second - recorded[0].second
+            val actual = replayed[i].second - replayed[0].second
+            assertTrue("" + replayed[i] + " played " + actual + "ms after the first event, "
+                    + "recorded " + expected + "ms after",
+                    Math.abs(expected - actual) <= TOLERANCE_MS)
+        }
+
+        file.deleteOnExit()
+    }
+}
@@ -56,6 +56,10 @@ public class MonkeyFlipEvent extends MonkeyEvent {
         mKeyboardOpen = keyboardOpen;
     }
 
+    boolean isKeyboardOpen() {
+        return mKeyboardOpen;
+    }
+
     @Override
     public int injectEvent(IWindowManager iwm, IActivityManager iam, int verbose) {
         if (verbose > 0) {
@@ -71,6 +71,24 @@ public class MonkeyGetAppFrameRateEvent extends MonkeyEvent {
         mStatus = status;
     }
 
+    String getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * Returns the activity name last given to any app frame rate event.
+     */
+    static String getActivityName() {
+        return sActivityName;
+    }
+
+    /**
+     * Returns the test case name last given to any app frame rate event.
+     */
+    static String getTestCaseName() {
+        return sTestCaseName;
+    }
+
     // Calculate the average frame rate
     private float getAverageFrameRate(int totalNumberOfFrame, float duration) {
         float avgFrameRate = 0;
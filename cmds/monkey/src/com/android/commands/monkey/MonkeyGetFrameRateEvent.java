@@ -63,6 +63,17 @@ public class MonkeyGetFrameRateEvent extends MonkeyEvent {
         mStatus = status;
     }
 
+    String getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * Returns the test case name last given to any frame rate event.
+     */
+    static String getTestCaseName() {
+        return mTestCaseName;
+    }
+
     //Calculate the average frame rate
     private float getAverageFrameRate(int totalNumberOfFrame, float duration) {
         float avgFrameRate = 0;
@@ -20,6 +20,7 @@ import android.app.IActivityManager;
 import android.hardware.input.InputManager;
 import android.hardware.input.InputManagerGlobal;
 import android.os.SystemClock;
+import android.util.Pools;
 import android.view.IWindowManager;
 import android.view.InputDevice;
 import android.view.KeyCharacterMap;
@@ -28,6 +29,9 @@ import android.view.KeyEvent;
  * monkey key event
  */
 public class MonkeyKeyEvent extends MonkeyEvent {
+    private static final Pools.SynchronizedPool<MonkeyKeyEvent> sPool =
+            new Pools.SynchronizedPool<MonkeyKeyEvent>(16);
+
     private int mDeviceId;
     private long mEventTime;
     private long mDownTime;
@@ -39,6 +43,9 @@ public class MonkeyKeyEvent extends MonkeyEvent {
 
     private KeyEvent mKeyEvent;
 
+    /** True if this event came from {@link #obtain} and goes back on {@link #recycle}. */
+    private boolean mPooled;
+
     public MonkeyKeyEvent(int action, int keyCode) {
         this(-1, -1, action, keyCode, 0, 0, KeyCharacterMap.VIRTUAL_KEYBOARD, 0);
     }
@@ -57,6 +64,47 @@ public class MonkeyKeyEvent extends MonkeyEvent {
         mScanCode = scanCode;
     }
 
+    /**
+     * Returns a pooled key event, equivalent to {@code new MonkeyKeyEvent(action, keyCode)}.
+     * Call {@link #recycle} once it has been injected.
+     */
+    public static MonkeyKeyEvent obtain(int action, int keyCode) {
+        return obtain(-1, -1, action, keyCode, 0, 0, KeyCharacterMap.VIRTUAL_KEYBOARD, 0);
+    }
+
+    /**
+     * Returns a pooled key event with every field given, like the matching constructor.
+     * Call {@link #recycle} once it has been injected.
+     */
+    public static MonkeyKeyEvent obtain(long downTime, long eventTime, int action,
+            int keyCode, int repeatCount, int metaState,
+            int device, int scanCode) {
+        MonkeyKeyEvent e = sPool.acquire();
+        if (e == null) {
+            e = new MonkeyKeyEvent(downTime, eventTime, action, keyCode, repeatCount,
+                    metaState, device, scanCode);
+        } else {
+            e.mDownTime = downTime;
+            e.mEventTime = eventTime;
+            e.mAction = action;
+            e.mKeyCode = keyCode;
+            e.mRepeatCount = repeatCount;
+            e.mMetaState = metaState;
+            e.mDeviceId = device;
+            e.mScanCode = scanCode;
+        }
+        e.mPooled = true;
+        return e;
+    }
+
+    @Override
+    public void recycle() {
+        if (mPooled) {
+            mPooled = false;
+            sPool.release(this);
+        }
+    }
+
     public MonkeyKeyEvent(KeyEvent e) {
         super(EVENT_TYPE_KEY);
         mKeyEvent = e;
@@ -78,6 +126,22 @@ public class MonkeyKeyEvent extends MonkeyEvent {
         return mKeyEvent != null ? mKeyEvent.getEventTime() : mEventTime;
     }
 
+    int getRepeatCount() {
+        return mKeyEvent != null ? mKeyEvent.getRepeatCount() : mRepeatCount;
+    }
+
+    int getMetaState() {
+        return mKeyEvent != null ? mKeyEvent.getMetaState() : mMetaState;
+    }
+
+    int getDeviceId() {
+        return mKeyEvent != null ? mKeyEvent.getDeviceId() : mDeviceId;
+    }
+
+    int getScanCode() {
+        return mKeyEvent != null ? mKeyEvent.getScanCode() : mScanCode;
+    }
+
     public void setDownTime(long downTime) {
         if (mKeyEvent != null) {
             throw new IllegalStateException("Cannot modify down time of this key event.");
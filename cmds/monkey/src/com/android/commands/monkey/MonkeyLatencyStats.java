@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each event takes to inject, per event type.
+ * <p>
+ * Latencies go into fixed-size log-linear histograms: every power of two is split into
+ * {@link #SUB_BUCKETS} equal buckets, so any recorded value is within about 6% of the true
+ * one. Recording is a couple of array writes, with nothing allocated. Throttle events are not
+ * recorded, since they only sleep.
+ */
+public class MonkeyLatencyStats {
+    private static final String[] TYPE_NAMES = {
+        "key", "touch", "trackball", "rotation", "activity", "flip", "throttle", "permission",
+        "noop", "other"
+    };
+
+    private static final int OTHER_TYPE = TYPE_NAMES.length - 1;
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Latencies are clamped to 2^36ns, a little over a minute
+    private static final int MAX_EXPONENT = 36;
+
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final boolean mReportPeriodically;
+
+    // Totals up to the last report, and what has been recorded since
+    private final Histogram[] mTotal = new Histogram[TYPE_NAMES.length];
+
+    private final Histogram[] mInterval = new Histogram[TYPE_NAMES.length];
+
+    private long mStartNanos;
+
+    private long mLastReportNanos;
+
+    /**
+     * @param reportPeriodically Whether to print the latencies every ten seconds while
+     *            recording, as well as at the end.
+     */
+    public MonkeyLatencyStats(boolean reportPeriodically) {
+        mReportPeriodically = reportPeriodically;
+        for (int i = 0; i < TYPE_NAMES.length; i++) {
+            mTotal[i] = new Histogram();
+            mInterval[i] = new Histogram();
+        }
+    }
+
+    public void start() {
+        mStartNanos = mLastReportNanos = System.nanoTime();
+    }
+
+    /**
+     * Records one injection.
+     *
+     * @param ev The event that was injected.
+     * @param startNanos The {@link System#nanoTime} value from just before the injection.
+     * @param endNanos The {@link System#nanoTime} value from just after it.
+     */
+    public void record(MonkeyEvent ev, long startNanos, long endNanos) {
+        int type = ev.getEventType();
+        if (type == MonkeyEvent.EVENT_TYPE_THROTTLE) {
+            return;
+        }
+        if (type < 0 || type >= OTHER_TYPE) {
+            type = OTHER_TYPE;
+        }
+        mInterval[type].record(endNanos - startNanos);
+
+        if (mReportPeriodically && endNanos - mLastReportNanos >= REPORT_INTERVAL_NANOS) {
+            Logger.out.println("## Injection latency, last "
+                    + TimeUnit.NANOSECONDS.toSeconds(endNanos - mLastReportNanos) + "s:");
+            print(mInterval, endNanos - mLastReportNanos);
+            mergeInterval();
+            mLastReportNanos = endNanos;
+        }
+    }
+
+    /**
+     * Prints the latencies over the whole run.
+     */
+    public void dump() {
+        mergeInterval();
+        Logger.out.println("## Injection latency, whole run:");
+        print(mTotal, System.nanoTime() - mStartNanos);
+    }
+
+    /**
+     * Writes every non-empty bucket of every histogram to a file, one per line, so runs on
+     * different builds can be compared.
+     */
+    public void writeHistograms(String fileName) throws IOException {
+        mergeInterval();
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName))) {
+            out.println("# monkey injection latency, elapsed "
+                    + (System.nanoTime() - mStartNanos) + "ns");
+            out.println("# type bucket_low_ns bucket_high_ns count");
+            for (int type = 0; type < TYPE_NAMES.length; type++) {
+                long[] counts = mTotal[type].mCounts;
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    if (counts[i] != 0) {
+                        out.println(TYPE_NAMES[type] + " " + lowestValue(i) + " "
+                                + highestValue(i) + " " + counts[i]);
+                    }
+                }
+            }
+            if (out.checkError()) {
+                throw new IOException("Error writing " + fileName);
+            }
+        }
+    }
+
+    private void mergeInterval() {
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            mTotal[type].add(mInterval[type]);
+            mInterval[type].clear();
+        }
+    }
+
+    private static void print(Histogram[] histograms, long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        long all = 0;
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            Histogram h = histograms[type];
+            if (h.mCount == 0) {
+                continue;
+            }
+            all += h.mCount;
+            Logger.out.println(String.format("//   %-10s n=%d p50=%s p90=%s p99=%s max=%s"
+                    + " rate=%.1f/s", TYPE_NAMES[type], h.mCount, formatNanos(h.percentile(50)),
+                    formatNanos(h.percentile(90)), formatNanos(h.percentile(99)),
+                    formatNanos(h.mMax), h.mCount / seconds));
+        }
+        Logger.out.println(String.format("//   all        n=%d rate=%.1f/s", all, all / seconds));
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1000000) {
+            return String.format("%.1fus", nanos / 1e3);
+        }
+        return String.format("%.2fms", nanos / 1e6);
+    }
+
+    /**
+     * Values below {@link #SUB_BUCKETS} get a bucket each. Above that, each power of two is
+     * split into {@link #SUB_BUCKETS} buckets.
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        return lowestValue(index) + (1L << (index / SUB_BUCKETS - 1)) - 1;
+    }
+
+    private static class Histogram {
+        final long[] mCounts = new long[BUCKET_COUNT];
+        long mCount;
+        long mMax;
+
+        void record(long nanos) {
+            long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+            mCounts[bucketIndex(value)]++;
+            mCount++;
+            if (value > mMax) {
+                mMax = value;
+            }
+        }
+
+        void add(Histogram other) {
+            if (other.mCount == 0) {
+                return;
+            }
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mCounts[i] += other.mCounts[i];
+            }
+            mCount += other.mCount;
+            mMax = Math.max(mMax, other.mMax);
+        }
+
+        void clear() {
+            if (mCount != 0) {
+                Arrays.fill(mCounts, 0);
+                mCount = 0;
+                mMax = 0;
+            }
+        }
+
+        /**
+         * Returns the highest value in the bucket holding the given percentile, but never
+         * more than the largest value recorded.
+         */
+        long percentile(double percent) {
+            long rank = Math.max(1, (long) Math.ceil(mCount * percent / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), mMax);
+                }
+            }
+            return mMax;
+        }
+    }
+}
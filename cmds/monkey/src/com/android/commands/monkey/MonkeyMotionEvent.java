@@ -24,6 +24,8 @@ import android.util.SparseArray;
 import android.view.IWindowManager;
 import android.view.MotionEvent;
 
+import java.util.ArrayList;
+
 
 /**
  * monkey motion event
@@ -44,6 +46,12 @@ public abstract class MonkeyMotionEvent extends MonkeyEvent {
     //If true, this is an intermediate step (more verbose logging, only)
     private boolean mIntermediateNote;
 
+    // Pointer coordinates kept from an earlier use of a pooled event
+    private ArrayList<MotionEvent.PointerCoords> mSpareCoords;
+
+    // True if this event came from a pool and goes back on recycle()
+    private boolean mPooled;
+
     protected MonkeyMotionEvent(int type, int source, int action) {
         super(type);
         mSource = source;
@@ -61,7 +69,13 @@ public abstract class MonkeyMotionEvent extends MonkeyEvent {
 
     public MonkeyMotionEvent addPointer(int id, float x, float y,
             float pressure, float size) {
-        MotionEvent.PointerCoords c = new MotionEvent.PointerCoords();
+        MotionEvent.PointerCoords c;
+        if (mSpareCoords != null && !mSpareCoords.isEmpty()) {
+            c = mSpareCoords.remove(mSpareCoords.size() - 1);
+            c.clear();
+        } else {
+            c = new MotionEvent.PointerCoords();
+        }
         c.x = x;
         c.y = y;
         c.pressure = pressure;
@@ -70,6 +84,51 @@ public abstract class MonkeyMotionEvent extends MonkeyEvent {
         return this;
     }
 
+    /**
+     * Resets a pooled event to the state the constructor leaves it in, keeping
+     * its pointer coordinates for reuse.
+     */
+    void reset(int action) {
+        mDownTime = -1;
+        mEventTime = -1;
+        mAction = action;
+        if (mSpareCoords == null) {
+            mSpareCoords = new ArrayList<MotionEvent.PointerCoords>();
+        }
+        for (int i = 0; i < mPointers.size(); i++) {
+            mSpareCoords.add(mPointers.valueAt(i));
+        }
+        mPointers.clear();
+        mMetaState = 0;
+        mXPrecision = 1;
+        mYPrecision = 1;
+        mDeviceId = 0;
+        mFlags = 0;
+        mEdgeFlags = 0;
+        mIntermediateNote = false;
+    }
+
+    /**
+     * Marks this event as obtained from a pool, so that {@link #recycle} returns it.
+     */
+    void setPooled() {
+        mPooled = true;
+    }
+
+    @Override
+    public void recycle() {
+        if (mPooled) {
+            mPooled = false;
+            release();
+        }
+    }
+
+    /**
+     * Puts this event back in its subclass's pool.
+     */
+    protected void release() {
+    }
+
     public MonkeyMotionEvent setIntermediateNote(boolean b) {
         mIntermediateNote = b;
         return this;
@@ -91,6 +150,38 @@ public abstract class MonkeyMotionEvent extends MonkeyEvent {
         return mEventTime;
     }
 
+    int getMetaState() {
+        return mMetaState;
+    }
+
+    float getXPrecision() {
+        return mXPrecision;
+    }
+
+    float getYPrecision() {
+        return mYPrecision;
+    }
+
+    int getDeviceId() {
+        return mDeviceId;
+    }
+
+    int getEdgeFlags() {
+        return mEdgeFlags;
+    }
+
+    int getPointerCount() {
+        return mPointers.size();
+    }
+
+    int getPointerId(int index) {
+        return mPointers.keyAt(index);
+    }
+
+    MotionEvent.PointerCoords getPointerCoords(int index) {
+        return mPointers.valueAt(index);
+    }
+
     public MonkeyMotionEvent setDownTime(long downTime) {
         mDownTime = downTime;
         return this;
@@ -37,6 +37,14 @@ public class MonkeyPermissionEvent extends MonkeyEvent {
         mPermissionInfo = permissionInfo;
     }
 
+    String getPackageName() {
+        return mPkg;
+    }
+
+    String getPermissionName() {
+        return mPermissionInfo.name;
+    }
+
     @Override
     public int injectEvent(IWindowManager iwm, IActivityManager iam, int verbose) {
         final IPackageManager packageManager = AppGlobals.getPackageManager();
@@ -66,6 +66,14 @@ public class MonkeyPowerEvent extends MonkeyEvent {
         mTestResult = null;
     }
 
+    String getPowerLogTag() {
+        return mPowerLogTag;
+    }
+
+    String getTestResult() {
+        return mTestResult;
+    }
+
     /**
      * Buffer an event to be logged later.
      */
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces events at a fixed rate, for --rate.
+ * <p>
+ * Event n is due at n / rate seconds after the start, measured with {@link System#nanoTime},
+ * whatever happened to the events before it. When injection falls behind, the missed slots are
+ * either made up by injecting without waiting until the schedule is caught up
+ * ({@link #POLICY_BURST}), or given up so the next event waits for the next future slot
+ * ({@link #POLICY_DROP}). Either way the average rate doesn't drift with injection latency.
+ */
+public class MonkeyRateScheduler {
+    public static final int POLICY_BURST = 0;
+    public static final int POLICY_DROP = 1;
+
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final double mRate;
+
+    private final int mPolicy;
+
+    private final boolean mReportPeriodically;
+
+    private final double mPeriodNanos;
+
+    private long mStartNanos;
+
+    // Index of the next slot on the schedule
+    private long mSlot;
+
+    private long mEvents;
+
+    private long mDroppedSlots;
+
+    private long mLateEvents;
+
+    private long mTotalLagNanos;
+
+    private long mMaxLagNanos;
+
+    private long mLastNanos;
+
+    // Counters at the last periodic report
+    private long mReportNanos;
+
+    private long mReportEvents;
+
+    /**
+     * @param rate Target rate, in events per second.
+     * @param policy What to do about late events: {@link #POLICY_BURST} or
+     *            {@link #POLICY_DROP}.
+     * @param reportPeriodically Whether to print the achieved rate every ten seconds.
+     */
+    public MonkeyRateScheduler(double rate, int policy, boolean reportPeriodically) {
+        mRate = rate;
+        mPolicy = policy;
+        mReportPeriodically = reportPeriodically;
+        mPeriodNanos = 1e9 / rate;
+    }
+
+    /**
+     * Parses the argument of --rate-policy.
+     *
+     * @return The policy, or -1 if the name isn't one.
+     */
+    public static int parsePolicy(String name) {
+        if ("burst".equals(name)) {
+            return POLICY_BURST;
+        } else if ("drop".equals(name)) {
+            return POLICY_DROP;
+        }
+        return -1;
+    }
+
+    public void start() {
+        mStartNanos = mReportNanos = mLastNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits until the next event is due.
+     */
+    public void awaitNextSlot() {
+        long due = slotTime(mSlot);
+        long now = System.nanoTime();
+        long lag = now - due;
+        if (lag > 0) {
+            if (mPolicy == POLICY_DROP && lag >= mPeriodNanos) {
+                // Give up the slots already missed and wait for the next one
+                long skip = (long) (lag / mPeriodNanos) + 1;
+                mDroppedSlots += skip;
+                mSlot += skip;
+                due = slotTime(mSlot);
+                lag = 0;
+            } else {
+                mLateEvents++;
+                mTotalLagNanos += lag;
+                mMaxLagNanos = Math.max(mMaxLagNanos, lag);
+            }
+        }
+        while (now < due) {
+            LockSupport.parkNanos(due - now);
+            now = System.nanoTime();
+        }
+        mSlot++;
+        mEvents++;
+        mLastNanos = now;
+
+        if (mReportPeriodically && now - mReportNanos >= REPORT_INTERVAL_NANOS) {
+            Logger.out.println(String.format("    // Rate: %.1f/s over the last %ds",
+                    (mEvents - mReportEvents) * 1e9 / (now - mReportNanos),
+                    TimeUnit.NANOSECONDS.toSeconds(now - mReportNanos)));
+            mReportNanos = now;
+            mReportEvents = mEvents;
+        }
+    }
+
+    /**
+     * Prints the achieved rate and how far behind the schedule events were.
+     */
+    public void dump() {
+        // The first event is due at the start, so n events span n - 1 periods
+        double seconds = Math.max(mLastNanos - mStartNanos, 1) / 1e9;
+        double achieved = mEvents > 1 ? (mEvents - 1) / seconds : 0;
+        Logger.out.println(String.format(":Rate: target=%.1f/s achieved=%.1f/s events=%d"
+                + " late=%d mean_lag=%.2fms max_lag=%.2fms dropped_slots=%d",
+                mRate, achieved, mEvents, mLateEvents,
+                mLateEvents == 0 ? 0.0 : mTotalLagNanos / 1e6 / mLateEvents,
+                mMaxLagNanos / 1e6, mDroppedSlots));
+    }
+
+    private long slotTime(long slot) {
+        return mStartNanos + (long) (slot * mPeriodNanos);
+    }
+}
@@ -41,6 +41,14 @@ public class MonkeyRotationEvent extends MonkeyEvent {
         mPersist = persist;
     }
 
+    int getRotation() {
+        return mRotationDegree;
+    }
+
+    boolean getPersist() {
+        return mPersist;
+    }
+
     @Override
     public int injectEvent(IWindowManager iwm, IActivityManager iam, int verbose) {
         if (verbose > 0) {
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.view.MotionEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compiles a monkey script into the binary form replayed by {@link MonkeySourceCompiledScript}.
+ * <p>
+ * The script is parsed once, by the same {@link MonkeyScriptParser} that {@link MonkeySourceScript}
+ * uses: key names are resolved to key codes, gestures such as Tap and Drag are expanded into their
+ * touch events, and the header speed is applied to recorded key timings. Waits don't produce events; they move the
+ * next record later on the timeline instead. Layout, all integers big endian:
+ *
+ * <pre>
+ *   int    magic
+ *   int    version
+ *   int    number of records
+ *   per record:
+ *     byte   type
+ *     byte   flags
+ *     varint microseconds after the previous record is due, unsigned LEB128
+ *     ...    payload, depending on the type
+ * </pre>
+ *
+ * Key records hold action, key code, repeat count, meta state, device and scan code as ints.
+ * Touch and trackball records hold action, meta state, x and y precision, device, edge flags,
+ * a pointer count byte and, per pointer, an id byte followed by x, y, pressure and size floats.
+ * Strings are an unsigned short length and UTF-8 bytes.
+ */
+public class MonkeyScriptCompiler implements MonkeyScriptParser.Callback {
+    static final int MAGIC = 0x4d4b5953; // "MKYS"
+    static final int VERSION = 1;
+
+    static final int RECORD_WAIT = 0;
+    static final int RECORD_KEY = 1;
+    static final int RECORD_TOUCH = 2;
+    static final int RECORD_TRACKBALL = 3;
+    static final int RECORD_ROTATION = 4;
+    static final int RECORD_FLIP = 5;
+    static final int RECORD_ACTIVITY = 6;
+    static final int RECORD_INSTRUMENTATION = 7;
+    static final int RECORD_COMMAND = 8;
+    static final int RECORD_POWER = 9;
+    static final int RECORD_FRAMERATE = 10;
+    static final int RECORD_APP_FRAMERATE = 11;
+    static final int RECORD_PROFILE_WAIT = 12;
+    static final int RECORD_DEVICE_WAKEUP = 13;
+
+    /** Key and motion records: the event starts a new press, so it gets a new down time. */
+    static final int FLAG_NEW_DOWN = 1;
+    /** Key records: the event carries script timestamps rather than -1. */
+    static final int FLAG_TIMED = 2;
+    /** Motion records: the event is an intermediate step of a gesture. */
+    static final int FLAG_INTERMEDIATE = 4;
+    /** Activity records: the record ends with an alarm time. */
+    static final int FLAG_ALARM = 8;
+
+    private final MonkeyScriptParser mParser = new MonkeyScriptParser(this);
+
+    private DataOutputStream mOut;
+    private int mRecordCount;
+
+    // Timeline position, and the time the last record was due, in microseconds
+    private long mTime;
+    private long mLastTime;
+
+    private long mLastKeyEventTime = -1;
+    private long mLastKeyDownTime;
+    private long mLastMotionDownTime = -1;
+
+    // Timeline position of the first multi-touch event in line-by-line scripts
+    private long mPointerStartTime = -1;
+
+    private MonkeyScriptCompiler(DataOutputStream out) {
+        mOut = out;
+    }
+
+    /**
+     * Returns true if the file starts like a compiled script.
+     */
+    public static boolean isCompiled(String fileName) {
+        try (FileInputStream in = new FileInputStream(fileName)) {
+            byte[] header = new byte[4];
+            return in.read(header) == 4 && ByteBuffer.wrap(header).getInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compiles a script file.
+     *
+     * @param scriptFileName The text script.
+     * @param outFileName The file to write the compiled script to.
+     * @return The number of records written.
+     * @throws IOException If the script could not be read, has no valid header, or the
+     *         output could not be written.
+     */
+    public static int compile(String scriptFileName, String outFileName) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        MonkeyScriptCompiler compiler = new MonkeyScriptCompiler(new DataOutputStream(records));
+        try (BufferedReader reader = new BufferedReader(new FileReader(scriptFileName))) {
+            if (!compiler.mParser.readHeader(reader)) {
+                throw new IOException(scriptFileName + " has no valid script header");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                compiler.mParser.processLine(line.trim());
+            }
+        }
+        compiler.finish();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(outFileName)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(compiler.mRecordCount);
+            records.writeTo(out);
+        }
+        return compiler.mRecordCount;
+    }
+
+    @Override
+    public void addEvent(MonkeyEvent ev) throws IOException {
+        if (ev instanceof MonkeyKeyEvent) {
+            MonkeyKeyEvent e = (MonkeyKeyEvent) ev;
+            long downTime = e.getDownTime();
+            long eventTime = e.getEventTime();
+            int flags = 0;
+            if (eventTime >= 0) {
+                flags |= FLAG_TIMED;
+                if (mLastKeyEventTime < 0 || downTime != mLastKeyDownTime) {
+                    flags |= FLAG_NEW_DOWN;
+                }
+                if (mLastKeyEventTime >= 0) {
+                    // Keys recorded out of order are played at once, as the script source does
+                    long delay = (long) ((eventTime - mLastKeyEventTime) * mParser.getSpeed()
+                            * 1000);
+                    mTime += Math.max(delay, 0);
+                }
+                mLastKeyEventTime = eventTime;
+                mLastKeyDownTime = downTime;
+            }
+            begin(RECORD_KEY, flags);
+            mOut.writeInt(e.getAction());
+            mOut.writeInt(e.getKeyCode());
+            mOut.writeInt(e.getRepeatCount());
+            mOut.writeInt(e.getMetaState());
+            mOut.writeInt(e.getDeviceId());
+            mOut.writeInt(e.getScanCode());
+        } else if (ev instanceof MonkeyMotionEvent) {
+            MonkeyMotionEvent e = (MonkeyMotionEvent) ev;
+            int flags = 0;
+            if (e.getDownTime() != mLastMotionDownTime) {
+                flags |= FLAG_NEW_DOWN;
+                mLastMotionDownTime = e.getDownTime();
+            }
+            if (e.getIntermediateNote()) {
+                flags |= FLAG_INTERMEDIATE;
+            }
+            begin(ev.getEventType() == MonkeyEvent.EVENT_TYPE_TOUCH
+                    ? RECORD_TOUCH : RECORD_TRACKBALL, flags);
+            mOut.writeInt(e.getAction());
+            mOut.writeInt(e.getMetaState());
+            mOut.writeFloat(e.getXPrecision());
+            mOut.writeFloat(e.getYPrecision());
+            mOut.writeInt(e.getDeviceId());
+            mOut.writeInt(e.getEdgeFlags());
+            mOut.writeByte(e.getPointerCount());
+            for (int i = 0; i < e.getPointerCount(); i++) {
+                MotionEvent.PointerCoords c = e.getPointerCoords(i);
+                mOut.writeByte(e.getPointerId(i));
+                mOut.writeFloat(c.x);
+                mOut.writeFloat(c.y);
+                mOut.writeFloat(c.pressure);
+                mOut.writeFloat(c.size);
+            }
+        } else if (ev instanceof MonkeyRotationEvent) {
+            MonkeyRotationEvent e = (MonkeyRotationEvent) ev;
+            begin(RECORD_ROTATION, 0);
+            mOut.writeInt(e.getRotation());
+            mOut.writeByte(e.getPersist() ? 1 : 0);
+        } else if (ev instanceof MonkeyFlipEvent) {
+            begin(RECORD_FLIP, 0);
+            mOut.writeByte(((MonkeyFlipEvent) ev).isKeyboardOpen() ? 1 : 0);
+        } else if (ev instanceof MonkeyActivityEvent) {
+            MonkeyActivityEvent e = (MonkeyActivityEvent) ev;
+            begin(RECORD_ACTIVITY, e.mAlarmTime != 0 ? FLAG_ALARM : 0);
+            writeString(e.getApp().getPackageName());
+            writeString(e.getApp().getClassName());
+            if (e.mAlarmTime != 0) {
+                mOut.writeLong(e.mAlarmTime);
+            }
+        } else if (ev instanceof MonkeyInstrumentationEvent) {
+            MonkeyInstrumentationEvent e = (MonkeyInstrumentationEvent) ev;
+            begin(RECORD_INSTRUMENTATION, 0);
+            writeString(e.mTestCaseName);
+            writeString(e.mRunnerName);
+        } else if (ev instanceof MonkeyCommandEvent) {
+            begin(RECORD_COMMAND, 0);
+            writeString(((MonkeyCommandEvent) ev).getCommand());
+        } else if (ev instanceof MonkeyPowerEvent) {
+            MonkeyPowerEvent e = (MonkeyPowerEvent) ev;
+            if (e.getPowerLogTag() == null) {
+                strings(RECORD_POWER);
+            } else if (e.getTestResult() == null) {
+                strings(RECORD_POWER, e.getPowerLogTag());
+            } else {
+                strings(RECORD_POWER, e.getPowerLogTag(), e.getTestResult());
+            }
+        } else if (ev instanceof MonkeyGetFrameRateEvent) {
+            // The names are shared by all capture events, and were just set by this one.
+            // Scripts only name the test case when the capture ends.
+            String status = ((MonkeyGetFrameRateEvent) ev).getStatus();
+            if ("start".equals(status)) {
+                strings(RECORD_FRAMERATE, status);
+            } else {
+                strings(RECORD_FRAMERATE, status, MonkeyGetFrameRateEvent.getTestCaseName());
+            }
+        } else if (ev instanceof MonkeyGetAppFrameRateEvent) {
+            String status = ((MonkeyGetAppFrameRateEvent) ev).getStatus();
+            String app = MonkeyGetAppFrameRateEvent.getActivityName();
+            if ("start".equals(status)) {
+                strings(RECORD_APP_FRAMERATE, status, app);
+            } else {
+                strings(RECORD_APP_FRAMERATE, status, app,
+                        MonkeyGetAppFrameRateEvent.getTestCaseName());
+            }
+        } else {
+            throw new IOException("Can't compile " + ev.getClass().getSimpleName());
+        }
+    }
+
+    @Override
+    public void addWait(long waitTime) {
+        mTime += Math.max(waitTime, 0) * 1000;
+    }
+
+    @Override
+    public void addProfileWait() throws IOException {
+        begin(RECORD_PROFILE_WAIT, 0);
+    }
+
+    @Override
+    public void addDeviceWakeUp() throws IOException {
+        begin(RECORD_DEVICE_WAKEUP, 0);
+    }
+
+    @Override
+    public void addScriptWait(long elapsedTime) {
+        if (mPointerStartTime < 0) {
+            mPointerStartTime = mTime;
+        }
+        mTime = Math.max(mTime, mPointerStartTime + elapsedTime * 1000);
+    }
+
+    /**
+     * Keeps a trailing wait, so that a replay loop pauses just as the script does.
+     */
+    private void finish() throws IOException {
+        if (mTime > mLastTime) {
+            begin(RECORD_WAIT, 0);
+        }
+    }
+
+    /**
+     * Starts a record due at the current timeline position.
+     */
+    private void begin(int type, int flags) throws IOException {
+        mOut.writeByte(type);
+        mOut.writeByte(flags);
+        long delay = mTime - mLastTime;
+        while ((delay & ~0x7fL) != 0) {
+            mOut.writeByte((int) (delay & 0x7f) | 0x80);
+            delay >>>= 7;
+        }
+        mOut.writeByte((int) delay);
+        mLastTime = mTime;
+        mRecordCount++;
+    }
+
+    /**
+     * Writes a record whose payload is a count byte and that many strings.
+     */
+    private void strings(int type, String... values) throws IOException {
+        begin(type, 0);
+        mOut.writeByte(values.length);
+        for (String value : values) {
+            writeString(value);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length > 0xffff) {
+            throw new IOException("Script argument too long");
+        }
+        mOut.writeShort(utf8.length);
+        mOut.write(utf8);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey
+
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileWriter
+import java.util.Random
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+
+import org.junit.Test
+
+private fun describe(event: MonkeyEvent): String {
+    if (event is MonkeyKeyEvent) {
+        return "key " + event.getAction() + " " + event.getKeyCode()
+    }
+    if (event is MonkeyMotionEvent) {
+        val description = StringBuilder("motion " + event.getAction())
+        for (i in 0 until event.getPointerCount()) {
+            val coords = event.getPointerCoords(i)
+            description.append(" " + event.getPointerId(i) + ":" + coords.x + "," + coords.y)
+        }
+        return description.toString()
+    }
+    return event.javaClass.getSimpleName()
+}
+
+/**
+ * Plays one pass of a script, sleeping through its waits, and returns the other events it
+ * produced along with the time each was played, in milliseconds from the start.
+ */
+private fun replay(source: MonkeyEventSource): List<Pair<String, Long>> {
+    assertTrue(source.validate())
+    val events = ArrayList<Pair<String, Long>>()
+    val start = System.nanoTime()
+    while (true) {
+        val event = source.getNextEvent() ?: break
+        if (event.getEventType() == MonkeyEvent.EVENT_TYPE_THROTTLE) {
+            // Waits only sleep; they don't need the window or activity manager
+            event.injectEvent(null, null, 0)
+        } else {
+            events.add(Pair(describe(event), (System.nanoTime() - start) / 1000000))
+        }
+    }
+    return events
+}
+
+/**
+ * Test for class MonkeyScriptCompiler
+ */
+class MonkeyScriptCompilerTest {
+    companion object {
+        // How far apart the two replays may play an event. The text script sleeps between
+        // events, so its timing drifts a little.
+        const val TOLERANCE_MS = 100L
+    }
+
+    /**
+     * Compile a script, replay it, and check that it produces the same events at the same
+     * times as the text script.
+     */
+    @Test
+    fun compiledScriptMatchesTextScript() {
+        val file = File.createTempFile("script", null)
+        val compiled = File.createTempFile("script", ".bin")
+        BufferedWriter(FileWriter(file)).use { writer ->
+            writer.write("count= 10\n")
+            writer.write("speed= 1.0\n")
+            writer.write("start data >>\n")
+            writer.write("DispatchKey(1000,1000,0,20,0,0,0,0)\n")
+            writer.write("DispatchKey(1000,1300,1,20,0,0,0,0)\n")
+            // Recorded out of order: played at once, then timed from here
+            writer.write("DispatchKey(2000,900,0,21,0,0,0,0)\n")
+            writer.write("DispatchKey(2000,1200,1,21,0,0,0,0)\n")
+            writer.write("Tap(10,20)\n")
+            writer.write("PressAndHold(30,40,400)\n")
+            writer.write("UserWait(300)\n")
+            writer.write("Drag(0,0,100,100,3)\n")
+            writer.write("PinchZoom(100,100,200,200,50,50,10,10,2)\n")
+            writer.write("RotateScreen(1,0)\n")
+            writer.write("LaunchActivity(com.example,com.example.Main)\n")
+        }
+        MonkeyScriptCompiler.compile(file.getAbsolutePath(), compiled.getAbsolutePath())
+
+        // Load and warm up everything first, so that doesn't count against either replay
+        replay(MonkeySourceScript(Random(), file.getAbsolutePath(), 0, false, 0, 0))
+        val expected =
+                replay(MonkeySourceScript(Random(), file.getAbsolutePath(), 0, false, 0, 0))
+        val actual = replay(
+                MonkeySourceCompiledScript(Random(), compiled.getAbsolutePath(), 0, false, 0, 0))
+
+        assertEquals(expected.map { it.first }, actual.map { it.first })
+        for (i in expected.indices) {
+            val drift = Math.abs(expected[i].second - actual[i].second)
+            assertTrue("" + actual[i] + " played " + drift + "ms away from " + expected[i],
+                    drift <= TOLERANCE_MS)
+        }
+
+        file.deleteOnExit()
+        compiled.deleteOnExit()
+    }
+}
@@ -0,0 +1,664 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.content.ComponentName;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.Surface;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Parses monkey scripts into events. {@link MonkeySourceScript} queues the events as the
+ * script is read, and {@link MonkeyScriptCompiler} writes them out for
+ * {@link MonkeySourceCompiledScript} to replay; both see the same events through a
+ * {@link Callback}.
+ */
+public class MonkeyScriptParser {
+    /**
+     * Receives what a script produces, in script order.
+     */
+    public interface Callback {
+        /**
+         * Handles the next event of the script. Key events from DispatchKey lines carry the
+         * recorded times; others have -1. Motion events carry recorded down times, or new
+         * ones for gestures such as Tap and Drag.
+         */
+        void addEvent(MonkeyEvent e) throws IOException;
+
+        /**
+         * Handles a pause before the next event, as given in the script.
+         */
+        void addWait(long waitTime) throws IOException;
+
+        /**
+         * Handles a ProfileWait line, a pause as long as the monkey was told to wait for
+         * each user profile.
+         */
+        void addProfileWait() throws IOException;
+
+        /**
+         * Handles a DeviceWakeUp line, see {@link MonkeyScriptParser#addDeviceWakeUp}.
+         */
+        void addDeviceWakeUp() throws IOException;
+
+        /**
+         * Line-by-line scripts only: the next event was recorded the given time after the
+         * first multi-touch event, so it shouldn't be played any sooner after that one.
+         */
+        void addScriptWait(long elapsedTime) throws IOException;
+    }
+
+    private static final String HEADER_COUNT = "count=";
+
+    private static final String HEADER_SPEED = "speed=";
+
+    // if this header is present, scripts are read and processed in line-by-line mode
+    private static final String HEADER_LINE_BY_LINE = "linebyline";
+
+    // a line at the end of the header
+    private static final String STARTING_DATA_LINE = "start data >>";
+
+    // event key word in the capture log
+    private static final String EVENT_KEYWORD_POINTER = "DispatchPointer";
+
+    private static final String EVENT_KEYWORD_TRACKBALL = "DispatchTrackball";
+
+    private static final String EVENT_KEYWORD_ROTATION = "RotateScreen";
+
+    private static final String EVENT_KEYWORD_KEY = "DispatchKey";
+
+    private static final String EVENT_KEYWORD_FLIP = "DispatchFlip";
+
+    private static final String EVENT_KEYWORD_KEYPRESS = "DispatchPress";
+
+    private static final String EVENT_KEYWORD_ACTIVITY = "LaunchActivity";
+
+    private static final String EVENT_KEYWORD_INSTRUMENTATION = "LaunchInstrumentation";
+
+    private static final String EVENT_KEYWORD_WAIT = "UserWait";
+
+    private static final String EVENT_KEYWORD_LONGPRESS = "LongPress";
+
+    private static final String EVENT_KEYWORD_POWERLOG = "PowerLog";
+
+    private static final String EVENT_KEYWORD_WRITEPOWERLOG = "WriteLog";
+
+    private static final String EVENT_KEYWORD_RUNCMD = "RunCmd";
+
+    private static final String EVENT_KEYWORD_TAP = "Tap";
+
+    private static final String EVENT_KEYWORD_PROFILE_WAIT = "ProfileWait";
+
+    private static final String EVENT_KEYWORD_DEVICE_WAKEUP = "DeviceWakeUp";
+
+    private static final String EVENT_KEYWORD_INPUT_STRING = "DispatchString";
+
+    private static final String EVENT_KEYWORD_PRESSANDHOLD = "PressAndHold";
+
+    private static final String EVENT_KEYWORD_DRAG = "Drag";
+
+    private static final String EVENT_KEYWORD_PINCH_ZOOM = "PinchZoom";
+
+    private static final String EVENT_KEYWORD_START_FRAMERATE_CAPTURE = "StartCaptureFramerate";
+
+    private static final String EVENT_KEYWORD_END_FRAMERATE_CAPTURE = "EndCaptureFramerate";
+
+    private static final String EVENT_KEYWORD_START_APP_FRAMERATE_CAPTURE =
+            "StartCaptureAppFramerate";
+
+    private static final String EVENT_KEYWORD_END_APP_FRAMERATE_CAPTURE = "EndCaptureAppFramerate";
+
+    private static final int LONGPRESS_WAIT_TIME = 2000; // wait time for the long press
+
+    private final Callback mCallback;
+
+    private int mEventCount = 0; // total number of events in the file
+
+    private double mSpeed = 1.0;
+
+    // process scripts in line-by-line mode (true) or batch processing mode (false)
+    private boolean mLineByLine = false;
+
+    // X and Y coordinates of last touch event. Array Index is the pointerId
+    private float mLastX[] = new float[2];
+
+    private float mLastY[] = new float[2];
+
+    // Recorded time of the first multi-touch event
+    private long mScriptStartTime = -1;
+
+    // Last down time handed out to a gesture
+    private long mLastDownTime = -1;
+
+    public MonkeyScriptParser(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Returns the event count given in the header.
+     */
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * Returns the speed given in the header, which scales the time between recorded keys.
+     */
+    public double getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * Returns true if the header asks for the script to be played one line at a time.
+     */
+    public boolean isLineByLine() {
+        return mLineByLine;
+    }
+
+    /**
+     * Reads the header of the script file.
+     *
+     * @return True if the file header could be parsed, and false otherwise.
+     * @throws IOException If there was an error reading the file.
+     */
+    public boolean readHeader(BufferedReader reader) throws IOException {
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+
+            if (line.indexOf(HEADER_COUNT) >= 0) {
+                try {
+                    String value = line.substring(HEADER_COUNT.length() + 1).trim();
+                    mEventCount = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    Logger.err.println("" + e);
+                    return false;
+                }
+            } else if (line.indexOf(HEADER_SPEED) >= 0) {
+                try {
+                    String value = line.substring(HEADER_SPEED.length() + 1).trim();
+                    mSpeed = Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    Logger.err.println("" + e);
+                    return false;
+                }
+            } else if (line.indexOf(HEADER_LINE_BY_LINE) >= 0) {
+                mLineByLine = true;
+            } else if (line.indexOf(STARTING_DATA_LINE) >= 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Extracts an event and a list of arguments from a line, and hands the events it
+     * produces to the callback. If the line does not match the format required, or its
+     * arguments can't be parsed, it is ignored.
+     *
+     * @param line A string in the form {@code cmd(arg1,arg2,arg3)}.
+     */
+    public void processLine(String line) throws IOException {
+        int index1 = line.indexOf('(');
+        int index2 = line.indexOf(')');
+
+        if (index1 < 0 || index2 < 0) {
+            return;
+        }
+
+        String[] args = line.substring(index1 + 1, index2).split(",");
+
+        for (int i = 0; i < args.length; i++) {
+            args[i] = args[i].trim();
+        }
+
+        try {
+            handleEvent(line, args);
+        } catch (NumberFormatException e) {
+            Logger.err.println("// " + e.toString());
+        }
+    }
+
+    /**
+     * Queues the events of a DeviceWakeUp line: an activity that turns the screen off for the
+     * given time, and the keys that wake the device and dismiss the activity afterwards.
+     */
+    public static void addDeviceWakeUp(MonkeyEventQueue q, long deviceSleepTime) {
+        // Start the wakeUpScreen test activity to turn off the screen.
+        ComponentName app = new ComponentName("com.google.android.powerutil",
+                "com.google.android.powerutil.WakeUpScreen");
+        q.addLast(new MonkeyActivityEvent(app, deviceSleepTime));
+
+        // Inject the special key for the wakeUpScreen test activity.
+        q.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_0));
+        q.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_0));
+
+        // Wait for the device to wake up again, then unlock the screen and dismiss the
+        // test activity.
+        q.addLast(new MonkeyWaitEvent(deviceSleepTime + 3000));
+        q.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_MENU));
+        q.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_MENU));
+        q.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_BACK));
+        q.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_BACK));
+    }
+
+    /**
+     * Creates the events for a line and hands them to the callback. If the parameters are
+     * not understood, they are ignored and no events are produced.
+     *
+     * @param s The entire string from the script file.
+     * @param args An array of arguments extracted from the script file line.
+     */
+    private void handleEvent(String s, String[] args) throws IOException {
+        // Handle key event
+        if (s.indexOf(EVENT_KEYWORD_KEY) >= 0 && args.length == 8) {
+            long downTime = Long.parseLong(args[0]);
+            long eventTime = Long.parseLong(args[1]);
+            int action = Integer.parseInt(args[2]);
+            int code = Integer.parseInt(args[3]);
+            int repeat = Integer.parseInt(args[4]);
+            int metaState = Integer.parseInt(args[5]);
+            int device = Integer.parseInt(args[6]);
+            int scancode = Integer.parseInt(args[7]);
+
+            mCallback.addEvent(new MonkeyKeyEvent(downTime, eventTime, action, code, repeat,
+                    metaState, device, scancode));
+            return;
+        }
+
+        // Handle trackball or pointer events
+        if ((s.indexOf(EVENT_KEYWORD_POINTER) >= 0 || s.indexOf(EVENT_KEYWORD_TRACKBALL) >= 0)
+                && args.length == 12) {
+            long downTime = Long.parseLong(args[0]);
+            long eventTime = Long.parseLong(args[1]);
+            int action = Integer.parseInt(args[2]);
+            float x = Float.parseFloat(args[3]);
+            float y = Float.parseFloat(args[4]);
+            float pressure = Float.parseFloat(args[5]);
+            float size = Float.parseFloat(args[6]);
+            int metaState = Integer.parseInt(args[7]);
+            float xPrecision = Float.parseFloat(args[8]);
+            float yPrecision = Float.parseFloat(args[9]);
+            int device = Integer.parseInt(args[10]);
+            int edgeFlags = Integer.parseInt(args[11]);
+
+            MonkeyMotionEvent e;
+            if (s.indexOf("Pointer") > 0) {
+                e = new MonkeyTouchEvent(action);
+            } else {
+                e = new MonkeyTrackballEvent(action);
+            }
+
+            e.setDownTime(downTime)
+                    .setEventTime(eventTime)
+                    .setMetaState(metaState)
+                    .setPrecision(xPrecision, yPrecision)
+                    .setDeviceId(device)
+                    .setEdgeFlags(edgeFlags)
+                    .addPointer(0, x, y, pressure, size);
+            mCallback.addEvent(e);
+            return;
+        }
+
+        // Handle trackball or multi-touch  pointer events. pointer ID is the 13th parameter
+        if ((s.indexOf(EVENT_KEYWORD_POINTER) >= 0 || s.indexOf(EVENT_KEYWORD_TRACKBALL) >= 0)
+                && args.length == 13) {
+            long downTime = Long.parseLong(args[0]);
+            long eventTime = Long.parseLong(args[1]);
+            int action = Integer.parseInt(args[2]);
+            float x = Float.parseFloat(args[3]);
+            float y = Float.parseFloat(args[4]);
+            float pressure = Float.parseFloat(args[5]);
+            float size = Float.parseFloat(args[6]);
+            int metaState = Integer.parseInt(args[7]);
+            float xPrecision = Float.parseFloat(args[8]);
+            float yPrecision = Float.parseFloat(args[9]);
+            int device = Integer.parseInt(args[10]);
+            int edgeFlags = Integer.parseInt(args[11]);
+            int pointerId = Integer.parseInt(args[12]);
+
+            MonkeyMotionEvent e;
+            if (s.indexOf("Pointer") > 0) {
+                if (action == MotionEvent.ACTION_POINTER_DOWN) {
+                    e = new MonkeyTouchEvent(MotionEvent.ACTION_POINTER_DOWN
+                            | (pointerId << MotionEvent.ACTION_POINTER_INDEX_SHIFT))
+                                    .setIntermediateNote(true);
+                } else {
+                    e = new MonkeyTouchEvent(action);
+                }
+                if (mScriptStartTime < 0) {
+                    mScriptStartTime = eventTime;
+                }
+            } else {
+                e = new MonkeyTrackballEvent(action);
+            }
+
+            if (pointerId == 1) {
+                e.setDownTime(downTime)
+                        .setEventTime(eventTime)
+                        .setMetaState(metaState)
+                        .setPrecision(xPrecision, yPrecision)
+                        .setDeviceId(device)
+                        .setEdgeFlags(edgeFlags)
+                        .addPointer(0, mLastX[0], mLastY[0], pressure, size)
+                        .addPointer(1, x, y, pressure, size);
+                mLastX[1] = x;
+                mLastY[1] = y;
+            } else if (pointerId == 0) {
+                e.setDownTime(downTime)
+                        .setEventTime(eventTime)
+                        .setMetaState(metaState)
+                        .setPrecision(xPrecision, yPrecision)
+                        .setDeviceId(device)
+                        .setEdgeFlags(edgeFlags)
+                        .addPointer(0, x, y, pressure, size);
+                if (action == MotionEvent.ACTION_POINTER_UP) {
+                    e.addPointer(1, mLastX[1], mLastY[1]);
+                }
+                mLastX[0] = x;
+                mLastY[0] = y;
+            }
+
+            // Follow the time taps recorded in the script
+            if (mLineByLine && mScriptStartTime >= 0) {
+                mCallback.addScriptWait(eventTime - mScriptStartTime);
+            }
+            mCallback.addEvent(e);
+            return;
+        }
+
+        // Handle screen rotation events
+        if ((s.indexOf(EVENT_KEYWORD_ROTATION) >= 0) && args.length == 2) {
+            int rotationDegree = Integer.parseInt(args[0]);
+            int persist = Integer.parseInt(args[1]);
+            if ((rotationDegree == Surface.ROTATION_0) ||
+                (rotationDegree == Surface.ROTATION_90) ||
+                (rotationDegree == Surface.ROTATION_180) ||
+                (rotationDegree == Surface.ROTATION_270)) {
+                mCallback.addEvent(new MonkeyRotationEvent(rotationDegree, persist != 0));
+            }
+            return;
+        }
+
+        // Handle tap event
+        if ((s.indexOf(EVENT_KEYWORD_TAP) >= 0) && args.length >= 2) {
+            float x = Float.parseFloat(args[0]);
+            float y = Float.parseFloat(args[1]);
+            long tapDuration = 0;
+            if (args.length == 3) {
+                tapDuration = Long.parseLong(args[2]);
+            }
+
+            // Set the default parameters
+            long downTime = newDownTime();
+            mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_DOWN)
+                    .setDownTime(downTime)
+                    .setEventTime(downTime)
+                    .addPointer(0, x, y, 1, 5));
+            if (tapDuration > 0) {
+                mCallback.addWait(tapDuration);
+            }
+            mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_UP)
+                    .setDownTime(downTime)
+                    .setEventTime(downTime)
+                    .addPointer(0, x, y, 1, 5));
+            return;
+        }
+
+        // Handle the press and hold
+        if ((s.indexOf(EVENT_KEYWORD_PRESSANDHOLD) >= 0) && args.length == 3) {
+            float x = Float.parseFloat(args[0]);
+            float y = Float.parseFloat(args[1]);
+            long pressDuration = Long.parseLong(args[2]);
+
+            // Set the default parameters
+            long downTime = newDownTime();
+            long upTime = downTime + pressDuration;
+            mLastDownTime = Math.max(mLastDownTime, upTime);
+
+            mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_DOWN)
+                    .setDownTime(downTime)
+                    .setEventTime(downTime)
+                    .addPointer(0, x, y, 1, 5));
+            mCallback.addWait(pressDuration);
+            mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_UP)
+                    .setDownTime(upTime)
+                    .setEventTime(upTime)
+                    .addPointer(0, x, y, 1, 5));
+            return;
+        }
+
+        // Handle drag event
+        if ((s.indexOf(EVENT_KEYWORD_DRAG) >= 0) && args.length == 5) {
+            float xStart = Float.parseFloat(args[0]);
+            float yStart = Float.parseFloat(args[1]);
+            float xEnd = Float.parseFloat(args[2]);
+            float yEnd = Float.parseFloat(args[3]);
+            int stepCount = Integer.parseInt(args[4]);
+
+            float x = xStart;
+            float y = yStart;
+
+            if (stepCount > 0) {
+                long downTime = newDownTime();
+                float xStep = (xEnd - xStart) / stepCount;
+                float yStep = (yEnd - yStart) / stepCount;
+
+                mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_DOWN)
+                        .setDownTime(downTime).setEventTime(SystemClock.uptimeMillis())
+                        .addPointer(0, x, y, 1, 5));
+
+                for (int i = 0; i < stepCount; ++i) {
+                    x += xStep;
+                    y += yStep;
+                    mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_MOVE)
+                            .setDownTime(downTime).setEventTime(SystemClock.uptimeMillis())
+                            .addPointer(0, x, y, 1, 5));
+                }
+
+                mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_UP)
+                        .setDownTime(downTime).setEventTime(SystemClock.uptimeMillis())
+                        .addPointer(0, x, y, 1, 5));
+            }
+            return;
+        }
+
+        // Handle pinch or zoom action
+        if ((s.indexOf(EVENT_KEYWORD_PINCH_ZOOM) >= 0) && args.length == 9) {
+            //Parse the parameters
+            float pt1xStart = Float.parseFloat(args[0]);
+            float pt1yStart = Float.parseFloat(args[1]);
+            float pt1xEnd = Float.parseFloat(args[2]);
+            float pt1yEnd = Float.parseFloat(args[3]);
+
+            float pt2xStart = Float.parseFloat(args[4]);
+            float pt2yStart = Float.parseFloat(args[5]);
+            float pt2xEnd = Float.parseFloat(args[6]);
+            float pt2yEnd = Float.parseFloat(args[7]);
+
+            int stepCount = Integer.parseInt(args[8]);
+
+            float x1 = pt1xStart;
+            float y1 = pt1yStart;
+            float x2 = pt2xStart;
+            float y2 = pt2yStart;
+
+            if (stepCount > 0) {
+                long downTime = newDownTime();
+                long eventTime = SystemClock.uptimeMillis();
+                float pt1xStep = (pt1xEnd - pt1xStart) / stepCount;
+                float pt1yStep = (pt1yEnd - pt1yStart) / stepCount;
+
+                float pt2xStep = (pt2xEnd - pt2xStart) / stepCount;
+                float pt2yStep = (pt2yEnd - pt2yStart) / stepCount;
+
+                mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_DOWN)
+                        .setDownTime(downTime).setEventTime(eventTime)
+                        .addPointer(0, x1, y1, 1, 5));
+
+                mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_POINTER_DOWN
+                        | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT)).setDownTime(downTime)
+                        .addPointer(0, x1, y1).addPointer(1, x2, y2).setIntermediateNote(true));
+
+                for (int i = 0; i < stepCount; ++i) {
+                    x1 += pt1xStep;
+                    y1 += pt1yStep;
+                    x2 += pt2xStep;
+                    y2 += pt2yStep;
+
+                    eventTime = SystemClock.uptimeMillis();
+                    mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_MOVE)
+                            .setDownTime(downTime).setEventTime(eventTime)
+                            .addPointer(0, x1, y1, 1, 5).addPointer(1, x2, y2, 1, 5));
+                }
+                eventTime = SystemClock.uptimeMillis();
+                mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_POINTER_UP
+                        | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT))
+                        .setDownTime(downTime).setEventTime(eventTime).addPointer(0, x1, y1)
+                        .addPointer(1, x2, y2));
+                mCallback.addEvent(new MonkeyTouchEvent(MotionEvent.ACTION_UP)
+                        .setDownTime(downTime).setEventTime(eventTime).addPointer(0, x1, y1));
+            }
+            return;
+        }
+
+        // Handle flip events
+        if (s.indexOf(EVENT_KEYWORD_FLIP) >= 0 && args.length == 1) {
+            boolean keyboardOpen = Boolean.parseBoolean(args[0]);
+            mCallback.addEvent(new MonkeyFlipEvent(keyboardOpen));
+            return;
+        }
+
+        // Handle launch events
+        if (s.indexOf(EVENT_KEYWORD_ACTIVITY) >= 0 && args.length >= 2) {
+            ComponentName app = new ComponentName(args[0], args[1]);
+            if (args.length == 2) {
+                mCallback.addEvent(new MonkeyActivityEvent(app));
+            } else {
+                mCallback.addEvent(new MonkeyActivityEvent(app, Long.parseLong(args[2])));
+            }
+            return;
+        }
+
+        // Handle the device wake up event
+        if (s.indexOf(EVENT_KEYWORD_DEVICE_WAKEUP) >= 0) {
+            mCallback.addDeviceWakeUp();
+            return;
+        }
+
+        // Handle launch instrumentation events
+        if (s.indexOf(EVENT_KEYWORD_INSTRUMENTATION) >= 0 && args.length == 2) {
+            mCallback.addEvent(new MonkeyInstrumentationEvent(args[0], args[1]));
+            return;
+        }
+
+        // Handle wait events
+        if (s.indexOf(EVENT_KEYWORD_WAIT) >= 0 && args.length == 1) {
+            mCallback.addWait(Integer.parseInt(args[0]));
+            return;
+        }
+
+        // Handle the profile wait time
+        if (s.indexOf(EVENT_KEYWORD_PROFILE_WAIT) >= 0) {
+            mCallback.addProfileWait();
+            return;
+        }
+
+        // Handle keypress events
+        if (s.indexOf(EVENT_KEYWORD_KEYPRESS) >= 0 && args.length == 1) {
+            int keyCode = MonkeySourceRandom.getKeyCode(args[0]);
+            if (keyCode == KeyEvent.KEYCODE_UNKNOWN) {
+                return;
+            }
+            mCallback.addEvent(new MonkeyKeyEvent(KeyEvent.ACTION_DOWN, keyCode));
+            mCallback.addEvent(new MonkeyKeyEvent(KeyEvent.ACTION_UP, keyCode));
+            return;
+        }
+
+        // Handle longpress events
+        if (s.indexOf(EVENT_KEYWORD_LONGPRESS) >= 0) {
+            mCallback.addEvent(
+                    new MonkeyKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DPAD_CENTER));
+            mCallback.addWait(LONGPRESS_WAIT_TIME);
+            mCallback.addEvent(
+                    new MonkeyKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_DPAD_CENTER));
+            return;
+        }
+
+        // The power log event is mainly for the automated power framework
+        if (s.indexOf(EVENT_KEYWORD_POWERLOG) >= 0 && args.length > 0) {
+            if (args.length == 1) {
+                mCallback.addEvent(new MonkeyPowerEvent(args[0]));
+            } else if (args.length == 2) {
+                mCallback.addEvent(new MonkeyPowerEvent(args[0], args[1]));
+            }
+            return;
+        }
+
+        // Write power log to sdcard
+        if (s.indexOf(EVENT_KEYWORD_WRITEPOWERLOG) >= 0) {
+            mCallback.addEvent(new MonkeyPowerEvent());
+            return;
+        }
+
+        // Run the shell command
+        if (s.indexOf(EVENT_KEYWORD_RUNCMD) >= 0 && args.length == 1) {
+            mCallback.addEvent(new MonkeyCommandEvent(args[0]));
+            return;
+        }
+
+        // Input the string through the shell command
+        if (s.indexOf(EVENT_KEYWORD_INPUT_STRING) >= 0 && args.length == 1) {
+            mCallback.addEvent(new MonkeyCommandEvent("input text " + args[0]));
+            return;
+        }
+
+        if (s.indexOf(EVENT_KEYWORD_START_FRAMERATE_CAPTURE) >= 0) {
+            mCallback.addEvent(new MonkeyGetFrameRateEvent("start"));
+            return;
+        }
+
+        if (s.indexOf(EVENT_KEYWORD_END_FRAMERATE_CAPTURE) >= 0 && args.length == 1) {
+            mCallback.addEvent(new MonkeyGetFrameRateEvent("end", args[0]));
+            return;
+        }
+
+        if (s.indexOf(EVENT_KEYWORD_START_APP_FRAMERATE_CAPTURE) >= 0 && args.length == 1) {
+            mCallback.addEvent(new MonkeyGetAppFrameRateEvent("start", args[0]));
+            return;
+        }
+
+        if (s.indexOf(EVENT_KEYWORD_END_APP_FRAMERATE_CAPTURE) >= 0 && args.length == 2) {
+            mCallback.addEvent(new MonkeyGetAppFrameRateEvent("end", args[0], args[1]));
+        }
+    }
+
+    /**
+     * Returns a down time for a new gesture. Gestures are told apart by their down times,
+     * so no two get the same one even when they are parsed within the same millisecond.
+     */
+    private long newDownTime() {
+        mLastDownTime = Math.max(SystemClock.uptimeMillis(), mLastDownTime + 1);
+        return mLastDownTime;
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.content.ComponentName;
+import android.content.pm.PermissionInfo;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a script compiled by {@link MonkeyScriptCompiler}, or an event log written by
+ * {@link MonkeyEventRecorder}.
+ * <p>
+ * The file is memory mapped and decoded one record at a time, straight into pooled events.
+ * Every record is due at a fixed offset from the start of the pass, measured with
+ * {@link System#nanoTime}, so the time spent injecting events and throttling doesn't add up
+ * over a long script the way relative sleeps do. A record that is already late is played at
+ * once and the ones after it keep their original schedule.
+ */
+public class MonkeySourceCompiledScript implements MonkeyEventSource {
+    private static final int HEADER_SIZE = 12;
+
+    private final String mFileName;
+
+    private final MonkeyEventQueue mQ;
+
+    private final long mProfileWaitTime;
+
+    private final long mDeviceSleepTime;
+
+    private int mVerbose = 0;
+
+    private ByteBuffer mBuffer;
+
+    // Event logs have a longer header, and an injection result in every record
+    private boolean mEventLog;
+
+    private int mHeaderSize;
+
+    // Whether the current pass has started, and the time its last record was due
+    private boolean mStarted;
+
+    private long mDueNanos;
+
+    // Down times handed out for the current key press and motion gesture
+    private long mKeyDownTime;
+
+    private long mMotionDownTime;
+
+    private long mMaxLagNanos;
+
+    /**
+     * Creates a MonkeySourceCompiledScript instance.
+     *
+     * @param fileName The filename of the compiled script (on the device).
+     * @param throttle The amount of time in ms to sleep between events.
+     */
+    public MonkeySourceCompiledScript(Random random, String fileName, long throttle,
+            boolean randomizeThrottle, long profileWaitTime, long deviceSleepTime) {
+        mFileName = fileName;
+        mQ = new MonkeyEventQueue(random, throttle, randomizeThrottle);
+        mProfileWaitTime = profileWaitTime;
+        mDeviceSleepTime = deviceSleepTime;
+    }
+
+    /**
+     * Maps the compiled script or event log and checks its header.
+     *
+     * @return True if the file exists and was written by this version of monkey.
+     */
+    @Override
+    public boolean validate() {
+        try (RandomAccessFile file = new RandomAccessFile(mFileName, "r")) {
+            // The mapping stays valid after the file is closed.
+            mBuffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } catch (IOException e) {
+            Logger.err.println("** Unable to map " + mFileName + ": " + e);
+            return false;
+        }
+        int magic = mBuffer.limit() >= 4 ? mBuffer.getInt(0) : 0;
+        mEventLog = magic == MonkeyEventRecorder.MAGIC;
+        mHeaderSize = mEventLog ? MonkeyEventRecorder.HEADER_SIZE : HEADER_SIZE;
+        int expected = mEventLog ? MonkeyEventRecorder.VERSION : MonkeyScriptCompiler.VERSION;
+        if (mBuffer.limit() < mHeaderSize
+                || (!mEventLog && magic != MonkeyScriptCompiler.MAGIC)) {
+            Logger.err.println("** " + mFileName
+                    + " is not a compiled monkey script or event log");
+            return false;
+        }
+        int version = mBuffer.getInt(4);
+        if (version != expected) {
+            Logger.err.println("** " + mFileName + " was written with version " + version
+                    + ", expected " + expected + (mEventLog ? "" : "; compile it again"));
+            return false;
+        }
+        mBuffer.position(mHeaderSize);
+
+        if (mVerbose > 0) {
+            if (mEventLog) {
+                Logger.out.println("Replaying events recorded at "
+                        + MonkeyUtils.toCalendarTime(mBuffer.getLong(8)));
+            } else {
+                Logger.out.println("Replaying " + mBuffer.getInt(8) + " compiled records");
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void setVerbose(int verbose) {
+        mVerbose = verbose;
+    }
+
+    /**
+     * Gets the next event to be injected, waiting until it is due. At the end of the script
+     * returns null once and starts over on a fresh timeline.
+     *
+     * @return The next event, or null at the end of a pass through the script.
+     */
+    @Override
+    public MonkeyEvent getNextEvent() {
+        while (mQ.isEmpty()) {
+            if (!mBuffer.hasRemaining()) {
+                if (mVerbose > 0) {
+                    Logger.out.println("// Compiled script replay: max lag "
+                            + TimeUnit.NANOSECONDS.toMicros(mMaxLagNanos) + "us");
+                }
+                mBuffer.position(mHeaderSize);
+                mStarted = false;
+                mMaxLagNanos = 0;
+                return null;
+            }
+            readRecord();
+        }
+
+        MonkeyEvent ev = mQ.getFirst();
+        mQ.removeFirst();
+        return ev;
+    }
+
+    /**
+     * Waits until the next record is due, then queues its events.
+     */
+    private void readRecord() {
+        ByteBuffer buf = mBuffer;
+        int type = buf.get();
+        int flags = buf.get();
+        if (mEventLog) {
+            // The injection result is only there for tools reading the log
+            buf.get();
+        }
+        long delay = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buf.get();
+            delay |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        if (!mStarted) {
+            mStarted = true;
+            mDueNanos = System.nanoTime();
+        }
+        mDueNanos += TimeUnit.MICROSECONDS.toNanos(delay);
+        if (type == MonkeyScriptCompiler.RECORD_PROFILE_WAIT) {
+            mDueNanos += TimeUnit.MILLISECONDS.toNanos(mProfileWaitTime);
+        }
+        waitUntil(mDueNanos);
+
+        long now = SystemClock.uptimeMillis();
+        switch (type) {
+            case MonkeyScriptCompiler.RECORD_KEY: {
+                long downTime = -1;
+                long eventTime = -1;
+                if ((flags & MonkeyScriptCompiler.FLAG_TIMED) != 0) {
+                    if ((flags & MonkeyScriptCompiler.FLAG_NEW_DOWN) != 0) {
+                        mKeyDownTime = now;
+                    }
+                    downTime = mKeyDownTime;
+                    eventTime = now;
+                }
+                mQ.addLast(MonkeyKeyEvent.obtain(downTime, eventTime, buf.getInt(),
+                        buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt()));
+                break;
+            }
+            case MonkeyScriptCompiler.RECORD_TOUCH:
+            case MonkeyScriptCompiler.RECORD_TRACKBALL: {
+                int action = buf.getInt();
+                MonkeyMotionEvent e = type == MonkeyScriptCompiler.RECORD_TOUCH
+                        ? MonkeyTouchEvent.obtain(action) : MonkeyTrackballEvent.obtain(action);
+                if ((flags & MonkeyScriptCompiler.FLAG_NEW_DOWN) != 0) {
+                    mMotionDownTime = now;
+                }
+                e.setDownTime(mMotionDownTime)
+                        .setEventTime(now)
+                        .setMetaState(buf.getInt())
+                        .setPrecision(buf.getFloat(), buf.getFloat())
+                        .setDeviceId(buf.getInt())
+                        .setEdgeFlags(buf.getInt())
+                        .setIntermediateNote((flags & MonkeyScriptCompiler.FLAG_INTERMEDIATE) != 0);
+                int pointerCount = buf.get();
+                for (int i = 0; i < pointerCount; i++) {
+                    e.addPointer(buf.get(), buf.getFloat(), buf.getFloat(), buf.getFloat(),
+                            buf.getFloat());
+                }
+                mQ.addLast(e);
+                break;
+            }
+            case MonkeyScriptCompiler.RECORD_ROTATION:
+                mQ.addLast(new MonkeyRotationEvent(buf.getInt(), buf.get() != 0));
+                break;
+            case MonkeyScriptCompiler.RECORD_FLIP:
+                mQ.addLast(new MonkeyFlipEvent(buf.get() != 0));
+                break;
+            case MonkeyScriptCompiler.RECORD_ACTIVITY: {
+                ComponentName app = new ComponentName(readString(), readString());
+                long alarmTime = (flags & MonkeyScriptCompiler.FLAG_ALARM) != 0
+                        ? buf.getLong() : 0;
+                MonkeyActivityEvent event;
+                if ((flags & MonkeyEventRecorder.FLAG_CATEGORY) != 0) {
+                    HashMap<ComponentName, String> category = new HashMap<>();
+                    category.put(app, readString());
+                    event = new MonkeyActivityEvent(app, category);
+                    // A live event can carry both, so the replayed one does too
+                    event.mAlarmTime = alarmTime;
+                } else {
+                    event = new MonkeyActivityEvent(app, alarmTime);
+                }
+                mQ.addLast(event);
+                break;
+            }
+            case MonkeyScriptCompiler.RECORD_INSTRUMENTATION:
+                mQ.addLast(new MonkeyInstrumentationEvent(readString(), readString()));
+                break;
+            case MonkeyScriptCompiler.RECORD_COMMAND:
+                mQ.addLast(new MonkeyCommandEvent(readString()));
+                break;
+            case MonkeyScriptCompiler.RECORD_POWER: {
+                int count = buf.get();
+                if (count == 0) {
+                    mQ.addLast(new MonkeyPowerEvent());
+                } else if (count == 1) {
+                    mQ.addLast(new MonkeyPowerEvent(readString()));
+                } else {
+                    mQ.addLast(new MonkeyPowerEvent(readString(), readString()));
+                }
+                break;
+            }
+            case MonkeyScriptCompiler.RECORD_FRAMERATE: {
+                int count = buf.get();
+                String status = readString();
+                mQ.addLast(count == 1 ? new MonkeyGetFrameRateEvent(status)
+                        : new MonkeyGetFrameRateEvent(status, readString()));
+                break;
+            }
+            case MonkeyScriptCompiler.RECORD_APP_FRAMERATE: {
+                int count = buf.get();
+                String status = readString();
+                String app = readString();
+                mQ.addLast(count == 2 ? new MonkeyGetAppFrameRateEvent(status, app)
+                        : new MonkeyGetAppFrameRateEvent(status, app, readString()));
+                break;
+            }
+            case MonkeyScriptCompiler.RECORD_DEVICE_WAKEUP:
+                MonkeyScriptParser.addDeviceWakeUp(mQ, mDeviceSleepTime);
+                break;
+            case MonkeyEventRecorder.RECORD_PERMISSION: {
+                String pkg = readString();
+                PermissionInfo permission = new PermissionInfo();
+                permission.name = readString();
+                mQ.addLast(new MonkeyPermissionEvent(pkg, permission));
+                break;
+            }
+            case MonkeyEventRecorder.RECORD_UNREPLAYABLE: {
+                String name = readString();
+                if (mVerbose > 0) {
+                    Logger.out.println("// Skipping " + name + ", it can't be replayed");
+                }
+                break;
+            }
+            case MonkeyScriptCompiler.RECORD_WAIT:
+            case MonkeyScriptCompiler.RECORD_PROFILE_WAIT:
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + type + " in "
+                        + mFileName);
+        }
+    }
+
+    /**
+     * Parks until the given {@link System#nanoTime} value, and keeps track of how late
+     * records are played.
+     */
+    private void waitUntil(long dueNanos) {
+        long remaining = dueNanos - System.nanoTime();
+        if (remaining < 0) {
+            mMaxLagNanos = Math.max(mMaxLagNanos, -remaining);
+            return;
+        }
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = dueNanos - System.nanoTime();
+        }
+    }
+
+    private String readString() {
+        byte[] utf8 = new byte[mBuffer.getShort() & 0xffff];
+        mBuffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
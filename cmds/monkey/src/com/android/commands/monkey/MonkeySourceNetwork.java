@@ -26,17 +26,21 @@ import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.lang.Integer;
 import java.lang.NumberFormatException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.LinkedList;
 import java.util.List;
@@ -89,6 +93,8 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
     public final static MonkeyCommandReturn ERROR = new MonkeyCommandReturn(false);
     public final static MonkeyCommandReturn EARG = new MonkeyCommandReturn(false,
                                                                             "Invalid Argument");
+    public final static MonkeyCommandReturn UNKNOWN_COMMAND = new MonkeyCommandReturn(false,
+                                                                            "Unknown command");
 
     /**
      * Interface that MonkeyCommands must implement.
@@ -546,56 +552,369 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
         }
     };
 
-    private final CommandQueueImpl commandQueue = new CommandQueueImpl();
+    // Sessions stop reading from their socket once this many lines are waiting to run
+    private static final int MAX_PENDING_LINES = 1024;
 
-    private BufferedReader input;
-    private PrintWriter output;
-    private boolean started = false;
+    // Replies are held back while more commands are waiting, up to this many bytes
+    private static final int MAX_PENDING_REPLY = 8192;
 
-    private ServerSocket serverSocket;
-    private Socket clientSocket;
+    // Sessions whose client sends a longer line than this are ended
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    // How long replies still owed when a session ends may wait for their client to read them
+    private static final long FINAL_FLUSH_TIMEOUT_MS = 5000;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final boolean attachToDevice;
+
+    // Connected clients, in the order they connected. Events are taken from
+    // each in turn so that one client's batch can't starve the others.
+    private final ArrayList<Session> sessions = new ArrayList<Session>();
+    private int nextSession = 0;
+    private boolean quit = false;
 
     public MonkeySourceNetwork(int port) throws IOException {
+        this(port, true);
+    }
+
+    /**
+     * @param attachToDevice false to neither wake the device nor listen for accessibility
+     *        events when clients connect, for tests that aren't allowed to do either.
+     */
+    MonkeySourceNetwork(int port, boolean attachToDevice) throws IOException {
+        this.attachToDevice = attachToDevice;
         // Only bind this to local host.  This means that you can only
         // talk to the monkey locally, or though adb port forwarding.
-        serverSocket = new ServerSocket(port,
-                                        0, // default backlog
-                                        InetAddress.getLocalHost());
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLocalHost(), port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
     }
 
     /**
-     * Start a network server listening on the specified port.  The
-     * network protocol is a line oriented protocol, where each line
-     * is a different command that can be run.
-     *
-     * @param port the port to listen on
+     * Returns the port clients connect to.
+     */
+    int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * One connected client. The network protocol is a line oriented
+     * protocol, where each line is a different command that can be run.
+     * Clients may write many lines at once; they are run one at a time,
+     * each only after the events of the one before it have been handed
+     * out, exactly as if they had been sent one by one.
+     */
+    private class Session {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final CommandQueueImpl commandQueue = new CommandQueueImpl();
+
+        // Complete lines read but not run yet, and the start of the next one
+        private final LinkedList<String> lines = new LinkedList<String>();
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+        private boolean endOfInput = false;
+
+        // Replies not yet encoded, and encoded bytes the socket didn't take yet
+        private final StringBuilder replies = new StringBuilder();
+        private ByteBuffer pendingOutput = ByteBuffer.allocate(0);
+
+        private DeferredReturn deferred;
+        private String deferredSequence;
+        // Set once the session has ended, though replies may still be owed
+        private boolean closed = false;
+        // Set if the socket failed, after which nothing more is written to it
+        private boolean broken = false;
+
+        Session(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        /**
+         * Reads whatever the client has sent and splits it into lines.
+         */
+        void read() {
+            try {
+                int count;
+                while ((count = channel.read(readBuffer)) > 0) {
+                    readBuffer.flip();
+                    while (readBuffer.hasRemaining()) {
+                        byte b = readBuffer.get();
+                        if (b == '\n') {
+                            addLine();
+                        } else {
+                            partialLine.write(b);
+                        }
+                    }
+                    readBuffer.clear();
+                    if (partialLine.size() > MAX_LINE_LENGTH) {
+                        // Run what came before it, then end the session
+                        Log.e(TAG, "Line too long, closing the connection.");
+                        partialLine.reset();
+                        count = -1;
+                        break;
+                    }
+                }
+                if (count < 0) {
+                    Log.d(TAG, "Connection dropped.");
+                    if (partialLine.size() > 0) {
+                        addLine();
+                    }
+                    endOfInput = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                } else if (lines.size() >= MAX_PENDING_LINES) {
+                    // Let TCP flow control slow the client down until we catch up
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Got IOException reading from client", e);
+                broken = true;
+                closed = true;
+            }
+        }
+
+        private void addLine() {
+            String line = new String(partialLine.toByteArray(), StandardCharsets.UTF_8);
+            partialLine.reset();
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            lines.add(line);
+        }
+
+        /**
+         * Returns the next event for this session, running its next
+         * commands as needed.
+         *
+         * @return the next event, or null if none of the lines read so far
+         * produced one, or if the session has ended or the monkey was told
+         * to quit.
+         */
+        MonkeyEvent nextEvent() {
+            while (!closed && !quit) {
+                // Check to see if we have any events queued up.  If
+                // we do, use those until we have no more.  Then run
+                // the next command from the client.
+                MonkeyEvent queuedEvent = commandQueue.getNextQueuedEvent();
+                if (queuedEvent != null) {
+                    return queuedEvent;
+                }
+
+                // Check to see if we have any returns that have been deferred. If so, now that
+                // we've run the queued commands, wait for the given event to happen (or the timeout
+                // to be reached), and handle the deferred MonkeyCommandReturn.
+                if (deferred != null) {
+                    Log.d(TAG, "Waiting for event");
+                    MonkeyCommandReturn ret = deferred.waitForEvent();
+                    deferred = null;
+                    handleReturn(deferredSequence, ret);
+                }
+
+                String line = lines.poll();
+                if (line == null) {
+                    if (endOfInput) {
+                        // Treat this exactly the same as if the user had
+                        // ended the session cleanly with a done command.
+                        closed = true;
+                    }
+                    return null;
+                }
+                if (!endOfInput && lines.size() == MAX_PENDING_LINES / 2) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+
+                runLine(line);
+
+                // A client that is waiting for this reply gets it right away;
+                // one that sent a batch gets the replies together.
+                if (quit || lines.isEmpty() || replies.length() >= MAX_PENDING_REPLY) {
+                    flush();
+                }
+            }
+            return null;
+        }
+
+        private void runLine(String command) {
+            String sequence = null;
+            if (command.startsWith("@")) {
+                int space = command.indexOf(' ');
+                sequence = space < 0 ? command : command.substring(0, space);
+                command = space < 0 ? "" : command.substring(space + 1).trim();
+            }
+
+            if (DONE.equals(command)) {
+                // close the session so its client can reconnect
+                closed = true;
+                return;
+            }
+
+            // Do quit checking here
+            if (QUIT.equals(command)) {
+                // then we're done
+                Log.d(TAG, "Quit requested");
+                // let the host know the command ran OK
+                handleReturn(sequence, OK);
+                // nothing after this is run, from this client or any other
+                quit = true;
+                return;
+            }
+
+            // Do comment checking here.  Comments aren't a
+            // command, so we don't echo anything back to the
+            // user.
+            if (command.startsWith("#")) {
+                return;
+            }
+
+            // Translate the command line.  This will handle returning error/ok to the user
+            Log.d(TAG, "translateCommand: " + command);
+            List<String> parts = commandLineSplit(command);
+            MonkeyCommand monkeyCommand = parts.size() > 0 ? COMMAND_MAP.get(parts.get(0)) : null;
+            if (monkeyCommand != null) {
+                MonkeyCommandReturn ret = monkeyCommand.translateCommand(parts, commandQueue);
+                if (deferredReturn != null) {
+                    deferred = deferredReturn;
+                    deferredSequence = sequence;
+                    deferredReturn = null;
+                }
+                handleReturn(sequence, ret);
+            } else if (sequence != null) {
+                // Sequenced commands are always answered, so replies can't get out of step
+                handleReturn(sequence, UNKNOWN_COMMAND);
+            }
+        }
+
+        private void handleReturn(String sequence, MonkeyCommandReturn ret) {
+            if (sequence != null) {
+                replies.append(sequence).append(' ');
+            }
+            replies.append(ret.wasSuccessful() ? OK_STR : ERROR_STR);
+            if (ret.hasMessage()) {
+                replies.append(':').append(ret.getMessage());
+            }
+            replies.append('\n');
+        }
+
+        /**
+         * Writes as many of the replies as the socket will take without
+         * blocking, and waits to be writable if there are more.
+         */
+        void flush() {
+            if (replies.length() > 0) {
+                byte[] bytes = replies.toString().getBytes(StandardCharsets.UTF_8);
+                replies.setLength(0);
+                ByteBuffer output = ByteBuffer.allocate(pendingOutput.remaining() + bytes.length);
+                output.put(pendingOutput).put(bytes).flip();
+                pendingOutput = output;
+            }
+            if (!pendingOutput.hasRemaining() || broken) {
+                return;
+            }
+            try {
+                channel.write(pendingOutput);
+                if (pendingOutput.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                } else {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Got IOException writing to client", e);
+                broken = true;
+                closed = true;
+            }
+        }
+
+        /**
+         * Writes out the remaining replies, waiting for the client to read
+         * them until the given {@link SystemClock#uptimeMillis} time at the
+         * latest. Replies it hasn't read by then are dropped.
+         */
+        void flushUntil(long deadline) {
+            flush();
+            if (broken || !pendingOutput.hasRemaining()) {
+                return;
+            }
+            try (Selector writeSelector = Selector.open()) {
+                channel.register(writeSelector, SelectionKey.OP_WRITE);
+                long timeout;
+                while (pendingOutput.hasRemaining()
+                        && (timeout = deadline - SystemClock.uptimeMillis()) > 0) {
+                    if (writeSelector.select(timeout) > 0) {
+                        writeSelector.selectedKeys().clear();
+                        channel.write(pendingOutput);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Got IOException writing to client", e);
+                broken = true;
+                return;
+            }
+            if (pendingOutput.hasRemaining()) {
+                Log.e(TAG, "Client isn't reading, dropping " + pendingOutput.remaining()
+                        + " bytes of replies.");
+            }
+        }
+
+        /**
+         * Sends the replies to the commands that came before the end of the
+         * session, then closes its socket.
+         */
+        void close() {
+            flushUntil(SystemClock.uptimeMillis() + FINAL_FLUSH_TIMEOUT_MS);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Got IOException shutting down!", e);
+            }
+        }
+    }
+
+    /**
+     * Accepts a new client.
      */
-    private void startServer() throws IOException {
-        clientSocket = serverSocket.accept();
-        // At this point, we have a client connected.
-        // Attach the accessibility listeners so that we can start receiving
-        // view events. Do this before wake so we can catch the wake event
-        // if possible.
-        MonkeySourceNetworkViews.setup();
-        // Wake the device up in preparation for doing some commands.
-        wake();
-
-        input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        // auto-flush
-        output = new PrintWriter(clientSocket.getOutputStream(), true);
+    private void acceptSession() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        if (attachToDevice) {
+            if (sessions.isEmpty()) {
+                // Attach the accessibility listeners so that we can start receiving
+                // view events. Do this before wake so we can catch the wake event
+                // if possible.
+                MonkeySourceNetworkViews.setup();
+            }
+            // Wake the device up in preparation for doing some commands.
+            wake();
+        }
+        sessions.add(new Session(channel));
     }
 
     /**
-     * Stop the server from running so it can reconnect a new client.
+     * Closes a session so its client can reconnect.
      */
-    private void stopServer() throws IOException {
-        clientSocket.close();
-        MonkeySourceNetworkViews.teardown();
-        input.close();
-        output.close();
-        started = false;
+    private void closeSession(Session session) {
+        int index = sessions.indexOf(session);
+        sessions.remove(index);
+        if (index < nextSession) {
+            nextSession--;
+        }
+        if (nextSession >= sessions.size()) {
+            nextSession = 0;
+        }
+        session.close();
+        if (sessions.isEmpty() && attachToDevice) {
+            MonkeySourceNetworkViews.teardown();
+        }
     }
 
+
     /**
      * Helper function for commandLineSplit that replaces quoted
      * charaters with their real values.
@@ -648,113 +967,49 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
         return result;
     }
 
-    /**
-     * Translate the given command line into a MonkeyEvent.
-     *
-     * @param commandLine the full command line given.
-     */
-    private void translateCommand(String commandLine) {
-        Log.d(TAG, "translateCommand: " + commandLine);
-        List<String> parts = commandLineSplit(commandLine);
-        if (parts.size() > 0) {
-            MonkeyCommand command = COMMAND_MAP.get(parts.get(0));
-            if (command != null) {
-                MonkeyCommandReturn ret = command.translateCommand(parts, commandQueue);
-                handleReturn(ret);
-            }
-        }
-    }
-
-    private void handleReturn(MonkeyCommandReturn ret) {
-        if (ret.wasSuccessful()) {
-            if (ret.hasMessage()) {
-                returnOk(ret.getMessage());
-            } else {
-                returnOk();
-            }
-        } else {
-            if (ret.hasMessage()) {
-                returnError(ret.getMessage());
-            } else {
-                returnError();
-            }
-        }
-    }
-
 
     public MonkeyEvent getNextEvent() {
-        if (!started) {
-            try {
-                startServer();
-            } catch (IOException e) {
-                Log.e(TAG, "Got IOException from server", e);
-                return null;
-            }
-            started = true;
-        }
-
         // Now, get the next command.  This call may block, but that's OK
         try {
             while (true) {
-                // Check to see if we have any events queued up.  If
-                // we do, use those until we have no more.  Then get
-                // more input from the user.
-                MonkeyEvent queuedEvent = commandQueue.getNextQueuedEvent();
-                if (queuedEvent != null) {
-                    // dispatch the event
-                    return queuedEvent;
-                }
-
-                // Check to see if we have any returns that have been deferred. If so, now that
-                // we've run the queued commands, wait for the given event to happen (or the timeout
-                // to be reached), and handle the deferred MonkeyCommandReturn.
-                if (deferredReturn != null) {
-                    Log.d(TAG, "Waiting for event");
-                    MonkeyCommandReturn ret = deferredReturn.waitForEvent();
-                    deferredReturn = null;
-                    handleReturn(ret);
+                // Pick up whatever has arrived without waiting, so a client
+                // that is still sending gets its turn next to one whose
+                // batch was already read.
+                if (selector.selectNow() > 0) {
+                    handleSelectedKeys();
                 }
-
-                String command = input.readLine();
-                if (command == null) {
-                    Log.d(TAG, "Connection dropped.");
-                    // Treat this exactly the same as if the user had
-                    // ended the session cleanly with a done commant.
-                    command = DONE;
-                }
-
-                if (DONE.equals(command)) {
-                    // stop the server so it can accept new connections
-                    try {
-                        stopServer();
-                    } catch (IOException e) {
-                        Log.e(TAG, "Got IOException shutting down!", e);
-                        return null;
+                int count = sessions.size();
+                for (int i = 0; i < count && !quit; i++) {
+                    Session session = sessions.get((nextSession + i) % count);
+                    MonkeyEvent event = session.nextEvent();
+                    if (event != null) {
+                        nextSession = (nextSession + i + 1) % count;
+                        return event;
+                    }
+                    if (session.closed) {
+                        closeSession(session);
+                        // return a noop event so we keep executing the main
+                        // loop
+                        return new MonkeyNoopEvent();
                     }
-                    // return a noop event so we keep executing the main
-                    // loop
-                    return new MonkeyNoopEvent();
                 }
 
-                // Do quit checking here
-                if (QUIT.equals(command)) {
-                    // then we're done
-                    Log.d(TAG, "Quit requested");
-                    // let the host know the command ran OK
-                    returnOk();
+                if (quit) {
+                    // Send what every client is owed, all within one timeout
+                    long deadline = SystemClock.uptimeMillis() + FINAL_FLUSH_TIMEOUT_MS;
+                    for (Session session : sessions) {
+                        session.flushUntil(deadline);
+                    }
                     return null;
                 }
 
-                // Do comment checking here.  Comments aren't a
-                // command, so we don't echo anything back to the
-                // user.
-                if (command.startsWith("#")) {
-                    // keep going
-                    continue;
+                // Nothing to run until a client sends more.  Send every reply
+                // still owed, then wait for the next connection or command.
+                for (Session session : sessions) {
+                    session.flush();
                 }
-
-                // Translate the command line.  This will handle returning error/ok to the user
-                translateCommand(command);
+                selector.select();
+                handleSelectedKeys();
             }
         } catch (IOException e) {
             Log.e(TAG, "Exception: ", e);
@@ -763,39 +1018,29 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
     }
 
     /**
-     * Returns ERROR to the user.
-     */
-    private void returnError() {
-        output.println(ERROR_STR);
-    }
-
-    /**
-     * Returns ERROR to the user.
-     *
-     * @param msg the error message to include
-     */
-    private void returnError(String msg) {
-        output.print(ERROR_STR);
-        output.print(":");
-        output.println(msg);
-    }
-
-    /**
-     * Returns OK to the user.
+     * Accepts new clients, and reads from and writes to the connected ones,
+     * as the last select found them ready.
      */
-    private void returnOk() {
-        output.println(OK_STR);
-    }
-
-    /**
-     * Returns OK to the user.
-     *
-     * @param returnValue the value to return from this command.
-     */
-    private void returnOk(String returnValue) {
-        output.print(OK_STR);
-        output.print(":");
-        output.println(returnValue);
+    private void handleSelectedKeys() throws IOException {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                acceptSession();
+                continue;
+            }
+            Session session = (Session) key.attachment();
+            if (key.isReadable()) {
+                session.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                session.flush();
+            }
+        }
     }
 
     public void setVerbose(int verbose) {
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey
+
+import android.view.KeyEvent.ACTION_DOWN
+import android.view.KeyEvent.ACTION_UP
+
+import java.io.BufferedReader
+import java.io.InputStreamReader
+import java.net.InetAddress
+import java.net.Socket
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+
+import org.junit.Test
+
+private fun connect(monkey: MonkeySourceNetwork): Socket {
+    return Socket(InetAddress.getLocalHost(), monkey.getLocalPort())
+}
+
+private fun send(client: Socket, lines: String) {
+    client.getOutputStream().write(lines.toByteArray())
+}
+
+private fun replies(client: Socket): BufferedReader {
+    return BufferedReader(InputStreamReader(client.getInputStream()))
+}
+
+/**
+ * Returns the next key event, as "action keycode", skipping the no-ops handed out when a
+ * client disconnects.
+ */
+private fun nextKey(monkey: MonkeySourceNetwork): String {
+    while (true) {
+        val event = monkey.getNextEvent()
+        assertNotNull(event)
+        if (event is MonkeyKeyEvent) {
+            return "" + event.getAction() + " " + event.getKeyCode()
+        }
+    }
+}
+
+/**
+ * Runs the monkey until the given number of clients have disconnected.
+ */
+private fun runUntilDisconnected(monkey: MonkeySourceNetwork, clients: Int) {
+    var disconnected = 0
+    while (disconnected < clients) {
+        val event = monkey.getNextEvent()
+        assertNotNull(event)
+        if (event is MonkeyNoopEvent) {
+            disconnected++
+        }
+    }
+}
+
+/**
+ * Test for class MonkeySourceNetwork
+ */
+class MonkeySourceNetworkTest {
+    companion object {
+        const val TIMEOUT_MS = 10000L
+    }
+
+    /**
+     * Send several sequenced commands at once, and check that each is run in order and
+     * answered in order, including the one that fails.
+     */
+    @Test(timeout = TIMEOUT_MS)
+    fun pipelinedCommandsAreAnsweredInOrder() {
+        val monkey = MonkeySourceNetwork(0, false)
+        connect(monkey).use { client ->
+            send(client, "@1 key down 82\n@2 nosuchcommand\n@3 key up 82\ndone\n")
+
+            assertEquals("" + ACTION_DOWN + " 82", nextKey(monkey))
+            assertEquals("" + ACTION_UP + " 82", nextKey(monkey))
+            runUntilDisconnected(monkey, 1)
+
+            assertEquals(listOf("@1 OK", "@2 ERROR:Unknown command", "@3 OK"),
+                    replies(client).readLines())
+        }
+    }
+
+    /**
+     * Connect a second client while the first one's batch is still running, and check that
+     * they take turns and each gets only its own replies.
+     */
+    @Test(timeout = TIMEOUT_MS)
+    fun sessionsTakeTurns() {
+        val monkey = MonkeySourceNetwork(0, false)
+        connect(monkey).use { first ->
+            send(first, "@1 key down 29\n@2 key up 29\n@3 key down 30\n@4 key up 30\ndone\n")
+            val keys = ArrayList<String>()
+            keys.add(nextKey(monkey))
+
+            connect(monkey).use { second ->
+                send(second, "@1 key down 82\n@2 key up 82\ndone\n")
+                for (i in 0 until 5) {
+                    keys.add(nextKey(monkey))
+                }
+                runUntilDisconnected(monkey, 2)
+
+                assertEquals(listOf("@1 OK", "@2 OK"), replies(second).readLines())
+            }
+            assertEquals(listOf("@1 OK", "@2 OK", "@3 OK", "@4 OK"), replies(first).readLines())
+
+            // Each client's keys in its own order, the second's before the first is done
+            assertEquals(listOf("" + ACTION_DOWN + " 29", "" + ACTION_UP + " 29",
+                    "" + ACTION_DOWN + " 30", "" + ACTION_UP + " 30"),
+                    keys.filter { !it.endsWith(" 82") })
+            assertEquals(listOf("" + ACTION_DOWN + " 82", "" + ACTION_UP + " 82"),
+                    keys.filter { it.endsWith(" 82") })
+            assertTrue(keys.toString(), keys.indexOf("" + ACTION_UP + " 82") < keys.size - 1)
+        }
+    }
+
+    /**
+     * Send commands after a quit in the same batch, and check that none of them are run.
+     */
+    @Test(timeout = TIMEOUT_MS)
+    fun nothingRunsAfterQuit() {
+        val monkey = MonkeySourceNetwork(0, false)
+        connect(monkey).use { client ->
+            send(client, "@1 key down 82\n@2 quit\n@3 key up 82\n")
+
+            assertEquals("" + ACTION_DOWN + " 82", nextKey(monkey))
+            assertNull(monkey.getNextEvent())
+
+            val replies = replies(client)
+            assertEquals("@1 OK", replies.readLine())
+            assertEquals("@2 OK", replies.readLine())
+        }
+    }
+}
@@ -26,7 +26,6 @@ import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.Surface;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Random;
 
@@ -91,11 +90,17 @@ public class MonkeySourceRandom implements MonkeyEventSource {
     private static final int GESTURE_DRAG = 1;
     private static final int GESTURE_PINCH_OR_ZOOM = 2;
 
+    /** Number of buckets in the event selection guide table; must be a power of two. */
+    private static final int SELECTION_BUCKETS = 64;
+
     /** percentages for each type of event.  These will be remapped to working
      * values after we read any optional values.
      **/
     private float[] mFactors = new float[FACTORZ_COUNT];
+    /** For each selection bucket, the first factor that can be chosen from it. */
+    private int[] mFactorGuide = new int[SELECTION_BUCKETS];
     private HashMap<ComponentName, String> mMainApps;
+    private ComponentName[] mMainAppArray;
     private int mEventCount = 0;  //total number of events generated so far
     private MonkeyEventQueue mQ;
     private Random mRandom;
@@ -105,6 +110,12 @@ public class MonkeySourceRandom implements MonkeyEventSource {
 
     private boolean mKeyboardOpen = false;
 
+    // Scratch points for gesture generation, reused to avoid allocating per gesture
+    private final PointF mPoint1 = new PointF();
+    private final PointF mVector1 = new PointF();
+    private final PointF mPoint2 = new PointF();
+    private final PointF mVector2 = new PointF();
+
     public static String getKeyName(int keycode) {
         return KeyEvent.keyCodeToString(keycode);
     }
@@ -142,6 +153,7 @@ public class MonkeySourceRandom implements MonkeyEventSource {
 
         mRandom = random;
         mMainApps = MainApps;
+        mMainAppArray = MainApps.keySet().toArray(new ComponentName[MainApps.size()]);
         mQ = new MonkeyEventQueue(random, throttle, randomizeThrottle);
         mPermissionUtil = new MonkeyPermissionUtil();
         mPermissionUtil.setTargetSystemPackages(permissionTargetSystem);
@@ -207,6 +219,7 @@ public class MonkeySourceRandom implements MonkeyEventSource {
             sum += mFactors[i] / 100.0f;
             mFactors[i] = sum;
         }
+        buildFactorGuide();
         return true;
     }
 
@@ -268,12 +281,12 @@ public class MonkeySourceRandom implements MonkeyEventSource {
     private void generatePointerEvent(Random random, int gesture) {
         Display display = DisplayManagerGlobal.getInstance().getRealDisplay(Display.DEFAULT_DISPLAY);
 
-        PointF p1 = randomPoint(random, display);
-        PointF v1 = randomVector(random);
+        PointF p1 = randomPoint(random, display, mPoint1);
+        PointF v1 = randomVector(random, mVector1);
 
         long downAt = SystemClock.uptimeMillis();
 
-        mQ.addLast(new MonkeyTouchEvent(MotionEvent.ACTION_DOWN)
+        mQ.addLast(MonkeyTouchEvent.obtain(MotionEvent.ACTION_DOWN)
                 .setDownTime(downAt)
                 .addPointer(0, p1.x, p1.y)
                 .setIntermediateNote(false));
@@ -284,17 +297,17 @@ public class MonkeySourceRandom implements MonkeyEventSource {
             for (int i = 0; i < count; i++) {
                 randomWalk(random, display, p1, v1);
 
-                mQ.addLast(new MonkeyTouchEvent(MotionEvent.ACTION_MOVE)
+                mQ.addLast(MonkeyTouchEvent.obtain(MotionEvent.ACTION_MOVE)
                         .setDownTime(downAt)
                         .addPointer(0, p1.x, p1.y)
                         .setIntermediateNote(true));
             }
         } else if (gesture == GESTURE_PINCH_OR_ZOOM) {
-            PointF p2 = randomPoint(random, display);
-            PointF v2 = randomVector(random);
+            PointF p2 = randomPoint(random, display, mPoint2);
+            PointF v2 = randomVector(random, mVector2);
 
             randomWalk(random, display, p1, v1);
-            mQ.addLast(new MonkeyTouchEvent(MotionEvent.ACTION_POINTER_DOWN
+            mQ.addLast(MonkeyTouchEvent.obtain(MotionEvent.ACTION_POINTER_DOWN
                             | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT))
                     .setDownTime(downAt)
                     .addPointer(0, p1.x, p1.y).addPointer(1, p2.x, p2.y)
@@ -305,7 +318,7 @@ public class MonkeySourceRandom implements MonkeyEventSource {
                 randomWalk(random, display, p1, v1);
                 randomWalk(random, display, p2, v2);
 
-                mQ.addLast(new MonkeyTouchEvent(MotionEvent.ACTION_MOVE)
+                mQ.addLast(MonkeyTouchEvent.obtain(MotionEvent.ACTION_MOVE)
                         .setDownTime(downAt)
                         .addPointer(0, p1.x, p1.y).addPointer(1, p2.x, p2.y)
                         .setIntermediateNote(true));
@@ -313,7 +326,7 @@ public class MonkeySourceRandom implements MonkeyEventSource {
 
             randomWalk(random, display, p1, v1);
             randomWalk(random, display, p2, v2);
-            mQ.addLast(new MonkeyTouchEvent(MotionEvent.ACTION_POINTER_UP
+            mQ.addLast(MonkeyTouchEvent.obtain(MotionEvent.ACTION_POINTER_UP
                             | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT))
                     .setDownTime(downAt)
                     .addPointer(0, p1.x, p1.y).addPointer(1, p2.x, p2.y)
@@ -321,18 +334,20 @@ public class MonkeySourceRandom implements MonkeyEventSource {
         }
 
         randomWalk(random, display, p1, v1);
-        mQ.addLast(new MonkeyTouchEvent(MotionEvent.ACTION_UP)
+        mQ.addLast(MonkeyTouchEvent.obtain(MotionEvent.ACTION_UP)
                 .setDownTime(downAt)
                 .addPointer(0, p1.x, p1.y)
                 .setIntermediateNote(false));
     }
 
-    private PointF randomPoint(Random random, Display display) {
-        return new PointF(random.nextInt(display.getWidth()), random.nextInt(display.getHeight()));
+    private PointF randomPoint(Random random, Display display, PointF out) {
+        out.set(random.nextInt(display.getWidth()), random.nextInt(display.getHeight()));
+        return out;
     }
 
-    private PointF randomVector(Random random) {
-        return new PointF((random.nextFloat() - 0.5f) * 50, (random.nextFloat() - 0.5f) * 50);
+    private PointF randomVector(Random random, PointF out) {
+        out.set((random.nextFloat() - 0.5f) * 50, (random.nextFloat() - 0.5f) * 50);
+        return out;
     }
 
     private void randomWalk(Random random, Display display, PointF point, PointF vector) {
@@ -362,7 +377,7 @@ public class MonkeySourceRandom implements MonkeyEventSource {
             int dX = random.nextInt(10) - 5;
             int dY = random.nextInt(10) - 5;
 
-            mQ.addLast(new MonkeyTrackballEvent(MotionEvent.ACTION_MOVE)
+            mQ.addLast(MonkeyTrackballEvent.obtain(MotionEvent.ACTION_MOVE)
                     .addPointer(0, dX, dY)
                     .setIntermediateNote(i > 0));
         }
@@ -371,12 +386,12 @@ public class MonkeySourceRandom implements MonkeyEventSource {
         if (0 == random.nextInt(10)) {
             long downAt = SystemClock.uptimeMillis();
 
-            mQ.addLast(new MonkeyTrackballEvent(MotionEvent.ACTION_DOWN)
+            mQ.addLast(MonkeyTrackballEvent.obtain(MotionEvent.ACTION_DOWN)
                     .setDownTime(downAt)
                     .addPointer(0, 0, 0)
                     .setIntermediateNote(true));
 
-            mQ.addLast(new MonkeyTrackballEvent(MotionEvent.ACTION_UP)
+            mQ.addLast(MonkeyTrackballEvent.obtain(MotionEvent.ACTION_UP)
                     .setDownTime(downAt)
                     .addPointer(0, 0, 0)
                     .setIntermediateNote(false));
@@ -395,51 +410,82 @@ public class MonkeySourceRandom implements MonkeyEventSource {
                 random.nextBoolean()));
     }
 
+    /**
+     * Builds the guide table for {@link #selectFactor}. Bucket j covers
+     * [j / SELECTION_BUCKETS, (j + 1) / SELECTION_BUCKETS) and starts its search at
+     * the first factor whose running sum reaches past the start of the bucket.
+     */
+    private void buildFactorGuide() {
+        int factor = 0;
+        for (int j = 0; j < SELECTION_BUCKETS; j++) {
+            // Exact, since SELECTION_BUCKETS is a power of two
+            float bucketStart = j / (float) SELECTION_BUCKETS;
+            while (factor < FACTOR_ANYTHING && mFactors[factor] <= bucketStart) {
+                factor++;
+            }
+            mFactorGuide[j] = factor;
+        }
+    }
+
+    /**
+     * Maps a uniform value in [0, 1) to an event factor, exactly as walking the running
+     * sums in mFactors would: the result is the first factor whose sum exceeds cls, or
+     * FACTOR_ANYTHING if rounding left cls past the last one. The guide table skips
+     * straight to the right neighborhood, so this takes a step or two at most for any
+     * reasonable set of weights, and consumes the random stream exactly as before.
+     */
+    private int selectFactor(float cls) {
+        int factor = mFactorGuide[(int) (cls * SELECTION_BUCKETS)];
+        while (factor < FACTOR_ANYTHING && cls >= mFactors[factor]) {
+            factor++;
+        }
+        return factor;
+    }
+
     /**
      * generate a random event based on mFactor
      */
     private void generateEvents() {
-        float cls = mRandom.nextFloat();
+        int factor = selectFactor(mRandom.nextFloat());
         int lastKey = 0;
 
-        if (cls < mFactors[FACTOR_TOUCH]) {
-            generatePointerEvent(mRandom, GESTURE_TAP);
-            return;
-        } else if (cls < mFactors[FACTOR_MOTION]) {
-            generatePointerEvent(mRandom, GESTURE_DRAG);
-            return;
-        } else if (cls < mFactors[FACTOR_PINCHZOOM]) {
-            generatePointerEvent(mRandom, GESTURE_PINCH_OR_ZOOM);
-            return;
-        } else if (cls < mFactors[FACTOR_TRACKBALL]) {
-            generateTrackballEvent(mRandom);
-            return;
-        } else if (cls < mFactors[FACTOR_ROTATION]) {
-            generateRotationEvent(mRandom);
-            return;
-        } else if (cls < mFactors[FACTOR_PERMISSION]) {
-            mQ.add(mPermissionUtil.generateRandomPermissionEvent(mRandom));
-            return;
+        switch (factor) {
+            case FACTOR_TOUCH:
+                generatePointerEvent(mRandom, GESTURE_TAP);
+                return;
+            case FACTOR_MOTION:
+                generatePointerEvent(mRandom, GESTURE_DRAG);
+                return;
+            case FACTOR_PINCHZOOM:
+                generatePointerEvent(mRandom, GESTURE_PINCH_OR_ZOOM);
+                return;
+            case FACTOR_TRACKBALL:
+                generateTrackballEvent(mRandom);
+                return;
+            case FACTOR_ROTATION:
+                generateRotationEvent(mRandom);
+                return;
+            case FACTOR_PERMISSION:
+                mQ.add(mPermissionUtil.generateRandomPermissionEvent(mRandom));
+                return;
+            case FACTOR_APPSWITCH:
+                mQ.addLast(new MonkeyActivityEvent(randomMainApp(), mMainApps));
+                return;
+            case FACTOR_FLIP:
+                MonkeyFlipEvent e = new MonkeyFlipEvent(mKeyboardOpen);
+                mKeyboardOpen = !mKeyboardOpen;
+                mQ.addLast(e);
+                return;
         }
 
         // The remaining event categories are injected as key events
         for (;;) {
-            if (cls < mFactors[FACTOR_NAV]) {
+            if (factor == FACTOR_NAV) {
                 lastKey = NAV_KEYS[mRandom.nextInt(NAV_KEYS.length)];
-            } else if (cls < mFactors[FACTOR_MAJORNAV]) {
+            } else if (factor == FACTOR_MAJORNAV) {
                 lastKey = MAJOR_NAV_KEYS[mRandom.nextInt(MAJOR_NAV_KEYS.length)];
-            } else if (cls < mFactors[FACTOR_SYSOPS]) {
+            } else if (factor == FACTOR_SYSOPS) {
                 lastKey = SYS_KEYS[mRandom.nextInt(SYS_KEYS.length)];
-            } else if (cls < mFactors[FACTOR_APPSWITCH]) {
-                MonkeyActivityEvent e = new MonkeyActivityEvent(new ArrayList<ComponentName>(mMainApps.keySet()).get(
-                        mRandom.nextInt(mMainApps.size())), mMainApps);
-                mQ.addLast(e);
-                return;
-            } else if (cls < mFactors[FACTOR_FLIP]) {
-                MonkeyFlipEvent e = new MonkeyFlipEvent(mKeyboardOpen);
-                mKeyboardOpen = !mKeyboardOpen;
-                mQ.addLast(e);
-                return;
             } else {
                 lastKey = 1 + mRandom.nextInt(KeyEvent.getMaxKeyCode() - 1);
             }
@@ -453,10 +499,10 @@ public class MonkeySourceRandom implements MonkeyEventSource {
             }
         }
 
-        MonkeyKeyEvent e = new MonkeyKeyEvent(KeyEvent.ACTION_DOWN, lastKey);
+        MonkeyKeyEvent e = MonkeyKeyEvent.obtain(KeyEvent.ACTION_DOWN, lastKey);
         mQ.addLast(e);
 
-        e = new MonkeyKeyEvent(KeyEvent.ACTION_UP, lastKey);
+        e = MonkeyKeyEvent.obtain(KeyEvent.ACTION_UP, lastKey);
         mQ.addLast(e);
     }
 
@@ -480,11 +526,18 @@ public class MonkeySourceRandom implements MonkeyEventSource {
      * generate an activity event
      */
     public void generateActivity() {
-        MonkeyActivityEvent e = new MonkeyActivityEvent(new ArrayList<ComponentName>(mMainApps.keySet()).get(
-            mRandom.nextInt(mMainApps.size())), mMainApps);
+        MonkeyActivityEvent e = new MonkeyActivityEvent(randomMainApp(), mMainApps);
         mQ.addLast(e);
     }
 
+    /**
+     * Picks one of the main apps. Indexes the snapshot taken at construction, in the map's
+     * iteration order, so the choice for a given seed is the same as copying the key set.
+     */
+    private ComponentName randomMainApp() {
+        return mMainAppArray[mRandom.nextInt(mMainAppArray.length)];
+    }
+
     /**
      * if the queue is empty, we generate events first
      * @return the first event in the queue
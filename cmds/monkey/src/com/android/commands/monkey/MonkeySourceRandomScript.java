@@ -27,13 +27,13 @@ public class MonkeySourceRandomScript implements MonkeyEventSource {
     private int mVerbose = 0;
 
     /** The source for the setup script if it exists */
-    private MonkeySourceScript mSetupSource = null;
+    private MonkeyEventSource mSetupSource = null;
 
-    /** The list of MonkeySourceScript instances to be played in random order */
-    private ArrayList<MonkeySourceScript> mScriptSources = new ArrayList<MonkeySourceScript>();
+    /** The list of script sources to be played in random order */
+    private ArrayList<MonkeyEventSource> mScriptSources = new ArrayList<MonkeyEventSource>();
 
     /** The current source, set to the setup source and then a random script */
-    private MonkeySourceScript mCurrentSource = null;
+    private MonkeyEventSource mCurrentSource = null;
 
     /** The random number generator */
     private Random mRandom;
@@ -55,13 +55,13 @@ public class MonkeySourceRandomScript implements MonkeyEventSource {
             long throttle, boolean randomizeThrottle, Random random, long profileWaitTime,
             long deviceSleepTime, boolean randomizeScript) {
         if (setupFileName != null) {
-            mSetupSource = new MonkeySourceScript(random, setupFileName, throttle,
+            mSetupSource = MonkeySourceScript.forFile(random, setupFileName, throttle,
                     randomizeThrottle, profileWaitTime, deviceSleepTime);
             mCurrentSource = mSetupSource;
         }
 
         for (String fileName: scriptFileNames) {
-            mScriptSources.add(new MonkeySourceScript(random, fileName, throttle,
+            mScriptSources.add(MonkeySourceScript.forFile(random, fileName, throttle,
                     randomizeThrottle, profileWaitTime, deviceSleepTime));
         }
 
@@ -129,7 +129,7 @@ public class MonkeySourceRandomScript implements MonkeyEventSource {
             mSetupSource.setVerbose(verbose);
         }
 
-        for (MonkeySourceScript source: mScriptSources) {
+        for (MonkeyEventSource source: mScriptSources) {
             source.setVerbose(verbose);
         }
     }
@@ -146,7 +146,7 @@ public class MonkeySourceRandomScript implements MonkeyEventSource {
             return false;
         }
 
-        for (MonkeySourceScript source: mScriptSources) {
+        for (MonkeyEventSource source: mScriptSources) {
             if (!source.validate()) {
                 return false;
             }
@@ -33,6 +33,13 @@ public class MonkeyThrottleEvent extends MonkeyEvent {
         mThrottle = throttle;
     }  
 
+    /**
+     * Changes the sleep time, so that the same instance can be reused.
+     */
+    void setThrottle(long throttle) {
+        mThrottle = throttle;
+    }
+
     @Override
     public int injectEvent(IWindowManager iwm, IActivityManager iam, int verbose) {
 
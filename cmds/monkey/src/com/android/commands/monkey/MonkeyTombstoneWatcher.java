@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watches for new tombstone files, which indicate native crashes, on a background thread.
+ * <p>
+ * The tombstone directory is watched with a {@link WatchService}, or rescanned once a second if
+ * it can't be watched. A tombstone counts as new when its modification time hasn't been seen
+ * before, since tombstoned reuses a fixed set of file names. It is reported once its size has
+ * stopped changing, so the monkey loop only ever has to read a flag.
+ */
+public class MonkeyTombstoneWatcher implements Runnable {
+    private static final File TOMBSTONES_PATH = new File("/data/tombstones");
+
+    private static final String TOMBSTONE_PREFIX = "tombstone_";
+
+    // How often tombstones being written are checked, and how many checks they get
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    private static final int NUM_READ_TOMBSTONE_RETRIES = 5;
+
+    private final AtomicBoolean mNewCrash = new AtomicBoolean();
+
+    // Modification time of each tombstone already seen. Only used on the watcher thread once
+    // it has started.
+    private final HashMap<String, Long> mKnown = new HashMap<String, Long>();
+
+    // Tombstones that are still being written
+    private final HashMap<String, Pending> mPending = new HashMap<String, Pending>();
+
+    // Cleared by stop(), or by the watcher thread when it falls back to polling
+    private volatile WatchService mWatchService;
+
+    private Thread mThread;
+
+    private long mLastCheck;
+
+    private static class Pending {
+        // Size at the last check, or when the tombstone was found
+        long mSize;
+        int mChecks;
+
+        Pending(long size) {
+            mSize = size;
+        }
+    }
+
+    /**
+     * Records the tombstones that already exist, and starts watching for new ones.
+     */
+    public void start() {
+        scan(false);
+        try {
+            mWatchService = FileSystems.getDefault().newWatchService();
+            TOMBSTONES_PATH.toPath().register(mWatchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            Logger.err.println("// Unable to watch " + TOMBSTONES_PATH + ", polling it instead: "
+                    + e);
+            closeWatchService();
+        }
+        mThread = new Thread(this, "MonkeyTombstoneWatcher");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stops watching. Tombstones still being written are not reported.
+     */
+    public void stop() {
+        if (mThread != null) {
+            mThread.interrupt();
+            closeWatchService();
+            try {
+                mThread.join(CHECK_INTERVAL_MS);
+            } catch (InterruptedException e) {
+            }
+            mThread = null;
+        }
+    }
+
+    /**
+     * Returns true if a new native crash has been seen since the last call. Never blocks.
+     */
+    public boolean takeNewCrash() {
+        // A plain read first, so the common case doesn't write to the shared flag
+        return mNewCrash.get() && mNewCrash.getAndSet(false);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchService watchService = mWatchService;
+                if (watchService != null) {
+                    WatchKey key = mPending.isEmpty() ? watchService.take()
+                            : watchService.poll(CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        handleEvents(key);
+                    }
+                } else {
+                    Thread.sleep(CHECK_INTERVAL_MS);
+                    scan(true);
+                }
+                long now = SystemClock.uptimeMillis();
+                if (!mPending.isEmpty() && now - mLastCheck >= CHECK_INTERVAL_MS) {
+                    mLastCheck = now;
+                    checkPending();
+                }
+            }
+        } catch (InterruptedException e) {
+            // stop() was called
+        } catch (ClosedWatchServiceException e) {
+            // stop() was called
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                scan(true);
+            } else {
+                changed(event.context().toString());
+            }
+        }
+        if (!key.reset()) {
+            // The directory went away; keep looking for it
+            Logger.err.println("// Lost watch on " + TOMBSTONES_PATH + ", polling it instead");
+            closeWatchService();
+        }
+    }
+
+    /**
+     * Looks at every tombstone in the directory, either to start tracking them or to find
+     * ones that changed without an event for them.
+     */
+    private void scan(boolean report) {
+        String[] tombstones = TOMBSTONES_PATH.list();
+        if (tombstones == null) {
+            return;
+        }
+        for (String name : tombstones) {
+            if (!report) {
+                if (name.startsWith(TOMBSTONE_PREFIX)) {
+                    mKnown.put(name, new File(TOMBSTONES_PATH, name).lastModified());
+                }
+            } else {
+                changed(name);
+            }
+        }
+    }
+
+    /**
+     * Starts waiting for a tombstone to be completely written, if it is a new one.
+     */
+    private void changed(String name) {
+        if (!name.startsWith(TOMBSTONE_PREFIX) || mPending.containsKey(name)) {
+            return;
+        }
+        Long known = mKnown.get(name);
+        if (known != null && known == new File(TOMBSTONES_PATH, name).lastModified()) {
+            return;
+        }
+        if (mPending.isEmpty()) {
+            // Give it a full interval before the first size comparison
+            mLastCheck = SystemClock.uptimeMillis();
+        }
+        // Remember the size now, so the first check already compares sizes
+        mPending.put(name, new Pending(new File(TOMBSTONES_PATH, name).length()));
+    }
+
+    /**
+     * Reports the tombstones whose size is unchanged since the last check, or that have run
+     * out of checks.
+     */
+    private void checkPending() {
+        Iterator<Map.Entry<String, Pending>> it = mPending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Pending> entry = it.next();
+            File f = new File(TOMBSTONES_PATH, entry.getKey());
+            Pending pending = entry.getValue();
+            long size = f.length();
+            boolean written = size > 0 && size == pending.mSize;
+            pending.mSize = size;
+            if (!written && ++pending.mChecks < NUM_READ_TOMBSTONE_RETRIES) {
+                continue;
+            }
+            if (!written) {
+                Logger.err.println("Incomplete tombstone file.");
+            }
+            Logger.out.println("** New tombstone found: " + f.getAbsolutePath()
+                    + ", size: " + size);
+            mKnown.put(entry.getKey(), f.lastModified());
+            it.remove();
+            mNewCrash.set(true);
+        }
+    }
+
+    private void closeWatchService() {
+        WatchService watchService = mWatchService;
+        if (watchService != null) {
+            mWatchService = null;
+            try {
+                watchService.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.commands.monkey;
 
+import android.util.Pools;
 import android.view.InputDevice;
 
 
@@ -23,10 +24,33 @@ import android.view.InputDevice;
  * monkey touch event
  */
 public class MonkeyTouchEvent extends MonkeyMotionEvent {
+    private static final Pools.SynchronizedPool<MonkeyTouchEvent> sPool =
+            new Pools.SynchronizedPool<MonkeyTouchEvent>(16);
+
     public MonkeyTouchEvent(int action) {
         super(MonkeyEvent.EVENT_TYPE_TOUCH, InputDevice.SOURCE_TOUCHSCREEN, action);
     }
 
+    /**
+     * Returns a pooled touch event, equivalent to {@code new MonkeyTouchEvent(action)}.
+     * Call {@link #recycle} once it has been injected.
+     */
+    public static MonkeyTouchEvent obtain(int action) {
+        MonkeyTouchEvent e = sPool.acquire();
+        if (e == null) {
+            e = new MonkeyTouchEvent(action);
+        } else {
+            e.reset(action);
+        }
+        e.setPooled();
+        return e;
+    }
+
+    @Override
+    protected void release() {
+        sPool.release(this);
+    }
+
     @Override
     protected String getTypeLabel() {
         return "Touch";
@@ -16,16 +16,40 @@
 
 package com.android.commands.monkey;
 
+import android.util.Pools;
 import android.view.InputDevice;
 
 /**
  * monkey trackball event
  */
 public class MonkeyTrackballEvent extends MonkeyMotionEvent {
+    private static final Pools.SynchronizedPool<MonkeyTrackballEvent> sPool =
+            new Pools.SynchronizedPool<MonkeyTrackballEvent>(16);
+
     public MonkeyTrackballEvent(int action) {
         super(MonkeyEvent.EVENT_TYPE_TRACKBALL, InputDevice.SOURCE_TRACKBALL, action);
     }
 
+    /**
+     * Returns a pooled trackball event, equivalent to {@code new MonkeyTrackballEvent(action)}.
+     * Call {@link #recycle} once it has been injected.
+     */
+    public static MonkeyTrackballEvent obtain(int action) {
+        MonkeyTrackballEvent e = sPool.acquire();
+        if (e == null) {
+            e = new MonkeyTrackballEvent(action);
+        } else {
+            e.reset(action);
+        }
+        e.setPooled();
+        return e;
+    }
+
+    @Override
+    protected void release() {
+        sPool.release(this);
+    }
+
     @Override
     protected String getTypeLabel() {
         return "Trackball";
@@ -16,14 +16,20 @@
 
 package com.example.android.vdmdemo.client;
 
+import static com.google.common.util.concurrent.Uninterruptibles.joinUninterruptibly;
+
 import android.media.AudioAttributes;
 import android.media.AudioFormat;
 import android.media.AudioTrack;
 import android.util.Log;
 
+import androidx.annotation.GuardedBy;
+
+import com.example.android.vdmdemo.common.AudioJitterBuffer;
 import com.example.android.vdmdemo.common.RemoteEventProto.AudioFrame;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent;
 
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 import javax.inject.Inject;
@@ -34,6 +40,7 @@ final class AudioPlayer implements Consumer<RemoteEvent> {
     private static final String TAG = AudioPlayer.class.getSimpleName();
 
     private static final int SAMPLE_RATE = 44000;
+    private static final int CHANNEL_COUNT = 2;
     private static final AudioFormat AUDIO_FORMAT =
             new AudioFormat.Builder()
                     .setSampleRate(SAMPLE_RATE)
@@ -45,15 +52,40 @@ final class AudioPlayer implements Consumer<RemoteEvent> {
     private static final int MIN_AUDIOTRACK_BUFFER_SIZE =
             AudioTrack.getMinBufferSize(
                     SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
-    private static final int AUDIOTRACK_BUFFER_SIZE = 4 * MIN_AUDIOTRACK_BUFFER_SIZE;
+    // The jitter buffer absorbs the network jitter, so the track only needs to cover scheduling.
+    private static final int AUDIOTRACK_BUFFER_SIZE = 2 * MIN_AUDIOTRACK_BUFFER_SIZE;
+
+    // Latency of the jitter buffer on a steady network. It grows with the jitter, up to the max.
+    private static final int TARGET_LATENCY_MS = 40;
+    private static final int MAX_LATENCY_MS = 500;
+    // Audio is handed to the track in chunks of this length.
+    private static final int CHUNK_MS = 5;
 
     private final Object mLock = new Object();
+    @GuardedBy("mLock")
     private AudioTrack mAudioTrack;
+    @GuardedBy("mLock")
+    private AudioJitterBuffer mJitterBuffer;
+    @GuardedBy("mLock")
+    private PlaybackThread mPlaybackThread;
+    // The stream being played. Frames of any other stream are stale.
+    @GuardedBy("mLock")
+    private int mStreamId;
+    // The statistics of the current or last playback.
+    @GuardedBy("mLock")
+    private String mLastSummary;
 
     @Inject
     AudioPlayer() {}
 
-    private void startPlayback() {
+    /** Returns the jitter buffer statistics of the current or last playback, if any. */
+    String getSummary() {
+        synchronized (mLock) {
+            return mJitterBuffer != null ? mJitterBuffer.getSummary() : mLastSummary;
+        }
+    }
+
+    private void startPlayback(int streamId) {
         synchronized (mLock) {
             if (mAudioTrack != null) {
                 Log.w(TAG, "Received startPlayback command without stopping the playback first");
@@ -66,30 +98,29 @@ final class AudioPlayer implements Consumer<RemoteEvent> {
                             .setBufferSizeInBytes(AUDIOTRACK_BUFFER_SIZE)
                             .build();
             mAudioTrack.play();
+            mStreamId = streamId;
+            mJitterBuffer = new AudioJitterBuffer(
+                    SAMPLE_RATE, CHANNEL_COUNT, TARGET_LATENCY_MS, MAX_LATENCY_MS);
+            mPlaybackThread = new PlaybackThread(mAudioTrack, mJitterBuffer);
+            mPlaybackThread.start();
         }
     }
 
     private void playAudioFrame(AudioFrame audioFrame) {
-        byte[] data = audioFrame.getData().toByteArray();
-        int bytesToWrite = data.length;
-        if (bytesToWrite == 0) {
+        if (audioFrame.getData().isEmpty()) {
             return;
         }
-        int bytesWritten = 0;
         synchronized (mLock) {
-            if (mAudioTrack == null) {
+            if (mJitterBuffer == null) {
                 Log.e(TAG, "Received audio frame, but audio track was not initialized yet");
                 return;
             }
-
-            while (bytesToWrite > 0) {
-                int ret = mAudioTrack.write(data, bytesWritten, bytesToWrite);
-                if (ret <= 0) {
-                    Log.e(TAG, "AudioTrack.write returned error code " + ret);
-                }
-                bytesToWrite -= ret;
-                bytesWritten += ret;
+            if (audioFrame.getStreamId() != mStreamId) {
+                // Sent before the stream was restarted, and overtaken by the restart.
+                return;
             }
+            mJitterBuffer.write(audioFrame.getPosition(),
+                    audioFrame.getData().asReadOnlyByteBuffer(), System.nanoTime());
         }
     }
 
@@ -98,9 +129,16 @@ final class AudioPlayer implements Consumer<RemoteEvent> {
             if (mAudioTrack == null) {
                 Log.w(TAG, "Received stopPlayback command for already stopped playback");
             } else {
+                // The track keeps playing until the thread is done, so its last write returns.
+                mPlaybackThread.stopPlayback();
+                joinUninterruptibly(mPlaybackThread);
                 mAudioTrack.stop();
                 mAudioTrack.release();
+                mLastSummary = mJitterBuffer.getSummary();
+                Log.i(TAG, "Audio playback stopped, " + mLastSummary);
                 mAudioTrack = null;
+                mJitterBuffer = null;
+                mPlaybackThread = null;
             }
         }
     }
@@ -108,7 +146,7 @@ final class AudioPlayer implements Consumer<RemoteEvent> {
     @Override
     public void accept(RemoteEvent remoteEvent) {
         if (remoteEvent.hasStartAudio()) {
-            startPlayback();
+            startPlayback(remoteEvent.getStartAudio().getStreamId());
         }
         if (remoteEvent.hasAudioFrame()) {
             playAudioFrame(remoteEvent.getAudioFrame());
@@ -117,4 +155,39 @@ final class AudioPlayer implements Consumer<RemoteEvent> {
             stopPlayback();
         }
     }
+
+    /** Moves audio from the jitter buffer to the track, at the pace the track plays it. */
+    private static class PlaybackThread extends Thread {
+        private final AudioTrack mAudioTrack;
+        private final AudioJitterBuffer mJitterBuffer;
+        private final AtomicBoolean mIsRunning = new AtomicBoolean(true);
+
+        PlaybackThread(AudioTrack audioTrack, AudioJitterBuffer jitterBuffer) {
+            super("AudioPlayer");
+            mAudioTrack = audioTrack;
+            mJitterBuffer = jitterBuffer;
+        }
+
+        @Override
+        public void run() {
+            short[] chunk = new short[SAMPLE_RATE * CHUNK_MS / 1000 * CHANNEL_COUNT];
+            while (mIsRunning.get()) {
+                mJitterBuffer.read(chunk);
+                int samplesWritten = 0;
+                while (samplesWritten < chunk.length) {
+                    int ret = mAudioTrack.write(
+                            chunk, samplesWritten, chunk.length - samplesWritten);
+                    if (ret < 0) {
+                        Log.e(TAG, "AudioTrack.write returned error code " + ret);
+                        return;
+                    }
+                    samplesWritten += ret;
+                }
+            }
+        }
+
+        void stopPlayback() {
+            mIsRunning.set(false);
+        }
+    }
 }
@@ -39,6 +39,7 @@ import androidx.core.view.WindowInsetsControllerCompat;
 import com.example.android.vdmdemo.common.ConnectionManager;
 import com.example.android.vdmdemo.common.RemoteEventProto.InputDeviceType;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent;
+import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent.EventCase;
 import com.example.android.vdmdemo.common.RemoteIo;
 
 import dagger.hilt.android.AndroidEntryPoint;
@@ -169,8 +170,11 @@ public class ImmersiveActivity extends Hilt_ImmersiveActivity {
     public void onStart() {
         super.onStart();
         mConnectionManager.addConnectionCallback(mConnectionCallback);
-        mRemoteIo.addMessageConsumer(mAudioPlayer);
-        mRemoteIo.addMessageConsumer(mRemoteEventConsumer);
+        mRemoteIo.addMessageConsumer(mAudioPlayer,
+                EventCase.START_AUDIO, EventCase.AUDIO_FRAME, EventCase.STOP_AUDIO);
+        mRemoteIo.addMessageConsumer(mRemoteEventConsumer,
+                EventCase.STOP_STREAMING, EventCase.DISPLAY_ROTATION,
+                EventCase.KEYBOARD_VISIBILITY_EVENT);
     }
 
     @Override
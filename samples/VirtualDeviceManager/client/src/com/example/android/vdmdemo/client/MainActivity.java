@@ -38,10 +38,12 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 
 import com.example.android.vdmdemo.common.ConnectionManager;
 import com.example.android.vdmdemo.common.DpadFragment;
+import com.example.android.vdmdemo.common.LatencyDialog;
 import com.example.android.vdmdemo.common.NavTouchpadFragment;
 import com.example.android.vdmdemo.common.RemoteEventProto.DeviceCapabilities;
 import com.example.android.vdmdemo.common.RemoteEventProto.InputDeviceType;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent;
+import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent.EventCase;
 import com.example.android.vdmdemo.common.RemoteIo;
 
 import dagger.hilt.android.AndroidEntryPoint;
@@ -72,7 +74,8 @@ public class MainActivity extends Hilt_MainActivity {
     private final ActivityResultLauncher<String> mRequestPermissionLauncher =
             registerForActivityResult(new RequestPermission(), isGranted -> {
                 if (isGranted) {
-                    mRemoteIo.addMessageConsumer(mAudioRecorder);
+                    mRemoteIo.addMessageConsumer(mAudioRecorder,
+                            EventCase.START_AUDIO_INPUT, EventCase.STOP_AUDIO_INPUT);
                 } else {
                     mRemoteIo.removeMessageConsumer(mAudioRecorder);
                 }
@@ -144,8 +147,11 @@ public class MainActivity extends Hilt_MainActivity {
     public void onStart() {
         super.onStart();
         mConnectionManager.addConnectionCallback(mConnectionCallback);
-        mRemoteIo.addMessageConsumer(mAudioPlayer);
-        mRemoteIo.addMessageConsumer(mRemoteEventConsumer);
+        mRemoteIo.addMessageConsumer(mAudioPlayer,
+                EventCase.START_AUDIO, EventCase.AUDIO_FRAME, EventCase.STOP_AUDIO);
+        mRemoteIo.addMessageConsumer(mRemoteEventConsumer,
+                EventCase.START_STREAMING, EventCase.STOP_STREAMING, EventCase.DISPLAY_ROTATION,
+                EventCase.DISPLAY_CHANGE_EVENT, EventCase.KEYBOARD_VISIBILITY_EVENT);
     }
 
     @Override
@@ -154,7 +160,8 @@ public class MainActivity extends Hilt_MainActivity {
         mDisplayAdapter.resumeAllDisplays();
 
         if (hasRecordAudioPermission(this)) {
-            mRemoteIo.addMessageConsumer(mAudioRecorder);
+            mRemoteIo.addMessageConsumer(mAudioRecorder,
+                    EventCase.START_AUDIO_INPUT, EventCase.STOP_AUDIO_INPUT);
         } else {
             mRequestPermissionLauncher.launch(android.Manifest.permission.RECORD_AUDIO);
         }
@@ -202,6 +209,7 @@ public class MainActivity extends Hilt_MainActivity {
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
             case R.id.input -> toggleInputVisibility();
+            case R.id.latency -> showLatency();
             default -> {
                 return super.onOptionsItemSelected(item);
             }
@@ -209,6 +217,12 @@ public class MainActivity extends Hilt_MainActivity {
         return true;
     }
 
+    private void showLatency() {
+        String audioSummary = mAudioPlayer.getSummary();
+        LatencyDialog.show(this, mRemoteIo.getLatencyTracker(),
+                audioSummary != null ? "audio playback: " + audioSummary : null);
+    }
+
     private void processRemoteEvent(RemoteEvent event) {
         if (event.hasStartStreaming()) {
             runOnUiThread(
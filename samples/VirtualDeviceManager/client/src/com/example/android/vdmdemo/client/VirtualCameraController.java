@@ -34,6 +34,7 @@ import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 
 import com.example.android.vdmdemo.common.RemoteEventProto;
+import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent.EventCase;
 import com.example.android.vdmdemo.common.RemoteIo;
 import com.example.android.vdmdemo.common.VideoManager;
 
@@ -78,7 +79,8 @@ final class VirtualCameraController implements AutoCloseable {
     @Inject
     VirtualCameraController(@ApplicationContext Context context, RemoteIo remoteIo) {
         mRemoteIo = remoteIo;
-        mRemoteIo.addMessageConsumer(mRemoteEventConsumer);
+        mRemoteIo.addMessageConsumer(mRemoteEventConsumer,
+                EventCase.START_CAMERA_STREAM, EventCase.STOP_CAMERA_STREAM);
         mCameraManager = Objects.requireNonNull(context.getSystemService(CameraManager.class));
 
         try {
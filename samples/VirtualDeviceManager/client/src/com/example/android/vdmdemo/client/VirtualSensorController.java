@@ -25,6 +25,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent;
+import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent.EventCase;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteSensorEvent;
 import com.example.android.vdmdemo.common.RemoteEventProto.SensorCapabilities;
 import com.example.android.vdmdemo.common.RemoteEventProto.SensorConfiguration;
@@ -75,7 +76,7 @@ final class VirtualSensorController implements AutoCloseable {
         mListenerThread.start();
         mHandler = new Handler(mListenerThread.getLooper());
 
-        remoteIo.addMessageConsumer(mRemoteEventConsumer);
+        remoteIo.addMessageConsumer(mRemoteEventConsumer, EventCase.SENSOR_CONFIGURATION);
     }
 
     @Override
@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.vdmdemo.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Smooths out the arrival of audio frames from the remote device before they're played.
+ *
+ * <p>Frames of 16 bit PCM are written as they arrive, each with the position of its first sample
+ * frame in the stream, and read at the pace of the audio output. Playback starts once the target
+ * latency has been buffered, and is then kept close to the target by dropping or repeating a
+ * single sample frame once in a while, which isn't audible.
+ *
+ * <p>The target is the configured latency, raised to cover the arrival jitter of recent frames, so
+ * it grows when the network gets worse and shrinks back when it recovers.
+ *
+ * <p>Missing audio is concealed by repeating the last few milliseconds played with a fade out. A
+ * gap in the stream is skipped once the audio after it has arrived. When the buffer runs dry,
+ * playback waits instead, until the target latency has been buffered again, which the jitter has
+ * raised by then. Frames that arrive after their position has been skipped are discarded, unless
+ * they're so far behind that the stream must have started over, in which case the buffer does too.
+ */
+public final class AudioJitterBuffer {
+
+    // Recent arrivals used to measure jitter: about 2.5s of the host's 20ms frames.
+    private static final int JITTER_WINDOW = 128;
+    // Playback speed is adjusted by one sample frame in every this many.
+    private static final int ADJUST_INTERVAL = 100;
+    // The buffered level may be this far from the target before playback speed is adjusted.
+    private static final int HYSTERESIS_MS = 5;
+    // How quickly the averaged level follows the instantaneous one, per read.
+    private static final double LEVEL_SMOOTHING = 1.0 / 32;
+    private static final int CONCEALMENT_PERIOD_MS = 5;
+    private static final int CONCEALMENT_FADE_OUT_MS = 20;
+    private static final int FADE_IN_MS = 5;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mMinTargetFrames;
+    private final int mMaxTargetFrames;
+    private final int mCapacityFrames;
+    private final int mHysteresisFrames;
+    private final int mConcealmentPeriodFrames;
+    private final int mConcealmentFadeOutFrames;
+    private final int mFadeInFrames;
+
+    private final Object mLock = new Object();
+
+    // Guarded by mLock
+    private final short[] mSamples;
+    private final boolean[] mPresent;
+    // The last frames played, repeated to conceal missing audio.
+    private final short[] mHistory;
+    private int mHistoryPosition = 0;
+    private final long[] mArrivalDelaysNs = new long[JITTER_WINDOW];
+    private int mArrivalCount = 0;
+    private boolean mStarted = false;
+    private boolean mPlaying = false;
+    private long mReadPosition = 0;
+    private long mWritePosition = 0;
+    private int mTargetFrames;
+    private double mAverageLevelFrames = 0;
+    private int mFramesSinceAdjustment = 0;
+    // Frames concealed since audio was last played, up to the fade out.
+    private int mConcealedRun;
+    private int mFadeInRemaining = 0;
+
+    // Guarded by mLock
+    private long mUnderruns = 0;
+    private long mOverrunFrames = 0;
+    private long mLostFrames = 0;
+    private long mLateFrames = 0;
+    private long mConcealedFrames = 0;
+    private long mJitterNs = 0;
+
+    /**
+     * Creates a buffer for interleaved 16 bit PCM.
+     *
+     * @param targetLatencyMs the latency to aim for when there's no jitter.
+     * @param maxLatencyMs the most audio that may be buffered, whatever the jitter.
+     */
+    public AudioJitterBuffer(
+            int sampleRate, int channelCount, int targetLatencyMs, int maxLatencyMs) {
+        if (targetLatencyMs <= 0 || maxLatencyMs <= targetLatencyMs) {
+            throw new IllegalArgumentException("Invalid latency " + targetLatencyMs + "ms, max "
+                    + maxLatencyMs + "ms");
+        }
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mMinTargetFrames = msToFrames(targetLatencyMs);
+        mCapacityFrames = msToFrames(maxLatencyMs);
+        // Leave room for the frames that arrive on top of the target.
+        mMaxTargetFrames = Math.max(mMinTargetFrames, mCapacityFrames * 3 / 4);
+        mHysteresisFrames = msToFrames(HYSTERESIS_MS);
+        mConcealmentPeriodFrames = msToFrames(CONCEALMENT_PERIOD_MS);
+        mConcealmentFadeOutFrames = msToFrames(CONCEALMENT_FADE_OUT_MS);
+        mFadeInFrames = msToFrames(FADE_IN_MS);
+        mTargetFrames = mMinTargetFrames;
+        // Nothing has been played yet, so there's nothing to fade out.
+        mConcealedRun = mConcealmentFadeOutFrames;
+        mSamples = new short[mCapacityFrames * channelCount];
+        mPresent = new boolean[mCapacityFrames];
+        mHistory = new short[mConcealmentPeriodFrames * channelCount];
+    }
+
+    /**
+     * Adds a frame of little endian PCM that starts at the given sample frame position of the
+     * stream, and arrived at the given time.
+     */
+    public void write(long position, ByteBuffer pcm, long arrivalNs) {
+        ShortBuffer samples = pcm.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        int frames = samples.remaining() / mChannelCount;
+        if (frames == 0) {
+            return;
+        }
+        synchronized (mLock) {
+            if (!mStarted || position + mCapacityFrames < mReadPosition) {
+                // A late frame is never a whole buffer behind, so this is a new stream, or the
+                // buffer was started by a frame left over from an earlier one.
+                restartLocked(position);
+            }
+            updateJitterLocked(position, frames, arrivalNs);
+
+            long end = position + frames;
+            if (end <= mReadPosition) {
+                mLateFrames += frames;
+                return;
+            }
+            long start = position;
+            if (start < mReadPosition) {
+                mLateFrames += mReadPosition - start;
+                start = mReadPosition;
+            }
+            if (end - mReadPosition > mCapacityFrames) {
+                // No room, so skip the oldest audio instead of delaying everything after it.
+                long newReadPosition = end - mCapacityFrames;
+                long skipEnd = Math.min(newReadPosition, mReadPosition + mCapacityFrames);
+                for (long p = mReadPosition; p < skipEnd; ++p) {
+                    if (mPresent[index(p)]) {
+                        mPresent[index(p)] = false;
+                        ++mOverrunFrames;
+                    }
+                }
+                mReadPosition = newReadPosition;
+                start = Math.max(start, mReadPosition);
+            }
+            samples.position((int) (start - position) * mChannelCount);
+            for (long p = start; p < end; ++p) {
+                int i = index(p);
+                samples.get(mSamples, i * mChannelCount, mChannelCount);
+                mPresent[i] = true;
+            }
+            mWritePosition = Math.max(mWritePosition, end);
+        }
+    }
+
+    /**
+     * Fills the buffer with the next interleaved samples to play. Missing audio is concealed, and
+     * once the buffer runs dry, playback waits until the target latency has been buffered again.
+     */
+    public void read(short[] out) {
+        int frames = out.length / mChannelCount;
+        synchronized (mLock) {
+            int level = getLevelLocked();
+            if (mPlaying) {
+                mAverageLevelFrames += (level - mAverageLevelFrames) * LEVEL_SMOOTHING;
+            } else if (mStarted && level >= mTargetFrames) {
+                mPlaying = true;
+                mAverageLevelFrames = level;
+            }
+            for (int f = 0; f < frames; ++f) {
+                if (!mPlaying) {
+                    // Silence before playback first starts isn't concealment.
+                    if (mUnderruns > 0) {
+                        ++mConcealedFrames;
+                    }
+                    concealFrameLocked(out, f);
+                } else if (mReadPosition >= mWritePosition) {
+                    // Ran dry: keep the position, so the audio still to come is played late
+                    // rather than skipped, and buffer up to the target again.
+                    ++mUnderruns;
+                    ++mConcealedFrames;
+                    mPlaying = false;
+                    concealFrameLocked(out, f);
+                } else if (!mPresent[index(mReadPosition)]) {
+                    // Audio after this has arrived, so this never will.
+                    ++mLostFrames;
+                    ++mConcealedFrames;
+                    ++mReadPosition;
+                    concealFrameLocked(out, f);
+                } else {
+                    playFrameLocked(out, f);
+                }
+            }
+        }
+    }
+
+    /** Returns the latency currently aimed for, in milliseconds. */
+    public int getTargetLatencyMs() {
+        synchronized (mLock) {
+            return framesToMs(mTargetFrames);
+        }
+    }
+
+    /** Returns the amount of audio buffered on average, in milliseconds. */
+    public int getLatencyMs() {
+        synchronized (mLock) {
+            return framesToMs((long) mAverageLevelFrames);
+        }
+    }
+
+    /** Returns how late frames arrived relative to each other recently, in milliseconds. */
+    public int getJitterMs() {
+        synchronized (mLock) {
+            return (int) (mJitterNs / 1_000_000);
+        }
+    }
+
+    /** Returns the number of times playback ran out of audio. */
+    public long getUnderrunCount() {
+        synchronized (mLock) {
+            return mUnderruns;
+        }
+    }
+
+    /** Returns the number of sample frames discarded because the buffer was full. */
+    public long getOverrunFrameCount() {
+        synchronized (mLock) {
+            return mOverrunFrames;
+        }
+    }
+
+    /** Returns the number of sample frames that never arrived before they were due. */
+    public long getLostFrameCount() {
+        synchronized (mLock) {
+            return mLostFrames;
+        }
+    }
+
+    /** Returns the number of sample frames discarded because they arrived too late. */
+    public long getLateFrameCount() {
+        synchronized (mLock) {
+            return mLateFrames;
+        }
+    }
+
+    /** Returns the number of sample frames replaced by concealment. */
+    public long getConcealedFrameCount() {
+        synchronized (mLock) {
+            return mConcealedFrames;
+        }
+    }
+
+    /** Returns the statistics on one line. */
+    public String getSummary() {
+        synchronized (mLock) {
+            return String.format(Locale.US,
+                    "latency %dms (target %dms, jitter %dms), %d underruns, %.1fms overrun,"
+                            + " %.1fms lost, %.1fms late, %.1fms concealed",
+                    framesToMs((long) mAverageLevelFrames), framesToMs(mTargetFrames),
+                    mJitterNs / 1_000_000, mUnderruns, framesToMsExact(mOverrunFrames),
+                    framesToMsExact(mLostFrames), framesToMsExact(mLateFrames),
+                    framesToMsExact(mConcealedFrames));
+        }
+    }
+
+    // Guarded by mLock
+    private void restartLocked(long position) {
+        mStarted = true;
+        mPlaying = false;
+        mReadPosition = position;
+        mWritePosition = position;
+        Arrays.fill(mPresent, false);
+        // Arrival delays are relative to the stream position, so the old ones no longer compare.
+        mArrivalCount = 0;
+    }
+
+    // Guarded by mLock
+    private void updateJitterLocked(long position, int frames, long arrivalNs) {
+        // How long after the start of the stream the frame arrived, compared to when it would
+        // have if audio were sent at exactly the sample rate. Only differences matter.
+        long delayNs = arrivalNs - position * 1_000_000_000L / mSampleRate;
+        mArrivalDelaysNs[mArrivalCount++ % JITTER_WINDOW] = delayNs;
+        int count = Math.min(mArrivalCount, JITTER_WINDOW);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < count; ++i) {
+            min = Math.min(min, mArrivalDelaysNs[i]);
+            max = Math.max(max, mArrivalDelaysNs[i]);
+        }
+        mJitterNs = max - min;
+        // Enough to cover the latest arrival, and the frame after it.
+        long neededFrames = mJitterNs * mSampleRate / 1_000_000_000L + frames;
+        mTargetFrames = (int) Math.max(mMinTargetFrames, Math.min(neededFrames, mMaxTargetFrames));
+    }
+
+    // Guarded by mLock
+    private void playFrameLocked(short[] out, int outFrame) {
+        if (++mFramesSinceAdjustment >= ADJUST_INTERVAL) {
+            mFramesSinceAdjustment = 0;
+            if (mAverageLevelFrames > mTargetFrames + mHysteresisFrames
+                    && mPresent[index(mReadPosition + 1)]) {
+                // Too much buffered: skip a sample frame.
+                mPresent[index(mReadPosition)] = false;
+                ++mReadPosition;
+            } else if (mAverageLevelFrames < mTargetFrames - mHysteresisFrames) {
+                // Too little buffered: play the last sample frame again.
+                int last = (mHistoryPosition + mConcealmentPeriodFrames - 1)
+                        % mConcealmentPeriodFrames;
+                System.arraycopy(mHistory, last * mChannelCount, out, outFrame * mChannelCount,
+                        mChannelCount);
+                return;
+            }
+        }
+        int index = index(mReadPosition);
+        double gain = 1;
+        if (mFadeInRemaining > 0) {
+            gain = 1 - (double) mFadeInRemaining-- / mFadeInFrames;
+        }
+        mConcealedRun = 0;
+        for (int c = 0; c < mChannelCount; ++c) {
+            short sample = (short) (mSamples[index * mChannelCount + c] * gain);
+            out[outFrame * mChannelCount + c] = sample;
+            mHistory[mHistoryPosition * mChannelCount + c] = sample;
+        }
+        mHistoryPosition = (mHistoryPosition + 1) % mConcealmentPeriodFrames;
+        mPresent[index] = false;
+        ++mReadPosition;
+    }
+
+    // Guarded by mLock
+    private void concealFrameLocked(short[] out, int outFrame) {
+        // Repeat the last period played, fading out, then stay silent.
+        double gain = Math.max(0, 1 - (double) mConcealedRun / mConcealmentFadeOutFrames);
+        int historyFrame = (mHistoryPosition + mConcealedRun) % mConcealmentPeriodFrames;
+        for (int c = 0; c < mChannelCount; ++c) {
+            out[outFrame * mChannelCount + c] =
+                    (short) (mHistory[historyFrame * mChannelCount + c] * gain);
+        }
+        if (mConcealedRun < mConcealmentFadeOutFrames) {
+            ++mConcealedRun;
+            // Blend back into the audio, unless the concealment has faded out already.
+            mFadeInRemaining = mFadeInFrames;
+        } else {
+            mFadeInRemaining = 0;
+        }
+    }
+
+    // Guarded by mLock
+    private int getLevelLocked() {
+        return (int) Math.max(0, mWritePosition - mReadPosition);
+    }
+
+    private int index(long position) {
+        return (int) Math.floorMod(position, (long) mCapacityFrames);
+    }
+
+    private int msToFrames(int ms) {
+        return Math.max(1, (int) ((long) ms * mSampleRate / 1000));
+    }
+
+    private int framesToMs(long frames) {
+        return (int) (frames * 1000 / mSampleRate);
+    }
+
+    private double framesToMsExact(long frames) {
+        return frames * 1000.0 / mSampleRate;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.vdmdemo.common;
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/** Shows the latency measured on this device, with an option to export the histograms. */
+public final class LatencyDialog {
+    private static final String TAG = "VdmLatencyDialog";
+
+    private static final Executor EXPORT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /** Shows the dialog for the given tracker. */
+    public static void show(Context context, LatencyTracker latencyTracker) {
+        show(context, latencyTracker, null);
+    }
+
+    /** Shows the dialog for the given tracker, followed by some other details if not null. */
+    public static void show(Context context, LatencyTracker latencyTracker, String details) {
+        String summary = latencyTracker.getSummary();
+        if (summary.isEmpty()) {
+            summary = context.getString(latencyTracker.isEnabled()
+                    ? R.string.latency_no_events : R.string.latency_off);
+        }
+        if (details != null) {
+            summary += "\n\n" + details;
+        }
+        new AlertDialog.Builder(context)
+                .setTitle(R.string.latency_title)
+                .setMessage(summary)
+                .setPositiveButton(R.string.latency_export,
+                        (dialog, which) -> export(context, latencyTracker))
+                .setNegativeButton(R.string.latency_close, null)
+                .show();
+    }
+
+    private static void export(Context context, LatencyTracker latencyTracker) {
+        // The dialog may be gone by the time the file is written.
+        Context appContext = context.getApplicationContext();
+        EXPORT_EXECUTOR.execute(() -> {
+            String message = writeHistograms(appContext, latencyTracker);
+            appContext.getMainExecutor().execute(
+                    () -> Toast.makeText(appContext, message, Toast.LENGTH_LONG).show());
+        });
+    }
+
+    /** Writes the histograms to a new file, and returns a message for the user. */
+    private static String writeHistograms(Context context, LatencyTracker latencyTracker) {
+        File file = new File(context.getExternalFilesDir(null),
+                "vdmdemo_latency_" + System.currentTimeMillis() + ".txt");
+        try {
+            latencyTracker.writeHistograms(file);
+            return context.getString(R.string.latency_saved, file);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to export latency histograms", e);
+            return context.getString(R.string.latency_save_failed, file);
+        }
+    }
+
+    private LatencyDialog() {}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.vdmdemo.common;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Counts the latencies of one stage of one kind of event, for {@link LatencyTracker}.
+ *
+ * <p>The buckets are fixed when the class loads, so the tracker can record every event in a frame
+ * or input stream without allocating. Bucket widths grow with the latency, keeping percentiles
+ * within a sixteenth of the true value whether the stage takes microseconds or seconds. Callers
+ * provide their own locking.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Anything slower than about two minutes counts as two minutes; by then the connection has
+    // long since stalled, and the exact figure no longer matters.
+    private static final int MAX_EXPONENT = 36;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount = 0;
+    private long mMax = 0;
+
+    /**
+     * Records a latency. The network and total stages subtract timestamps from both devices, so
+     * an error in the clock offset estimate can make them negative; those count as zero.
+     */
+    void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        ++mCounts[bucketIndex(value)];
+        ++mCount;
+        mMax = Math.max(mMax, value);
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    long getMax() {
+        return mMax;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile: the top of its bucket, capped at the
+     * slowest latency recorded so that p100 matches {@link #getMax}.
+     */
+    long getPercentile(double percent) {
+        long rank = Math.max(1, (long) Math.ceil(mCount * percent / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(getHighestValue(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    void clear() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mMax = 0;
+    }
+
+    /**
+     * Writes a line for each bucket with a count, for the exported file: the prefix naming the
+     * event and stage, the lowest and highest latency the bucket holds, and its count.
+     */
+    void writeBuckets(PrintWriter out, String prefix) {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            if (mCounts[i] != 0) {
+                out.println(prefix + " " + getLowestValue(i) + " " + getHighestValue(i) + " "
+                        + mCounts[i]);
+            }
+        }
+    }
+
+    // Latencies under SUB_BUCKETS nanoseconds have a bucket of their own. Each doubling above
+    // that adds SUB_BUCKETS buckets, picked by the SUB_BUCKET_BITS bits after the leading one.
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long getLowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    private static long getHighestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        return getLowestValue(index) + (1L << (index / SUB_BUCKETS - 1)) - 1;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.vdmdemo.common;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+
+import com.example.android.vdmdemo.common.RemoteEventProto.ClockSyncRequest;
+import com.example.android.vdmdemo.common.RemoteEventProto.ClockSyncResponse;
+import com.example.android.vdmdemo.common.RemoteEventProto.EventTimestamps;
+import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Measures how long events take to get from one device to the other, per kind of event and per
+ * stage.
+ *
+ * <p>While enabled, input, video, audio and sensor events are stamped when they're queued for
+ * sending and when they're written to the socket. The receiver adds when the event was parsed and
+ * when it reached a consumer, which splits the latency into these stages:
+ * <ul>
+ *     <li>queue: waiting on the sender until written to the socket.
+ *     <li>network: from the socket write until parsed by the receiver.
+ *     <li>dispatch: from parsing until a consumer gets the event.
+ *     <li>total: from queueing until a consumer gets the event.
+ * </ul>
+ *
+ * <p>The network and total stages compare the clocks of the two devices, so they are only
+ * recorded once the offset between the clocks has been estimated, with a few rounds of NTP style
+ * requests over the connection, repeated every few seconds. The estimate with the shortest round
+ * trip is used, as rounds that waited behind video frames overestimate the offset.
+ *
+ * <p>Enabling measurement on one device enables it on the other as well, and disabling it there
+ * disables it on both. Every change is numbered, so that requests the remote device sent before
+ * the latest change, while it was still measuring, can't turn measurement back on.
+ */
+public final class LatencyTracker {
+    private static final String TAG = "VdmLatencyTracker";
+
+    private static final int CLOCK_SYNC_ROUNDS = 8;
+    private static final long CLOCK_SYNC_INTERVAL_MS = 100;
+    private static final long CLOCK_RESYNC_INTERVAL_MS = 2000;
+
+    private static final int CATEGORY_INPUT = 0;
+    private static final int CATEGORY_VIDEO = 1;
+    private static final int CATEGORY_AUDIO = 2;
+    private static final int CATEGORY_SENSOR = 3;
+    private static final String[] CATEGORY_NAMES = {"input", "video", "audio", "sensor"};
+
+    private static final int STAGE_QUEUE = 0;
+    private static final int STAGE_NETWORK = 1;
+    private static final int STAGE_DISPATCH = 2;
+    private static final int STAGE_TOTAL = 3;
+    private static final String[] STAGE_NAMES = {"queue", "network", "dispatch", "total"};
+
+    private final RemoteIo mRemoteIo;
+    private final Handler mHandler;
+    private final Runnable mResyncRunnable = this::resync;
+
+    private volatile boolean mEnabled = false;
+    // Whether the remote device turned measurement on, rather than this one.
+    private volatile boolean mEnabledByRemote = false;
+
+    private final Object mLock = new Object();
+
+    // The remote clock minus the local one.
+    @GuardedBy("mLock")
+    private long mClockOffsetNs = 0;
+    @GuardedBy("mLock")
+    private long mClockSyncRoundTripNs = Long.MAX_VALUE;
+
+    // The number of the latest change of mEnabled, made here or adopted from a request.
+    @GuardedBy("mLock")
+    private long mGeneration = 0;
+
+    @GuardedBy("mLock")
+    private final LatencyHistogram[][] mHistograms =
+            new LatencyHistogram[CATEGORY_NAMES.length][STAGE_NAMES.length];
+
+    LatencyTracker(RemoteIo remoteIo) {
+        mRemoteIo = remoteIo;
+        HandlerThread thread = new HandlerThread("LatencyTracker");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        for (LatencyHistogram[] stages : mHistograms) {
+            for (int i = 0; i < stages.length; ++i) {
+                stages[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    /** Returns whether latency is being measured. */
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Starts or stops measuring latency, on this device and the remote one. Starting discards
+     * any earlier measurements.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabledByRemote = false;
+        if (enabled) {
+            nextGeneration();
+            start();
+        } else if (mEnabled) {
+            mEnabled = false;
+            mHandler.removeCallbacksAndMessages(null);
+            nextGeneration();
+            sendClockSyncRequest(false);
+        }
+    }
+
+    /** Returns the percentiles of every stage that has measurements, one line per stage. */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        synchronized (mLock) {
+            for (int category = 0; category < CATEGORY_NAMES.length; ++category) {
+                for (int stage = 0; stage < STAGE_NAMES.length; ++stage) {
+                    LatencyHistogram histogram = mHistograms[category][stage];
+                    if (histogram.getCount() == 0) {
+                        continue;
+                    }
+                    if (summary.length() > 0) {
+                        summary.append('\n');
+                    }
+                    summary.append(String.format(Locale.US,
+                            "%s %s: p50 %s, p90 %s, p99 %s, max %s, n=%d",
+                            CATEGORY_NAMES[category], STAGE_NAMES[stage],
+                            formatNanos(histogram.getPercentile(50)),
+                            formatNanos(histogram.getPercentile(90)),
+                            formatNanos(histogram.getPercentile(99)),
+                            formatNanos(histogram.getMax()), histogram.getCount()));
+                }
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes every non-empty histogram bucket to a file, one per line, with the kind of event,
+     * the stage, the bucket bounds in nanoseconds and the count.
+     */
+    public void writeHistograms(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            synchronized (mLock) {
+                out.println("# vdmdemo latency, clock offset " + mClockOffsetNs + "ns, round trip "
+                        + (isClockSyncedLocked() ? mClockSyncRoundTripNs + "ns" : "unknown"));
+                out.println("# event stage bucket_low_ns bucket_high_ns count");
+                for (int category = 0; category < CATEGORY_NAMES.length; ++category) {
+                    for (int stage = 0; stage < STAGE_NAMES.length; ++stage) {
+                        mHistograms[category][stage].writeBuckets(
+                                out, CATEGORY_NAMES[category] + " " + STAGE_NAMES[stage]);
+                    }
+                }
+            }
+            if (out.checkError()) {
+                throw new IOException("Error writing " + file);
+            }
+        }
+    }
+
+    /** Called when a new connection is set up. */
+    void onConnected() {
+        synchronized (mLock) {
+            // Nothing sent over an earlier connection can arrive any more, and the remote device
+            // may have restarted its count.
+            mGeneration = 0;
+        }
+        if (mEnabledByRemote) {
+            // Wait for the remote device to ask again.
+            mEnabled = false;
+            mEnabledByRemote = false;
+        } else if (mEnabled) {
+            start();
+        }
+    }
+
+    /** Returns whether the event should carry timestamps. */
+    boolean shouldStamp(RemoteEvent event) {
+        return mEnabled && getCategory(event) >= 0;
+    }
+
+    /** Adds the timestamps to an event queued at the given time, as it's written to the socket. */
+    static RemoteEvent stamp(RemoteEvent event, long sendEnqueueNs) {
+        return event.toBuilder()
+                .setTimestamps(EventTimestamps.newBuilder()
+                        .setSendEnqueueNs(sendEnqueueNs)
+                        .setSocketWriteNs(System.nanoTime()))
+                .build();
+    }
+
+    /** Called on the receiving thread for every event, as soon as it has been parsed. */
+    void onEventReceived(RemoteEvent event, long receiveNs) {
+        switch (event.getEventCase()) {
+            case CLOCK_SYNC_REQUEST -> onClockSyncRequest(event.getClockSyncRequest(), receiveNs);
+            case CLOCK_SYNC_RESPONSE -> onClockSyncResponse(
+                    event.getClockSyncResponse(), receiveNs);
+            default -> {}
+        }
+    }
+
+    /** Records the latency of an event that has just been handed to a consumer. */
+    void onEventDelivered(RemoteEvent event, long receiveNs, long deliveryNs) {
+        int category = getCategory(event);
+        if (category < 0 || !event.hasTimestamps()) {
+            return;
+        }
+        EventTimestamps timestamps = event.getTimestamps();
+        synchronized (mLock) {
+            LatencyHistogram[] stages = mHistograms[category];
+            stages[STAGE_QUEUE].record(
+                    timestamps.getSocketWriteNs() - timestamps.getSendEnqueueNs());
+            stages[STAGE_DISPATCH].record(deliveryNs - receiveNs);
+            if (isClockSyncedLocked()) {
+                stages[STAGE_NETWORK].record(
+                        receiveNs - (timestamps.getSocketWriteNs() - mClockOffsetNs));
+                stages[STAGE_TOTAL].record(
+                        deliveryNs - (timestamps.getSendEnqueueNs() - mClockOffsetNs));
+            }
+        }
+    }
+
+    private void start() {
+        synchronized (mLock) {
+            for (LatencyHistogram[] stages : mHistograms) {
+                for (LatencyHistogram histogram : stages) {
+                    histogram.clear();
+                }
+            }
+            mClockOffsetNs = 0;
+            mClockSyncRoundTripNs = Long.MAX_VALUE;
+        }
+        mEnabled = true;
+        mHandler.removeCallbacksAndMessages(null);
+        for (int i = 0; i < CLOCK_SYNC_ROUNDS; ++i) {
+            mHandler.postDelayed(() -> sendClockSyncRequest(true), i * CLOCK_SYNC_INTERVAL_MS);
+        }
+        mHandler.postDelayed(mResyncRunnable, CLOCK_RESYNC_INTERVAL_MS);
+    }
+
+    private void resync() {
+        if (mEnabled) {
+            sendClockSyncRequest(true);
+            mHandler.postDelayed(mResyncRunnable, CLOCK_RESYNC_INTERVAL_MS);
+        }
+    }
+
+    private void nextGeneration() {
+        synchronized (mLock) {
+            ++mGeneration;
+        }
+    }
+
+    private void sendClockSyncRequest(boolean measureLatency) {
+        long generation;
+        synchronized (mLock) {
+            generation = mGeneration;
+        }
+        mRemoteIo.sendTimedMessage(writeNs -> RemoteEvent.newBuilder()
+                .setClockSyncRequest(ClockSyncRequest.newBuilder()
+                        .setOriginNs(writeNs)
+                        .setMeasureLatency(measureLatency)
+                        .setGeneration(generation))
+                .build());
+    }
+
+    private void onClockSyncRequest(ClockSyncRequest request, long receiveNs) {
+        mRemoteIo.sendTimedMessage(writeNs -> RemoteEvent.newBuilder()
+                .setClockSyncResponse(ClockSyncResponse.newBuilder()
+                        .setOriginNs(request.getOriginNs())
+                        .setReceiveNs(receiveNs)
+                        .setTransmitNs(writeNs))
+                .build());
+        synchronized (mLock) {
+            if (request.getGeneration() < mGeneration) {
+                // Sent before the latest change, so only good for the clock offset.
+                return;
+            }
+            mGeneration = request.getGeneration();
+        }
+        if (request.getMeasureLatency() && !mEnabled) {
+            // Measure this direction too, which needs our own clock offset estimate.
+            // Set before start() runs, so that only the first request starts it.
+            mEnabledByRemote = true;
+            mEnabled = true;
+            mHandler.post(this::start);
+        } else if (!request.getMeasureLatency()) {
+            mEnabled = false;
+            mEnabledByRemote = false;
+            mHandler.removeCallbacksAndMessages(null);
+        }
+    }
+
+    private void onClockSyncResponse(ClockSyncResponse response, long receiveNs) {
+        long requestWriteNs = response.getOriginNs();
+        long roundTripNs = (receiveNs - requestWriteNs)
+                - (response.getTransmitNs() - response.getReceiveNs());
+        long offsetNs = ((response.getReceiveNs() - requestWriteNs)
+                + (response.getTransmitNs() - receiveNs)) / 2;
+        synchronized (mLock) {
+            if (roundTripNs < mClockSyncRoundTripNs) {
+                mClockSyncRoundTripNs = roundTripNs;
+                mClockOffsetNs = offsetNs;
+                Log.d(TAG, "Clock offset " + offsetNs + "ns, round trip " + roundTripNs + "ns");
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private boolean isClockSyncedLocked() {
+        return mClockSyncRoundTripNs != Long.MAX_VALUE;
+    }
+
+    private static int getCategory(RemoteEvent event) {
+        return switch (event.getEventCase()) {
+            case INPUT_EVENT -> CATEGORY_INPUT;
+            case DISPLAY_FRAME, CAMERA_FRAME -> CATEGORY_VIDEO;
+            case AUDIO_FRAME -> CATEGORY_AUDIO;
+            case SENSOR_EVENT -> CATEGORY_SENSOR;
+            default -> -1;
+        };
+    }
+
+    private static String formatNanos(long nanos) {
+        return String.format(Locale.US, "%.1fms", nanos / 1e6);
+    }
+}
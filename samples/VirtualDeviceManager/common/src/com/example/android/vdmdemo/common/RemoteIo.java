@@ -16,22 +16,28 @@
 
 package com.example.android.vdmdemo.common;
 
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.util.ArrayMap;
 import android.util.Log;
 
 import androidx.annotation.GuardedBy;
 
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent;
+import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent.EventCase;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executor;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
+import java.util.function.LongFunction;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -41,6 +47,9 @@ import javax.inject.Singleton;
 public class RemoteIo {
     public static final String TAG = "VdmRemoteIo";
 
+    private static final MessageConsumer[] NO_CONSUMERS = new MessageConsumer[0];
+    private static final int EVENT_CASE_COUNT = getEventCaseCount();
+
     interface StreamClosedCallback {
         void onStreamClosed();
     }
@@ -48,19 +57,25 @@ public class RemoteIo {
     private final Object mLock = new Object();
 
     @GuardedBy("mLock")
-    private OutputStream mOutputStream = null;
-
-    private StreamClosedCallback mOutputStreamClosedCallback = null;
-    private final Handler mSendMessageHandler;
+    private SendScheduler mSendScheduler = null;
 
     @GuardedBy("mMessageConsumers")
     private final Map<Object, MessageConsumer> mMessageConsumers = new ArrayMap<>();
 
+    // The consumers interested in each event case, indexed by its number. Rebuilt from
+    // mMessageConsumers on every change, so the receiving thread can read it without locking.
+    private volatile MessageConsumer[][] mConsumersByEventCase = buildConsumerTable(List.of());
+
+    private final LatencyTracker mLatencyTracker;
+
     @Inject
     RemoteIo() {
-        final HandlerThread sendMessageThread = new HandlerThread("SendMessageThread");
-        sendMessageThread.start();
-        mSendMessageHandler = new Handler(sendMessageThread.getLooper());
+        mLatencyTracker = new LatencyTracker(this);
+    }
+
+    /** Returns the latency measurements of events received from the remote device. */
+    public LatencyTracker getLatencyTracker() {
+        return mLatencyTracker;
     }
 
     @SuppressWarnings("ThreadPriorityCheck")
@@ -72,47 +87,184 @@ public class RemoteIo {
 
     void initialize(
             OutputStream outputStream, StreamClosedCallback outputStreamClosedCallback) {
+        SendScheduler previous;
         synchronized (mLock) {
-            mOutputStream = outputStream;
-            mOutputStreamClosedCallback = outputStreamClosedCallback;
+            previous = mSendScheduler;
+            mSendScheduler = new SendScheduler(outputStream, (scheduler, e) -> {
+                synchronized (mLock) {
+                    if (mSendScheduler == scheduler) {
+                        mSendScheduler = null;
+                    }
+                }
+                outputStreamClosedCallback.onStreamClosed();
+            });
         }
+        // Closing runs the sent callbacks of the dropped messages, which must not run under
+        // mLock as they may send messages themselves.
+        if (previous != null) {
+            previous.close();
+        }
+        mLatencyTracker.onConnected();
+    }
+
+    /**
+     * Registers a consumer for processing events coming from the remote device.
+     *
+     * <p>The consumer runs on its own thread, and only gets the given kinds of events, or all of
+     * them if none are given.
+     */
+    public void addMessageConsumer(Consumer<RemoteEvent> consumer, EventCase... eventCases) {
+        registerMessageConsumer(new MessageConsumer(consumer, true, eventCases));
+    }
+
+    /**
+     * Registers a consumer that runs directly on the receiving thread, for latency sensitive
+     * events such as input.
+     *
+     * <p>The consumer must not block, as no other event is received until it returns.
+     */
+    public void addDirectMessageConsumer(Consumer<RemoteEvent> consumer, EventCase... eventCases) {
+        registerMessageConsumer(new MessageConsumer(consumer, false, eventCases));
     }
 
-    /** Registers a consumer for processing events coming from the remote device. */
-    public void addMessageConsumer(Consumer<RemoteEvent> consumer) {
+    private void registerMessageConsumer(MessageConsumer messageConsumer) {
         synchronized (mMessageConsumers) {
-            mMessageConsumers.put(consumer, new MessageConsumer(consumer));
+            MessageConsumer previous =
+                    mMessageConsumers.put(messageConsumer.mConsumer, messageConsumer);
+            if (previous != null) {
+                previous.shutdown();
+            }
+            mConsumersByEventCase = buildConsumerTable(mMessageConsumers.values());
         }
     }
 
     /** Unregisters a previously registered message consumer. */
     public void removeMessageConsumer(Consumer<RemoteEvent> consumer) {
         synchronized (mMessageConsumers) {
-            if (mMessageConsumers.remove(consumer) == null) {
+            MessageConsumer messageConsumer = mMessageConsumers.remove(consumer);
+            if (messageConsumer == null) {
                 Log.w(TAG, "Failed to remove message consumer.");
+                return;
             }
+            messageConsumer.shutdown();
+            mConsumersByEventCase = buildConsumerTable(mMessageConsumers.values());
         }
     }
 
-    /** Sends an event to the remote device. */
+    private static MessageConsumer[][] buildConsumerTable(Iterable<MessageConsumer> consumers) {
+        MessageConsumer[][] table = new MessageConsumer[EVENT_CASE_COUNT][];
+        for (EventCase eventCase : EventCase.values()) {
+            List<MessageConsumer> interested = new ArrayList<>();
+            for (MessageConsumer consumer : consumers) {
+                if (consumer.mEventCases.contains(eventCase)) {
+                    interested.add(consumer);
+                }
+            }
+            table[eventCase.getNumber()] = interested.toArray(NO_CONSUMERS);
+        }
+        return table;
+    }
+
+    private static int getEventCaseCount() {
+        int max = 0;
+        for (EventCase eventCase : EventCase.values()) {
+            max = Math.max(max, eventCase.getNumber());
+        }
+        return max + 1;
+    }
+
+    /**
+     * Sends an event to the remote device.
+     *
+     * <p>Input and control events are sent ahead of any queued sensor events, audio frames and
+     * video frames, in that order.
+     */
     public void sendMessage(RemoteEvent event) {
+        SendScheduler scheduler = getSendScheduler();
+        if (scheduler != null) {
+            scheduler.enqueue(getLane(event), createMessage(event, null));
+        }
+    }
+
+    /**
+     * Sends an event to the remote device, and runs the callback once the event has been handed
+     * to the connection, or dropped because the connection was closed.
+     *
+     * <p>The callback runs on the sending thread and must not block.
+     */
+    public void sendMessage(RemoteEvent event, Runnable sentCallback) {
+        SendScheduler scheduler = getSendScheduler();
+        if (scheduler == null) {
+            sentCallback.run();
+            return;
+        }
+        if (!scheduler.enqueue(getLane(event), createMessage(event, sentCallback))) {
+            sentCallback.run();
+        }
+    }
+
+    /**
+     * Sends an event created just before it's written to the connection, given the time of the
+     * write. Dropped silently if there's no connection yet.
+     */
+    void sendTimedMessage(LongFunction<RemoteEvent> eventFactory) {
+        SendScheduler scheduler;
         synchronized (mLock) {
-            if (mOutputStream == null) {
-                Log.e(TAG, "Failed to send event, RemoteIO not initialized.");
-                return;
-            }
+            scheduler = mSendScheduler;
         }
-        mSendMessageHandler.post(() -> {
-            synchronized (mLock) {
+        if (scheduler != null) {
+            scheduler.enqueue(SendScheduler.LANE_CONTROL,
+                    out -> eventFactory.apply(System.nanoTime()).writeDelimitedTo(out));
+        }
+    }
+
+    private SendScheduler.Message createMessage(RemoteEvent event, Runnable sentCallback) {
+        long sendEnqueueNs = mLatencyTracker.shouldStamp(event) ? System.nanoTime() : 0;
+        return new SendScheduler.Message() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
                 try {
-                    event.writeDelimitedTo(mOutputStream);
-                    mOutputStream.flush();
-                } catch (IOException e) {
-                    mOutputStream = null;
-                    mOutputStreamClosedCallback.onStreamClosed();
+                    RemoteEvent stamped = sendEnqueueNs != 0
+                            ? LatencyTracker.stamp(event, sendEnqueueNs)
+                            : event;
+                    stamped.writeDelimitedTo(out);
+                } finally {
+                    if (sentCallback != null) {
+                        sentCallback.run();
+                    }
                 }
             }
-        });
+
+            @Override
+            public void onDropped() {
+                if (sentCallback != null) {
+                    sentCallback.run();
+                }
+            }
+        };
+    }
+
+    private SendScheduler getSendScheduler() {
+        synchronized (mLock) {
+            if (mSendScheduler == null) {
+                Log.e(TAG, "Failed to send event, RemoteIO not initialized.");
+            }
+            return mSendScheduler;
+        }
+    }
+
+    private static int getLane(RemoteEvent event) {
+        switch (event.getEventCase()) {
+            case SENSOR_EVENT:
+                return SendScheduler.LANE_SENSOR;
+            case AUDIO_FRAME:
+                return SendScheduler.LANE_AUDIO;
+            case DISPLAY_FRAME:
+            case CAMERA_FRAME:
+                return SendScheduler.LANE_BULK;
+            default:
+                return SendScheduler.LANE_CONTROL;
+        }
     }
 
     private class ReceiverRunnable implements Runnable {
@@ -133,8 +285,12 @@ public class RemoteIo {
                     if (event == null) {
                         break;
                     }
-                    synchronized (mMessageConsumers) {
-                        mMessageConsumers.values().forEach(consumer -> consumer.accept(event));
+                    long receiveNs = System.nanoTime();
+                    mLatencyTracker.onEventReceived(event, receiveNs);
+                    MessageConsumer[] consumers =
+                            mConsumersByEventCase[event.getEventCase().getNumber()];
+                    for (MessageConsumer consumer : consumers) {
+                        consumer.accept(event, receiveNs);
                     }
                 }
             } catch (IOException e) {
@@ -144,17 +300,49 @@ public class RemoteIo {
         }
     }
 
-    private static class MessageConsumer {
-        private final Executor mExecutor;
+    private class MessageConsumer {
+        // Null for consumers that run on the receiving thread.
+        private final ExecutorService mExecutor;
         private final Consumer<RemoteEvent> mConsumer;
+        private final Set<EventCase> mEventCases;
 
-        MessageConsumer(Consumer<RemoteEvent> consumer) {
-            mExecutor = Executors.newSingleThreadExecutor();
+        MessageConsumer(Consumer<RemoteEvent> consumer, boolean useExecutor,
+                EventCase[] eventCases) {
+            mExecutor = useExecutor ? Executors.newSingleThreadExecutor() : null;
             mConsumer = consumer;
+            mEventCases = eventCases.length == 0
+                    ? EnumSet.allOf(EventCase.class)
+                    : EnumSet.copyOf(Arrays.asList(eventCases));
         }
 
-        public void accept(RemoteEvent event) {
-            mExecutor.execute(() -> mConsumer.accept(event));
+        public void accept(RemoteEvent event, long receiveNs) {
+            if (mExecutor != null) {
+                try {
+                    mExecutor.execute(() -> deliver(event, receiveNs));
+                } catch (RejectedExecutionException e) {
+                    // Removed while the event was being dispatched.
+                }
+                return;
+            }
+            try {
+                deliver(event, receiveNs);
+            } catch (RuntimeException e) {
+                // Don't let one consumer stop the receiving thread.
+                Log.e(TAG, "Failed to process event " + event.getEventCase(), e);
+            }
+        }
+
+        private void deliver(RemoteEvent event, long receiveNs) {
+            if (event.hasTimestamps()) {
+                mLatencyTracker.onEventDelivered(event, receiveNs, System.nanoTime());
+            }
+            mConsumer.accept(event);
+        }
+
+        void shutdown() {
+            if (mExecutor != null) {
+                mExecutor.shutdown();
+            }
         }
     }
 }
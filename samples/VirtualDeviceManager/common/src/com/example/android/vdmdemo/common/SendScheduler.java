@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.vdmdemo.common;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes messages to a stream from a dedicated thread, in priority order.
+ *
+ * <p>Every message is queued in one of a few lanes. The writer always takes the next message from
+ * the most urgent non-empty lane, so a small input event never waits behind queued video frames;
+ * only a frame that is already being written delays it. Messages that queue up while the writer is
+ * busy are written into one buffer and flushed together, except that control messages are flushed
+ * right away and a frame never starts while more urgent messages are still in the buffer.
+ *
+ * <p>Order is kept within a lane, but not between lanes.
+ */
+final class SendScheduler {
+
+    /** Control messages and input events. */
+    static final int LANE_CONTROL = 0;
+    /** Sensor events. */
+    static final int LANE_SENSOR = 1;
+    /** Audio frames. */
+    static final int LANE_AUDIO = 2;
+    /** Video and camera frames. */
+    static final int LANE_BULK = 3;
+
+    static final int LANE_COUNT = 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** A message that knows how to write itself, such as a delimited proto. */
+    interface Message {
+        void writeTo(OutputStream out) throws IOException;
+
+        /** Called instead of {@link #writeTo} if the scheduler is closed before it's written. */
+        default void onDropped() {}
+    }
+
+    /** Called on the writer thread when writing fails. The scheduler is closed by then. */
+    interface ErrorCallback {
+        void onError(SendScheduler scheduler, IOException e);
+    }
+
+    private final Object mLock = new Object();
+
+    // Guarded by mLock
+    private final List<ArrayDeque<Message>> mLanes = new ArrayList<>(LANE_COUNT);
+    private boolean mClosed = false;
+
+    // Only used on the writer thread
+    private boolean mUrgentBuffered = false;
+
+    private final OutputStream mOutputStream;
+    private final ErrorCallback mErrorCallback;
+    private final Thread mThread;
+
+    private volatile long mMessagesWritten = 0;
+    private volatile long mFlushes = 0;
+
+    SendScheduler(OutputStream outputStream, ErrorCallback errorCallback) {
+        for (int i = 0; i < LANE_COUNT; ++i) {
+            mLanes.add(new ArrayDeque<>());
+        }
+        mOutputStream = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+        mErrorCallback = errorCallback;
+        mThread = new Thread(this::writeLoop, "SendScheduler");
+        mThread.setPriority(Thread.MAX_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * Queues a message in the given lane.
+     *
+     * @return {@code false} if the scheduler has been closed and the message was dropped.
+     */
+    boolean enqueue(int lane, Message message) {
+        synchronized (mLock) {
+            if (mClosed) {
+                return false;
+            }
+            mLanes.get(lane).addLast(message);
+            mLock.notify();
+            return true;
+        }
+    }
+
+    /** Returns the number of messages waiting in the given lane. */
+    int getQueuedCount(int lane) {
+        synchronized (mLock) {
+            return mLanes.get(lane).size();
+        }
+    }
+
+    /** Returns the number of messages written so far. */
+    long getMessagesWritten() {
+        return mMessagesWritten;
+    }
+
+    /** Returns the number of times the stream has been flushed. */
+    long getFlushCount() {
+        return mFlushes;
+    }
+
+    /** Stops the writer thread. Queued messages that haven't been written are dropped. */
+    void close() {
+        ArrayDeque<Message> dropped = new ArrayDeque<>();
+        synchronized (mLock) {
+            mClosed = true;
+            for (ArrayDeque<Message> lane : mLanes) {
+                dropped.addAll(lane);
+                lane.clear();
+            }
+            mLock.notify();
+        }
+        for (Message message : dropped) {
+            message.onDropped();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                int lane;
+                Message message;
+                int nextLane;
+                synchronized (mLock) {
+                    lane = nextLane();
+                    while (lane < 0 && !mClosed) {
+                        mLock.wait();
+                        lane = nextLane();
+                    }
+                    if (lane < 0) {
+                        return;
+                    }
+                    message = mLanes.get(lane).pollFirst();
+                    nextLane = nextLane();
+                }
+                if (lane == LANE_BULK && mUrgentBuffered) {
+                    // Send the smaller messages before starting on a frame.
+                    flush();
+                }
+                message.writeTo(mOutputStream);
+                ++mMessagesWritten;
+                if (lane != LANE_BULK) {
+                    mUrgentBuffered = true;
+                }
+                if (nextLane < 0) {
+                    // Check again before flushing, a message may have arrived during the write.
+                    synchronized (mLock) {
+                        nextLane = nextLane();
+                    }
+                }
+                // Input goes out right away, together with any input queued behind it.
+                if (nextLane < 0 || (lane == LANE_CONTROL && nextLane != LANE_CONTROL)) {
+                    flush();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (mLock) {
+                if (mClosed) {
+                    return;
+                }
+            }
+            close();
+            mErrorCallback.onError(this, e);
+        } catch (InterruptedException e) {
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        mOutputStream.flush();
+        ++mFlushes;
+        mUrgentBuffered = false;
+    }
+
+    // Must hold mLock. Returns the most urgent non-empty lane, or -1 if all are empty.
+    private int nextLane() {
+        for (int lane = 0; lane < LANE_COUNT; ++lane) {
+            if (!mLanes.get(lane).isEmpty()) {
+                return lane;
+            }
+        }
+        return -1;
+    }
+}
@@ -16,13 +16,12 @@
 
 package com.example.android.vdmdemo.common;
 
-import static com.google.common.util.concurrent.Uninterruptibles.putUninterruptibly;
-
 import android.media.MediaCodec;
 import android.media.MediaCodec.BufferInfo;
 import android.media.MediaCodec.CodecException;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -34,7 +33,9 @@ import androidx.annotation.NonNull;
 
 import com.example.android.vdmdemo.common.RemoteEventProto.EncodedFrame;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent;
+import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent.EventCase;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -43,38 +44,71 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
-/** Shared class between the client and the host, managing the video encoding and decoding. */
+/**
+ * Shared class between the client and the host, managing the video encoding and decoding.
+ *
+ * <p>Neither side lets a slow link or a slow decoder build up latency. The encoder stops sending
+ * once too many bytes of its frames are waiting to be sent, drops frames until the next key frame
+ * and asks the codec for one as soon as the backlog has cleared. The decoder keeps a short queue,
+ * and when it overflows skips everything queued and waits for the next key frame.
+ *
+ * <p>Encoded frames are copied once out of the encoder, and once from the received event into the
+ * decoder. The same bytes are shared by the event and by the recording, which is written on its
+ * own thread.
+ */
 public class VideoManager {
     private static final String TAG = "VideoManager";
     private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
 
+    // About a second of video at the encoder bit rate.
+    private static final int MAX_BYTES_IN_FLIGHT = 64 * 1024;
+    // About half a second of video at 60fps.
+    private static final int MAX_QUEUED_FRAMES = 30;
+
     @GuardedBy("mCodecLock")
     private MediaCodec mMediaCodec;
 
     private final Object mCodecLock = new Object();
     private final HandlerThread mCallbackThread;
+    private final Handler mCallbackHandler;
     private final boolean mRecordEncoderOutput;
-    private final BlockingQueue<EncodedFrame> mEventQueue = new LinkedBlockingQueue<>(100);
+    private final BlockingQueue<EncodedFrame> mEventQueue =
+            new LinkedBlockingQueue<>(MAX_QUEUED_FRAMES);
     private final BlockingQueue<Integer> mFreeInputBuffers = new LinkedBlockingQueue<>(100);
     private final RemoteIo mRemoteIo;
     private final Consumer<RemoteEvent> mRemoteFrameConsumer = this::processFrameProto;
     private StorageFile mStorageFile;
     private DecoderThread mDecoderThread;
 
+    // Encoded frames that have been sent to RemoteIo but not yet written to the connection.
+    private final AtomicLong mBytesInFlight = new AtomicLong();
+    // Whether frames are being dropped until the next key frame.
+    private volatile boolean mDroppingFrames = false;
+    private final AtomicBoolean mSyncFrameRequested = new AtomicBoolean(false);
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mSyncFrameRequests = new AtomicLong();
+
     private VideoManagerProtoHelper mProtoHelper;
 
     private interface VideoManagerProtoHelper {
 
+        EventCase getEventCase();
+
         Optional<EncodedFrame> extractEncodedFrame(RemoteEvent event);
 
-        RemoteEvent createFrameProto(byte[] data, int flags, long presentationTimeUs);
+        RemoteEvent createFrameProto(ByteString data, int flags, long presentationTimeUs);
 
         String getVideoManagerId();
     }
@@ -89,10 +123,12 @@ public class VideoManager {
 
         mCallbackThread = new HandlerThread("VideoManager-" + protoHelper.getVideoManagerId());
         mCallbackThread.start();
-        mediaCodec.setCallback(new MediaCodecCallback(), new Handler(mCallbackThread.getLooper()));
+        mCallbackHandler = new Handler(mCallbackThread.getLooper());
+        mediaCodec.setCallback(new MediaCodecCallback(), mCallbackHandler);
 
         if (!mediaCodec.getCodecInfo().isEncoder()) {
-            remoteIo.addMessageConsumer(mRemoteFrameConsumer);
+            // Queueing a frame never blocks, so there's no need for another thread.
+            remoteIo.addDirectMessageConsumer(mRemoteFrameConsumer, protoHelper.getEventCase());
         }
 
         if (recordEncoderOutput) {
@@ -172,6 +208,10 @@ public class VideoManager {
         if (mRecordEncoderOutput) {
             mStorageFile.closeOutputFile();
         }
+        if (mDroppedFrames.get() > 0) {
+            Log.i(TAG, mProtoHelper.getVideoManagerId() + " dropped " + mDroppedFrames.get()
+                    + " frames, requested " + mSyncFrameRequests.get() + " sync frames");
+        }
     }
 
     /** Creates a surface for encoding. */
@@ -211,8 +251,119 @@ public class VideoManager {
     }
 
     private void processFrameProto(RemoteEvent event) {
-        mProtoHelper.extractEncodedFrame(event).ifPresent(
-                encodedFrame -> putUninterruptibly(mEventQueue, encodedFrame));
+        mProtoHelper.extractEncodedFrame(event).ifPresent(this::queueEncodedFrame);
+    }
+
+    private void queueEncodedFrame(EncodedFrame encodedFrame) {
+        boolean keyFrame = isKeyFrame(encodedFrame.getFlags());
+        if (mDroppingFrames && !isCodecConfig(encodedFrame.getFlags())) {
+            if (!keyFrame) {
+                mDroppedFrames.incrementAndGet();
+                return;
+            }
+            mDroppingFrames = false;
+            Log.i(TAG, mProtoHelper.getVideoManagerId() + " resumed decoding at a key frame");
+        }
+        if (mEventQueue.offer(encodedFrame)) {
+            return;
+        }
+        // The decoder has fallen behind, so everything queued is stale. Keep the codec config,
+        // and start again from the next key frame.
+        List<EncodedFrame> queued = new ArrayList<>();
+        mEventQueue.drainTo(queued);
+        for (EncodedFrame frame : queued) {
+            if (isCodecConfig(frame.getFlags())) {
+                mEventQueue.offer(frame);
+            } else {
+                mDroppedFrames.incrementAndGet();
+            }
+        }
+        if (keyFrame || isCodecConfig(encodedFrame.getFlags())) {
+            mEventQueue.offer(encodedFrame);
+        } else {
+            mDroppedFrames.incrementAndGet();
+            mDroppingFrames = true;
+        }
+        Log.w(TAG, mProtoHelper.getVideoManagerId() + " decoder fell behind, skipped "
+                + queued.size() + " queued frames");
+    }
+
+    /**
+     * Decides whether to drop a frame coming out of the encoder instead of sending it.
+     *
+     * <p>Once the link has fallen behind, every frame is dropped until a key frame comes out and
+     * the backlog has cleared, since the frames in between can't be decoded without the ones
+     * already dropped.
+     */
+    @GuardedBy("mCodecLock")
+    private boolean shouldDropEncodedFrame(int flags) {
+        if (isCodecConfig(flags)) {
+            return false;
+        }
+        boolean backlogged = mBytesInFlight.get() >= MAX_BYTES_IN_FLIGHT;
+        if (mDroppingFrames) {
+            if (!backlogged) {
+                if (isKeyFrame(flags)) {
+                    mDroppingFrames = false;
+                    Log.i(TAG,
+                            mProtoHelper.getVideoManagerId() + " resumed sending at a key frame");
+                    return false;
+                }
+                maybeRequestSyncFrame();
+            }
+        } else if (backlogged) {
+            mSyncFrameRequested.set(false);
+            mDroppingFrames = true;
+            Log.w(TAG, mProtoHelper.getVideoManagerId() + " link fell behind with "
+                    + mBytesInFlight.get() + " bytes in flight, dropping frames");
+        } else {
+            return false;
+        }
+        mDroppedFrames.incrementAndGet();
+        return true;
+    }
+
+    /** Called on the sending thread once a frame has been written to the connection. */
+    private void onEncodedFrameSent(int size) {
+        if (mBytesInFlight.addAndGet(-size) < MAX_BYTES_IN_FLIGHT && mDroppingFrames) {
+            maybeRequestSyncFrame();
+        }
+    }
+
+    /**
+     * Asks the encoder for a key frame, once per run of dropped frames.
+     *
+     * <p>The request is made on the codec callback thread, so that the sending thread never waits
+     * for the codec lock, which is held while frames are handed to RemoteIo.
+     */
+    private void maybeRequestSyncFrame() {
+        if (mSyncFrameRequested.compareAndSet(false, true)) {
+            mCallbackHandler.post(this::requestSyncFrame);
+        }
+    }
+
+    private void requestSyncFrame() {
+        synchronized (mCodecLock) {
+            if (mMediaCodec == null) {
+                return;
+            }
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            try {
+                mMediaCodec.setParameters(params);
+                mSyncFrameRequests.incrementAndGet();
+            } catch (IllegalStateException exception) {
+                Log.w(TAG, "Failed to request sync frame", exception);
+            }
+        }
+    }
+
+    private static boolean isKeyFrame(int flags) {
+        return (flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+    }
+
+    private static boolean isCodecConfig(int flags) {
+        return (flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
     }
 
     private final class MediaCodecCallback extends MediaCodec.Callback {
@@ -229,17 +380,26 @@ public class VideoManager {
                     return;
                 }
                 if (mMediaCodec.getCodecInfo().isEncoder()) {
+                    // The codec buffer can't be held until the frame is sent, as the encoder
+                    // would run out of them on a slow link.
                     ByteBuffer buffer = mMediaCodec.getOutputBuffer(i);
-                    byte[] data = new byte[bufferInfo.size];
-                    Objects.requireNonNull(buffer).get(data, bufferInfo.offset, bufferInfo.size);
+                    byte[] bytes = new byte[bufferInfo.size];
+                    Objects.requireNonNull(buffer).get(bytes, bufferInfo.offset, bufferInfo.size);
                     mMediaCodec.releaseOutputBuffer(i, false);
+                    // Nothing writes to the array from now on, so it can back the event as is.
+                    ByteString data = UnsafeByteOperations.unsafeWrap(bytes);
                     if (mRecordEncoderOutput) {
                         mStorageFile.writeOutputFile(data);
                     }
+                    if (shouldDropEncodedFrame(bufferInfo.flags)) {
+                        return;
+                    }
 
+                    mBytesInFlight.addAndGet(bytes.length);
                     mRemoteIo.sendMessage(
                             mProtoHelper.createFrameProto(
-                                    data, bufferInfo.flags, bufferInfo.presentationTimeUs));
+                                    data, bufferInfo.flags, bufferInfo.presentationTimeUs),
+                            () -> onEncodedFrameSent(bytes.length));
                 } else {
                     try {
                         mMediaCodec.releaseOutputBuffer(i, true);
@@ -283,15 +443,15 @@ public class VideoManager {
                         }
                         try {
                             ByteBuffer inBuffer = mMediaCodec.getInputBuffer(inputBuffer);
-                            byte[] data = encodedFrame.getFrameData().toByteArray();
-                            Objects.requireNonNull(inBuffer).put(data);
+                            ByteString data = encodedFrame.getFrameData();
+                            data.copyTo(Objects.requireNonNull(inBuffer));
                             if (mRecordEncoderOutput) {
                                 mStorageFile.writeOutputFile(data);
                             }
                             mMediaCodec.queueInputBuffer(
                                     inputBuffer,
                                     0,
-                                    encodedFrame.getFrameData().size(),
+                                    data.size(),
                                     encodedFrame.getPresentationTimeUs(),
                                     encodedFrame.getFlags());
                         } catch (MediaCodec.CodecException exception) {
@@ -309,10 +469,13 @@ public class VideoManager {
         }
     }
 
+    /** Records the encoded frames to a file, on a background thread. */
     private static class StorageFile {
         private static final String DIR = "Download";
         private static final String FILENAME = "vdmdemo_encoder_output";
 
+        private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+        // Only set in the constructor, and only written to on mExecutor.
         private OutputStream mOutputStream;
 
         private StorageFile(String id) {
@@ -325,27 +488,33 @@ public class VideoManager {
             }
         }
 
-        private void writeOutputFile(byte[] data) {
+        private void writeOutputFile(ByteString data) {
             if (mOutputStream == null) {
                 return;
             }
-            try {
-                mOutputStream.write(data);
-            } catch (IOException e) {
-                Log.e(TAG, "Error writing to output file", e);
-            }
+            mExecutor.execute(() -> {
+                try {
+                    data.writeTo(mOutputStream);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error writing to output file", e);
+                }
+            });
         }
 
         private void closeOutputFile() {
             if (mOutputStream == null) {
+                mExecutor.shutdown();
                 return;
             }
-            try {
-                mOutputStream.flush();
-                mOutputStream.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing output file", e);
-            }
+            mExecutor.execute(() -> {
+                try {
+                    mOutputStream.flush();
+                    mOutputStream.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing output file", e);
+                }
+            });
+            mExecutor.shutdown();
         }
     }
 
@@ -357,6 +526,11 @@ public class VideoManager {
             mDisplayId = displayId;
         }
 
+        @Override
+        public EventCase getEventCase() {
+            return EventCase.DISPLAY_FRAME;
+        }
+
         @Override
         public Optional<EncodedFrame> extractEncodedFrame(RemoteEvent event) {
             if (event.hasDisplayFrame() && event.getDisplayId() == mDisplayId) {
@@ -366,12 +540,12 @@ public class VideoManager {
         }
 
         @Override
-        public RemoteEvent createFrameProto(byte[] data, int flags, long presentationTimeUs) {
+        public RemoteEvent createFrameProto(ByteString data, int flags, long presentationTimeUs) {
             return RemoteEvent.newBuilder()
                     .setDisplayId(mDisplayId)
                     .setDisplayFrame(
                             EncodedFrame.newBuilder()
-                                    .setFrameData(ByteString.copyFrom(data))
+                                    .setFrameData(data)
                                     .setFrameIndex(mFrameIndex++)
                                     .setPresentationTimeUs(presentationTimeUs)
                                     .setFlags(flags))
@@ -392,6 +566,11 @@ public class VideoManager {
             mCameraId = cameraId;
         }
 
+        @Override
+        public EventCase getEventCase() {
+            return EventCase.CAMERA_FRAME;
+        }
+
         @Override
         public Optional<EncodedFrame> extractEncodedFrame(RemoteEvent event) {
             if (event.hasCameraFrame() && event.getCameraFrame().getCameraId().equals(mCameraId)) {
@@ -403,15 +582,15 @@ public class VideoManager {
         }
 
         @Override
-        public RemoteEvent createFrameProto(byte[] data, int flags, long presentationTimeUs) {
-            Log.d(TAG, "Sending " + data.length + "B encoded camera frame");
+        public RemoteEvent createFrameProto(ByteString data, int flags, long presentationTimeUs) {
+            Log.d(TAG, "Sending " + data.size() + "B encoded camera frame");
             return RemoteEvent.newBuilder()
                     .setCameraFrame(
                             RemoteEventProto.CameraFrame.newBuilder()
                                     .setCameraId(mCameraId)
                                     .setCameraFrame(
                                             EncodedFrame.newBuilder()
-                                                    .setFrameData(ByteString.copyFrom(data))
+                                                    .setFrameData(data)
                                                     .setFrameIndex(mFrameIndex++)
                                                     .setPresentationTimeUs(presentationTimeUs)
                                                     .setFlags(flags))
@@ -33,6 +33,7 @@ import androidx.annotation.GuardedBy;
 import com.example.android.vdmdemo.common.RemoteEventProto;
 import com.example.android.vdmdemo.common.RemoteEventProto.AudioFrame;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent;
+import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent.EventCase;
 import com.example.android.vdmdemo.common.RemoteIo;
 import com.google.common.collect.ImmutableSet;
 
@@ -175,7 +176,8 @@ public final class AudioInjector implements Consumer<RemoteEvent> {
      */
     public void start() {
         registerAudioPolicy();
-        mRemoteIo.addMessageConsumer(this);
+        mRemoteIo.addMessageConsumer(this,
+                EventCase.START_AUDIO, EventCase.AUDIO_FRAME, EventCase.STOP_AUDIO);
         mAudioManager.registerAudioRecordingCallback(mAudioRecordingCallback, null);
     }
 
@@ -94,6 +94,9 @@ final class AudioStreamer {
     @GuardedBy("mLock")
     private StreamingThread mStreamingThread;
 
+    @GuardedBy("mLock")
+    private int mNextStreamId = 1;
+
     @GuardedBy("mLock")
     private AudioDeviceInfo mRemoteSubmixDevice;
 
@@ -123,14 +126,16 @@ final class AudioStreamer {
 
                         if (mSessionIdAudioMix != null && shouldStream
                                 && mStreamingThread == null) {
+                            int streamId = mNextStreamId++;
                             mRemoteIo.sendMessage(
                                     RemoteEvent.newBuilder()
-                                            .setStartAudio(StartAudio.newBuilder())
+                                            .setStartAudio(
+                                                    StartAudio.newBuilder().setStreamId(streamId))
                                             .build());
                             mStreamingThread =
                                     new StreamingThread(
                                             mAudioPolicy.createAudioRecordSink(mSessionIdAudioMix),
-                                            mRemoteIo);
+                                            mRemoteIo, streamId);
                             mStreamingThread.start();
                         } else if (!shouldStream && mStreamingThread != null) {
                             mRemoteIo.sendMessage(
@@ -342,12 +347,14 @@ final class AudioStreamer {
                         AudioFormat.ENCODING_PCM_16BIT);
         private final RemoteIo mRemoteIo;
         private final AudioRecord mAudioRecord;
+        private final int mStreamId;
         private final AtomicBoolean mIsRunning = new AtomicBoolean(true);
 
-        StreamingThread(AudioRecord audioRecord, RemoteIo remoteIo) {
+        StreamingThread(AudioRecord audioRecord, RemoteIo remoteIo, int streamId) {
             super();
             mRemoteIo = Objects.requireNonNull(remoteIo);
             mAudioRecord = Objects.requireNonNull(audioRecord);
+            mStreamId = streamId;
         }
 
         @Override
@@ -362,6 +369,7 @@ final class AudioStreamer {
 
             mAudioRecord.startRecording();
             byte[] buffer = new byte[BUFFER_SIZE];
+            long position = 0;
             while (mIsRunning.get()) {
                 int ret = mAudioRecord.read(buffer, 0, buffer.length, AudioRecord.READ_BLOCKING);
                 if (ret <= 0) {
@@ -373,8 +381,11 @@ final class AudioStreamer {
                         RemoteEvent.newBuilder()
                                 .setAudioFrame(
                                         AudioFrame.newBuilder()
-                                                .setData(ByteString.copyFrom(buffer, 0, ret)))
+                                                .setData(ByteString.copyFrom(buffer, 0, ret))
+                                                .setPosition(position)
+                                                .setStreamId(mStreamId))
                                 .build());
+                position += ret / AUDIO_FORMAT.getFrameSizeInBytes();
             }
             Log.d(TAG, "Stopping audio streaming");
             mAudioRecord.stop();
@@ -91,6 +91,8 @@ final class PreferenceController {
 
             new BoolRule(R.string.pref_record_encoder_output, TIRAMISU),
 
+            new BoolRule(R.string.pref_measure_latency, TIRAMISU),
+
 
             // Internal-only switches not exposed in the settings page.
             // All of these are booleans acting as switches, while the above ones may be any type.
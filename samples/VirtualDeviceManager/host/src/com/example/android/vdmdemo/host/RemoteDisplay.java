@@ -58,6 +58,7 @@ import com.example.android.vdmdemo.common.RemoteEventProto;
 import com.example.android.vdmdemo.common.RemoteEventProto.DisplayCapabilities;
 import com.example.android.vdmdemo.common.RemoteEventProto.DisplayRotation;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent;
+import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent.EventCase;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteInputEvent;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteKeyEvent;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteMotionEvent;
@@ -93,6 +94,7 @@ class RemoteDisplay implements AutoCloseable {
     private final RemoteIo mRemoteIo;
     private final PreferenceController mPreferenceController;
     private final Consumer<RemoteEvent> mRemoteEventConsumer = this::processRemoteEvent;
+    private final Consumer<RemoteEvent> mInputEventConsumer = this::processRemoteInputEvent;
     private final VirtualDisplay mVirtualDisplay;
     private final VirtualDpad mDpad;
     private final int mRemoteDisplayId;
@@ -170,7 +172,10 @@ class RemoteDisplay implements AutoCloseable {
                                 .setAssociatedDisplayId(getDisplayId())
                                 .build());
 
-        remoteIo.addMessageConsumer(mRemoteEventConsumer);
+        remoteIo.addMessageConsumer(mRemoteEventConsumer,
+                EventCase.HOME_EVENT, EventCase.STOP_STREAMING);
+        // Input is injected straight from the receiving thread, without a hop to another one.
+        remoteIo.addDirectMessageConsumer(mInputEventConsumer, EventCase.INPUT_EVENT);
 
         reset();
     }
@@ -256,8 +261,6 @@ class RemoteDisplay implements AutoCloseable {
         }
         if (event.hasHomeEvent()) {
             goHome();
-        } else if (event.hasInputEvent()) {
-            processInputEvent(event.getInputEvent());
         } else if (event.hasStopStreaming() && event.getStopStreaming().getPause()) {
             if (mVideoManager != null) {
                 mVideoManager.stop();
@@ -266,6 +269,12 @@ class RemoteDisplay implements AutoCloseable {
         }
     }
 
+    private void processRemoteInputEvent(RemoteEvent event) {
+        if (event.getDisplayId() == mRemoteDisplayId) {
+            processInputEvent(event.getInputEvent());
+        }
+    }
+
     void goHome() {
         if (mDisplayType != DISPLAY_TYPE_HOME && mDisplayType != DISPLAY_TYPE_MIRROR) {
             return;
@@ -495,6 +504,7 @@ class RemoteDisplay implements AutoCloseable {
                         .setStopStreaming(StopStreaming.newBuilder().setPause(false))
                         .build());
         mRemoteIo.removeMessageConsumer(mRemoteEventConsumer);
+        mRemoteIo.removeMessageConsumer(mInputEventConsumer);
         mDpad.close();
         mTouchscreen.close();
         mKeyboard.close();
@@ -25,6 +25,7 @@ import android.util.SparseArray;
 import androidx.annotation.NonNull;
 
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent;
+import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent.EventCase;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteSensorEvent;
 import com.example.android.vdmdemo.common.RemoteEventProto.SensorConfiguration;
 import com.example.android.vdmdemo.common.RemoteIo;
@@ -64,7 +65,7 @@ final class RemoteSensorManager implements AutoCloseable {
 
     RemoteSensorManager(RemoteIo remoteIo) {
         this.mRemoteIo = remoteIo;
-        remoteIo.addMessageConsumer(mRemoteEventConsumer);
+        remoteIo.addMessageConsumer(mRemoteEventConsumer, EventCase.SENSOR_EVENT);
     }
 
     @Override
@@ -20,8 +20,12 @@ import android.os.Bundle;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 
+import com.example.android.vdmdemo.common.LatencyDialog;
+import com.example.android.vdmdemo.common.RemoteIo;
+
 import dagger.hilt.android.AndroidEntryPoint;
 
 import javax.inject.Inject;
@@ -45,11 +49,20 @@ public class SettingsActivity extends Hilt_SettingsActivity {
     public static final class SettingsFragment extends Hilt_SettingsActivity_SettingsFragment {
 
         @Inject PreferenceController mPreferenceController;
+        @Inject RemoteIo mRemoteIo;
 
         @Override
         public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
             setPreferencesFromResource(R.xml.preferences, rootKey);
             mPreferenceController.evaluate(getPreferenceManager());
+
+            Preference latencyStats = findPreference("latency_stats");
+            if (latencyStats != null) {
+                latencyStats.setOnPreferenceClickListener(preference -> {
+                    LatencyDialog.show(requireContext(), mRemoteIo.getLatencyTracker());
+                    return true;
+                });
+            }
         }
     }
 }
@@ -58,6 +58,7 @@ import com.example.android.vdmdemo.common.ConnectionManager;
 import com.example.android.vdmdemo.common.RemoteEventProto.DeviceCapabilities;
 import com.example.android.vdmdemo.common.RemoteEventProto.DisplayChangeEvent;
 import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent;
+import com.example.android.vdmdemo.common.RemoteEventProto.RemoteEvent.EventCase;
 import com.example.android.vdmdemo.common.RemoteEventProto.SensorCapabilities;
 import com.example.android.vdmdemo.common.RemoteEventProto.StartStreaming;
 import com.example.android.vdmdemo.common.RemoteIo;
@@ -229,9 +230,13 @@ public final class VdmService extends Hilt_VdmService {
         mDisplayManager = getSystemService(DisplayManager.class);
         Objects.requireNonNull(mDisplayManager).registerDisplayListener(mDisplayListener, null);
 
-        mRemoteIo.addMessageConsumer(mRemoteEventConsumer);
+        mRemoteIo.addMessageConsumer(mRemoteEventConsumer,
+                EventCase.DEVICE_CAPABILITIES, EventCase.DISPLAY_CAPABILITIES,
+                EventCase.STOP_STREAMING, EventCase.DISPLAY_CHANGE_EVENT);
 
         mPreferenceController.addPreferenceObserver(this, mPreferenceObservers);
+        mRemoteIo.getLatencyTracker().setEnabled(
+                mPreferenceController.getBoolean(R.string.pref_measure_latency));
 
         mVirtualDeviceManager =
                 Objects.requireNonNull(getSystemService(VirtualDeviceManager.class));
@@ -578,6 +583,8 @@ public final class VdmService extends Hilt_VdmService {
                     if (mVirtualDevice != null) mVirtualDevice.setShowPointerIcon((Boolean) b);
                 });
         observers.put(R.string.pref_enable_client_audio, b -> handleAudioCapabilities());
+        observers.put(R.string.pref_measure_latency,
+                b -> mRemoteIo.getLatencyTracker().setEnabled((Boolean) b));
         observers.put(R.string.pref_display_ime_policy,
                 s -> {
                     if (mVirtualDevice != null) {
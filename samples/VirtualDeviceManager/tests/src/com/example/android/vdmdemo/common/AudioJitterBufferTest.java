@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.vdmdemo.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+@RunWith(JUnit4.class)
+public class AudioJitterBufferTest {
+
+    private static final int SAMPLE_RATE = 44000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int TARGET_LATENCY_MS = 40;
+    private static final int MAX_LATENCY_MS = 500;
+    // The host sends 20ms frames, and the client plays 5ms chunks.
+    private static final int FRAME_MS = 20;
+    private static final int CHUNK_MS = 5;
+    private static final int FRAME_SIZE = SAMPLE_RATE * FRAME_MS / 1000;
+    private static final int CHUNK_SIZE = SAMPLE_RATE * CHUNK_MS / 1000;
+    private static final long MS = 1_000_000;
+
+    private final AudioJitterBuffer mBuffer = new AudioJitterBuffer(
+            SAMPLE_RATE, CHANNEL_COUNT, TARGET_LATENCY_MS, MAX_LATENCY_MS);
+    private final short[] mChunk = new short[CHUNK_SIZE * CHANNEL_COUNT];
+    private long mNextFrame = 0;
+    private long mNow = 0;
+    // Frames sent but not received yet: their position and arrival time. Like on a socket, a
+    // frame can't be received before the ones sent ahead of it.
+    private final ArrayDeque<long[]> mPending = new ArrayDeque<>();
+
+    @Test
+    public void playback_startsOnceTargetIsBuffered() {
+        writeFrame(0);
+        mBuffer.read(mChunk);
+        assertSilent(mChunk);
+
+        writeFrame(FRAME_MS * MS);
+        mBuffer.read(mChunk);
+        assertEquals(sampleAt(0, 0), mChunk[0]);
+        assertEquals(sampleAt(CHUNK_SIZE - 1, 1), mChunk[mChunk.length - 1]);
+    }
+
+    @Test
+    public void steadyStream_staysAtTargetWithoutUnderruns() {
+        simulate(10_000, now -> now);
+
+        assertEquals(0, mBuffer.getUnderrunCount());
+        assertEquals(0, mBuffer.getConcealedFrameCount());
+        assertEquals(TARGET_LATENCY_MS, mBuffer.getTargetLatencyMs());
+        assertTrue("latency " + mBuffer.getLatencyMs() + "ms",
+                Math.abs(mBuffer.getLatencyMs() - TARGET_LATENCY_MS) <= 10);
+    }
+
+    @Test
+    public void jitter_raisesTargetAndShrinksBackWhenItStops() {
+        // Every 10th frame is 100ms late, and the ones queued behind it with it.
+        simulate(5_000, now -> now + (now / (FRAME_MS * MS) % 10 == 0 ? 100 * MS : 0));
+        int jitteryTarget = mBuffer.getTargetLatencyMs();
+        assertTrue("jitter " + mBuffer.getJitterMs() + "ms", mBuffer.getJitterMs() >= 90);
+        assertTrue("target " + jitteryTarget + "ms", jitteryTarget >= 100);
+        long underruns = mBuffer.getUnderrunCount();
+        simulate(5_000, now -> now + (now / (FRAME_MS * MS) % 10 == 0 ? 100 * MS : 0));
+        assertEquals(underruns, mBuffer.getUnderrunCount());
+
+        simulate(10_000, now -> now);
+        assertEquals(TARGET_LATENCY_MS, mBuffer.getTargetLatencyMs());
+        assertTrue("latency " + mBuffer.getLatencyMs() + "ms",
+                mBuffer.getLatencyMs() < jitteryTarget);
+    }
+
+    @Test
+    public void stall_causesOneUnderrunAndLatePlayback() {
+        simulate(1_000, now -> now);
+        long position = mNextFrame;
+        // Nothing arrives for 200ms, then everything at once.
+        simulate(200, now -> Long.MAX_VALUE);
+        assertEquals(1, mBuffer.getUnderrunCount());
+        assertTrue(mBuffer.getConcealedFrameCount() > 0);
+
+        flushPendingFrames(position);
+        simulate(1_000, now -> now);
+        assertEquals(1, mBuffer.getUnderrunCount());
+        assertEquals(0, mBuffer.getLostFrameCount());
+        assertEquals(0, mBuffer.getLateFrameCount());
+    }
+
+    @Test
+    public void lostFrame_isConcealedAndLateCopyDiscarded() {
+        simulate(500, now -> now);
+        long lost = mNextFrame;
+        mNextFrame += FRAME_SIZE;
+        simulate(500, now -> now);
+
+        assertEquals(FRAME_SIZE, mBuffer.getLostFrameCount());
+        assertEquals(FRAME_SIZE, mBuffer.getConcealedFrameCount());
+        assertEquals(0, mBuffer.getUnderrunCount());
+
+        mBuffer.write(lost, frame(lost), 0);
+        assertEquals(FRAME_SIZE, mBuffer.getLateFrameCount());
+    }
+
+    @Test
+    public void writingPastCapacity_dropsOldestAudio() {
+        int frames = MAX_LATENCY_MS / FRAME_MS;
+        for (int i = 0; i < frames + 5; ++i) {
+            writeFrame(0);
+        }
+
+        assertEquals(5 * FRAME_SIZE, mBuffer.getOverrunFrameCount());
+        mBuffer.read(mChunk);
+        assertEquals(sampleAt(5 * FRAME_SIZE, 0), mChunk[0]);
+    }
+
+    @Test
+    public void staleFrameFromEarlierStream_doesNotSilenceNewOne() {
+        long stale = 100 * FRAME_SIZE;
+        mBuffer.write(stale, frame(stale), 0);
+        simulate(500, now -> now);
+
+        assertEquals(0, mBuffer.getLateFrameCount());
+        assertEquals(0, mBuffer.getUnderrunCount());
+        assertTrue("latency " + mBuffer.getLatencyMs() + "ms",
+                Math.abs(mBuffer.getLatencyMs() - TARGET_LATENCY_MS) <= 10);
+        assertTrue(mChunk[0] != 0);
+    }
+
+    @Test
+    public void concealment_fadesOutToSilence() {
+        simulate(500, now -> now);
+        simulate(200, now -> Long.MAX_VALUE);
+
+        // The last chunk read was concealed long after the fade out.
+        assertSilent(mChunk);
+    }
+
+    /**
+     * Plays for the given time, reading a chunk every 5ms and sending a frame every 20ms, which
+     * arrives at the time given by the arrival function, or never if that's Long.MAX_VALUE.
+     */
+    private void simulate(int durationMs, ArrivalTime arrivalTime) {
+        for (int elapsedMs = 0; elapsedMs < durationMs; elapsedMs += CHUNK_MS) {
+            long now = mNow;
+            if (now % (FRAME_MS * MS) == 0) {
+                mPending.add(new long[] {mNextFrame, arrivalTime.at(now)});
+                mNextFrame += FRAME_SIZE;
+            }
+            while (!mPending.isEmpty() && mPending.peek()[1] <= now) {
+                long[] pending = mPending.poll();
+                mBuffer.write(pending[0], frame(pending[0]), now);
+            }
+            mBuffer.read(mChunk);
+            mNow += CHUNK_MS * MS;
+        }
+    }
+
+    private void flushPendingFrames(long fromPosition) {
+        while (!mPending.isEmpty()) {
+            long[] pending = mPending.poll();
+            if (pending[0] >= fromPosition) {
+                mBuffer.write(pending[0], frame(pending[0]), mNow);
+            }
+        }
+    }
+
+    private void writeFrame(long arrivalNs) {
+        mBuffer.write(mNextFrame, frame(mNextFrame), arrivalNs);
+        mNextFrame += FRAME_SIZE;
+    }
+
+    private interface ArrivalTime {
+        long at(long sentNs);
+    }
+
+    private static ByteBuffer frame(long position) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE * CHANNEL_COUNT * 2)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < FRAME_SIZE; ++i) {
+            for (int c = 0; c < CHANNEL_COUNT; ++c) {
+                frame.putShort(sampleAt(position + i, c));
+            }
+        }
+        frame.flip();
+        return frame;
+    }
+
+    /** A sample that tells the position and the channel apart, and is never silent. */
+    private static short sampleAt(long position, int channel) {
+        return (short) (1000 + position % 10_000 + channel * 20_000);
+    }
+
+    private static void assertSilent(short[] samples) {
+        for (short sample : samples) {
+            assertEquals(0, sample);
+        }
+    }
+}
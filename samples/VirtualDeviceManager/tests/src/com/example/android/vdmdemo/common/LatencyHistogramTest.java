@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.vdmdemo.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+    @Test
+    public void percentiles_areWithinBucketPrecision() {
+        for (int i = 1; i <= 1000; ++i) {
+            mHistogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, mHistogram.getCount());
+        assertEquals(1_000_000, mHistogram.getMax());
+        assertWithin(500_000, mHistogram.getPercentile(50));
+        assertWithin(900_000, mHistogram.getPercentile(90));
+        assertWithin(990_000, mHistogram.getPercentile(99));
+        assertEquals(1_000_000, mHistogram.getPercentile(100));
+    }
+
+    @Test
+    public void smallValues_areExact() {
+        for (int i = 0; i < 16; ++i) {
+            mHistogram.record(i);
+        }
+
+        assertEquals(7, mHistogram.getPercentile(50));
+        assertEquals(15, mHistogram.getPercentile(100));
+    }
+
+    @Test
+    public void outOfRangeValues_areClamped() {
+        mHistogram.record(-5);
+        assertEquals(0, mHistogram.getMax());
+
+        mHistogram.record(Long.MAX_VALUE);
+        assertEquals(2, mHistogram.getCount());
+        assertTrue(mHistogram.getMax() > 60_000_000_000L);
+        assertEquals(mHistogram.getMax(), mHistogram.getPercentile(99));
+    }
+
+    @Test
+    public void clear_removesAllValues() {
+        mHistogram.record(1234);
+        mHistogram.clear();
+
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMax());
+        assertEquals(0, mHistogram.getPercentile(50));
+    }
+
+    @Test
+    public void writeBuckets_writesNonEmptyBucketsWithBounds() {
+        mHistogram.record(3);
+        mHistogram.record(1000);
+        mHistogram.record(1001);
+
+        StringWriter buckets = new StringWriter();
+        try (PrintWriter out = new PrintWriter(buckets)) {
+            mHistogram.writeBuckets(out, "input total");
+        }
+
+        String[] lines = buckets.toString().split("\\R");
+        assertEquals(2, lines.length);
+        assertEquals("input total 3 3 1", lines[0]);
+        String[] bucket = lines[1].split(" ");
+        long low = Long.parseLong(bucket[2]);
+        long high = Long.parseLong(bucket[3]);
+        assertTrue(low <= 1000 && high >= 1001);
+        assertEquals("2", bucket[4]);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / 16);
+    }
+}
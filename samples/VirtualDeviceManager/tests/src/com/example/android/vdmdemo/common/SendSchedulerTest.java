@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.vdmdemo.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.DataInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(JUnit4.class)
+public class SendSchedulerTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final int SMALL_SOCKET_BUFFER = 16 * 1024;
+    private static final int FRAME_SIZE = 256 * 1024;
+    private static final int SMALL_FRAME_SIZE = 1024;
+
+    private Socket mSender;
+    private Socket mReceiver;
+    private SendScheduler mScheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            // Small buffers, so the writer blocks on a large frame instead of the kernel
+            // absorbing the whole synthetic load.
+            server.setReceiveBufferSize(SMALL_SOCKET_BUFFER);
+            mSender = new Socket();
+            mSender.setSendBufferSize(SMALL_SOCKET_BUFFER);
+            mSender.connect(server.getLocalSocketAddress());
+            mReceiver = server.accept();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mScheduler != null) {
+            mScheduler.close();
+        }
+        mSender.close();
+        mReceiver.close();
+    }
+
+    @Test
+    public void messagesInOneLane_keepTheirOrder() throws Exception {
+        mScheduler = new SendScheduler(mSender.getOutputStream(), (s, e) -> {});
+        for (int i = 0; i < 100; ++i) {
+            mScheduler.enqueue(SendScheduler.LANE_AUDIO, message(SendScheduler.LANE_AUDIO, i, 100));
+        }
+
+        DataInputStream in = new DataInputStream(mReceiver.getInputStream());
+        for (int i = 0; i < 100; ++i) {
+            Received received = read(in);
+            assertEquals(SendScheduler.LANE_AUDIO, received.mLane);
+            assertEquals(i, received.mSequence);
+        }
+    }
+
+    @Test
+    public void inputEvent_preemptsQueuedFrames() throws Exception {
+        mScheduler = new SendScheduler(mSender.getOutputStream(), (s, e) -> {});
+        int frameCount = 20;
+        for (int i = 0; i < frameCount; ++i) {
+            mScheduler.enqueue(SendScheduler.LANE_BULK,
+                    message(SendScheduler.LANE_BULK, i, FRAME_SIZE));
+        }
+        // Nothing is being read yet, so the writer is stuck in the middle of the first frames.
+        waitUntil(() -> mScheduler.getQueuedCount(SendScheduler.LANE_BULK) < frameCount);
+        mScheduler.enqueue(SendScheduler.LANE_AUDIO, message(SendScheduler.LANE_AUDIO, 0, 10));
+        mScheduler.enqueue(SendScheduler.LANE_SENSOR, message(SendScheduler.LANE_SENSOR, 0, 10));
+        mScheduler.enqueue(SendScheduler.LANE_CONTROL,
+                message(SendScheduler.LANE_CONTROL, 0, 10));
+
+        List<Received> received = readAll(frameCount + 3);
+        int control = indexOf(received, SendScheduler.LANE_CONTROL);
+        int sensor = indexOf(received, SendScheduler.LANE_SENSOR);
+        int audio = indexOf(received, SendScheduler.LANE_AUDIO);
+        // At most the frame being written and the one after it can get ahead.
+        assertTrue("input event sent after " + control + " frames", control <= 2);
+        assertEquals(control + 1, sensor);
+        assertEquals(sensor + 1, audio);
+    }
+
+    @Test
+    public void pendingMessages_areFlushedTogether() throws Exception {
+        CountDownLatch firstWrite = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger flushes = new AtomicInteger();
+        OutputStream out = new FilterOutputStream(mSender.getOutputStream()) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                firstWrite.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                flushes.incrementAndGet();
+                super.flush();
+            }
+        };
+        mScheduler = new SendScheduler(out, (s, e) -> {});
+
+        // A frame larger than the buffer goes straight to the stream and blocks the writer.
+        mScheduler.enqueue(SendScheduler.LANE_BULK,
+                message(SendScheduler.LANE_BULK, 0, FRAME_SIZE));
+        assertTrue(firstWrite.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < 50; ++i) {
+            mScheduler.enqueue(SendScheduler.LANE_CONTROL,
+                    message(SendScheduler.LANE_CONTROL, i, 20));
+        }
+        release.countDown();
+
+        List<Received> received = readAll(51);
+        assertEquals(SendScheduler.LANE_BULK, received.get(0).mLane);
+        waitUntil(() -> mScheduler.getFlushCount() > 0);
+        assertEquals(1, mScheduler.getFlushCount());
+        assertEquals(1, flushes.get());
+    }
+
+    @Test
+    public void inputEvent_isSentWhileFramesStream() throws Exception {
+        AtomicLong sent = new AtomicLong();
+        OutputStream out = new FilterOutputStream(mSender.getOutputStream()) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                sent.addAndGet(len);
+            }
+        };
+        mScheduler = new SendScheduler(out, (s, e) -> {});
+        Thread reader = new Thread(() -> {
+            try {
+                mReceiver.getInputStream().transferTo(OutputStream.nullOutputStream());
+            } catch (IOException e) {
+                // The socket is closed at the end of the test.
+            }
+        });
+        reader.start();
+
+        // Bytes handed to the scheduler's stream, and where the last urgent message ends.
+        // Only the writer thread updates them.
+        AtomicLong written = new AtomicLong();
+        AtomicLong urgentEnd = new AtomicLong();
+        AtomicInteger framesWritten = new AtomicInteger();
+        AtomicInteger framesStartedBeforeUrgentSent = new AtomicInteger();
+        AtomicBoolean streaming = new AtomicBoolean(true);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; streaming.get(); ++i) {
+                SendScheduler.Message frame = message(SendScheduler.LANE_BULK, i, SMALL_FRAME_SIZE);
+                mScheduler.enqueue(SendScheduler.LANE_BULK, o -> {
+                    if (sent.get() < urgentEnd.get()) {
+                        framesStartedBeforeUrgentSent.incrementAndGet();
+                    }
+                    frame.writeTo(o);
+                    written.addAndGet(9 + SMALL_FRAME_SIZE);
+                    framesWritten.incrementAndGet();
+                });
+                // Keep plenty of frames queued, so the writer never runs out.
+                while (streaming.get()
+                        && mScheduler.getQueuedCount(SendScheduler.LANE_BULK) > 1000) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        waitUntil(() -> framesWritten.get() > 100);
+        for (int lane : new int[] {SendScheduler.LANE_SENSOR, SendScheduler.LANE_CONTROL}) {
+            SendScheduler.Message urgent = message(lane, 0, 10);
+            mScheduler.enqueue(lane, o -> {
+                urgent.writeTo(o);
+                urgentEnd.set(written.addAndGet(9 + 10));
+            });
+        }
+        int framesBefore = framesWritten.get();
+        waitUntil(() -> framesWritten.get() > framesBefore + 100);
+        streaming.set(false);
+        producer.join();
+
+        assertTrue("input event not written", urgentEnd.get() > 0);
+        assertEquals(0, framesStartedBeforeUrgentSent.get());
+    }
+
+    @Test
+    public void writeFailure_closesSchedulerAndReportsError() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        AtomicReference<SendScheduler> failedScheduler = new AtomicReference<>();
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("broken pipe");
+            }
+
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("broken pipe");
+            }
+        };
+        mScheduler = new SendScheduler(out, (s, e) -> {
+            failedScheduler.set(s);
+            failed.countDown();
+        });
+
+        mScheduler.enqueue(SendScheduler.LANE_CONTROL, message(SendScheduler.LANE_CONTROL, 0, 1));
+
+        assertTrue(failed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(mScheduler, failedScheduler.get());
+        assertFalse(mScheduler.enqueue(SendScheduler.LANE_CONTROL,
+                message(SendScheduler.LANE_CONTROL, 1, 1)));
+    }
+
+    @Test
+    public void close_reportsQueuedMessagesAsDropped() throws Exception {
+        CountDownLatch firstWrite = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                firstWrite.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        mScheduler = new SendScheduler(out, (s, e) -> {});
+        mScheduler.enqueue(SendScheduler.LANE_CONTROL, o -> o.write(0));
+        assertTrue(firstWrite.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger dropped = new AtomicInteger();
+        for (int i = 0; i < 3; ++i) {
+            mScheduler.enqueue(SendScheduler.LANE_BULK, new SendScheduler.Message() {
+                @Override
+                public void writeTo(OutputStream o) {
+                    written.incrementAndGet();
+                }
+
+                @Override
+                public void onDropped() {
+                    dropped.incrementAndGet();
+                }
+            });
+        }
+        mScheduler.close();
+        release.countDown();
+
+        assertEquals(3, dropped.get());
+        assertEquals(0, written.get());
+    }
+
+    /** A synthetic message: lane, sequence number, payload length and payload. */
+    private static SendScheduler.Message message(int lane, int sequence, int size) {
+        return out -> {
+            byte[] bytes = new byte[9 + size];
+            bytes[0] = (byte) lane;
+            putInt(bytes, 1, sequence);
+            putInt(bytes, 5, size);
+            out.write(bytes);
+        };
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private List<Received> readAll(int count) throws IOException {
+        mReceiver.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        DataInputStream in = new DataInputStream(mReceiver.getInputStream());
+        List<Received> received = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            received.add(read(in));
+        }
+        return received;
+    }
+
+    private static Received read(DataInputStream in) throws IOException {
+        Received received = new Received();
+        received.mLane = in.readByte();
+        received.mSequence = in.readInt();
+        in.skipNBytes(in.readInt());
+        return received;
+    }
+
+    private static int indexOf(List<Received> received, int lane) {
+        for (int i = 0; i < received.size(); ++i) {
+            if (received.get(i).mLane == lane) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void waitUntil(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!condition.isTrue()) {
+            assertTrue("Timed out", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private interface Condition {
+        boolean isTrue();
+    }
+
+    private static class Received {
+        int mLane;
+        int mSequence;
+    }
+}
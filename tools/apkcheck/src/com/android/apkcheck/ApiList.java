@@ -16,16 +16,31 @@
 
 package com.android.apkcheck;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Holds a list of API members, including classes, fields, and methods.
  */
 public class ApiList {
-    private HashMap<String,PackageInfo> mPackageList;
+    private Map<String,PackageInfo> mPackageList;
     private String mDebugString;
-    private int mWarnings, mErrors;
+
+    /*
+     * Memo tables for type normalization.  The same few thousand type
+     * names show up in every method signature, so each one is only
+     * resolved once.  Results are interned through mStrings, which keeps
+     * a single copy of every binary name, descriptor, and member key.
+     */
+    private final ConcurrentHashMap<String,String> mBinaryNames =
+        new ConcurrentHashMap<String,String>();
+    private final ConcurrentHashMap<String,String> mDescriptors =
+        new ConcurrentHashMap<String,String>();
+    private final ConcurrentHashMap<String,String> mStrings =
+        new ConcurrentHashMap<String,String>();
 
     /**
      * Constructs an ApiList.
@@ -45,53 +60,78 @@ public class ApiList {
     }
 
     /**
-     * Increment the number of warnings associated with this API list.
+     * Retrieves the named package.
+     *
+     * @return the package, or null if no match was found
      */
-    public void incrWarnings() {
-        mWarnings++;
+    public PackageInfo getPackage(String name) {
+        return mPackageList.get(name);
     }
 
     /**
-     * Increment the errors of warnings associated with this API list.
+     * Retrieves the named package, creating it if it doesn't already
+     * exist.
      */
-    public void incrErrors() {
-        mErrors++;
+    public PackageInfo getOrCreatePackage(String name) {
+        PackageInfo pkgInfo = mPackageList.get(name);
+        if (pkgInfo == null) {
+            pkgInfo = new PackageInfo(name);
+            mPackageList.put(name, pkgInfo);
+        }
+        return pkgInfo;
     }
 
     /**
-     * Returns the number of warnings associated with this API list.
+     * Converts an ambiguous type name to binary form, as
+     * TypeUtils.ambiguousToBinaryName does.  The full set of packages
+     * must be known before calling here.
      */
-    public int getWarningCount() {
-        return mWarnings;
+    public String getBinaryName(String typeName) {
+        String binaryName = mBinaryNames.get(typeName);
+        if (binaryName == null) {
+            binaryName = intern(TypeUtils.ambiguousToBinaryName(typeName, this));
+            mBinaryNames.putIfAbsent(typeName, binaryName);
+        }
+        return binaryName;
     }
 
     /**
-     * Returns the number of errors associated with this API list.
+     * Converts a type to a descriptor, as TypeUtils.typeToDescriptor
+     * does.
      */
-    public int getErrorCount() {
-        return mErrors;
+    public String getDescriptor(String type) {
+        String descriptor = mDescriptors.get(type);
+        if (descriptor == null) {
+            descriptor = intern(TypeUtils.typeToDescriptor(type));
+            mDescriptors.putIfAbsent(type, descriptor);
+        }
+        return descriptor;
     }
 
     /**
-     * Retrieves the named package.
-     *
-     * @return the package, or null if no match was found
+     * Returns a canonical copy of the string, shared with every other
+     * equal string interned in this list.
      */
-    public PackageInfo getPackage(String name) {
-        return mPackageList.get(name);
+    public String intern(String str) {
+        String prev = mStrings.putIfAbsent(str, str);
+        return prev != null ? prev : str;
     }
 
     /**
-     * Retrieves the named package, creating it if it doesn't already
-     * exist.
+     * Makes this list and everything in it read-only.  A frozen list
+     * can be shared freely between threads.
      */
-    public PackageInfo getOrCreatePackage(String name) {
-        PackageInfo pkgInfo = mPackageList.get(name);
-        if (pkgInfo == null) {
-            pkgInfo = new PackageInfo(name);
-            mPackageList.put(name, pkgInfo);
+    public void freeze() {
+        Iterator<PackageInfo> iter = getPackageIterator();
+        while (iter.hasNext()) {
+            iter.next().freeze();
         }
-        return pkgInfo;
+        mPackageList = Collections.unmodifiableMap(mPackageList);
+
+        /* normalization is done; don't hang on to the tables */
+        mBinaryNames.clear();
+        mDescriptors.clear();
+        mStrings.clear();
     }
 
     /**
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apkcheck;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads and writes precompiled API snapshots.
+ *
+ * Parsing the public API XML and flattening it takes far longer than
+ * checking a typical APK.  A snapshot holds the result of that work:
+ * every type is already normalized, every class already knows its
+ * ancestors, and member keys are stored exactly as they are looked up.
+ * Loading one is a matter of mapping the file and creating the objects.
+ *
+ * Layout, all integers big endian:
+ *
+ *   int    magic
+ *   int    version
+ *   int    offset of the class table
+ *   int    number of strings
+ *   int[]  per string, offset of its entry from the start of the
+ *          string data
+ *   ...    string data; each entry is an int length and UTF-8 bytes
+ *   --- class table ---
+ *   int    number of packages
+ *   per package, sorted by name:
+ *     int  name string
+ *     int  number of classes
+ *     per class, sorted by name:
+ *       int  name string
+ *       byte static: 0 unknown, 1 false, 2 true
+ *       byte flags: 1 enum, 2 annotation
+ *       int  number of ancestors, then class index of each, nearest first
+ *       int  number of fields, then sorted key strings (name:type)
+ *       int  number of methods, then sorted key strings (name:descriptor)
+ *
+ * Class indices count classes in the order they appear in the file.
+ * Strings are only stored once, so a type descriptor that shows up in
+ * thousands of member keys costs a single table entry.
+ */
+public class ApiSnapshot {
+    private static final int MAGIC = 0x41504953;        // "APIS"
+    private static final int VERSION = 1;
+
+    private static final int FLAG_ENUM = 1;
+    private static final int FLAG_ANNOTATION = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ApiSnapshot() {}
+
+    /**
+     * Returns true if the file starts like a snapshot.  Used to tell
+     * snapshots apart from XML API descriptions.
+     */
+    public static boolean isSnapshot(String fileName) {
+        try {
+            FileInputStream in = new FileInputStream(fileName);
+            try {
+                byte[] header = new byte[4];
+                return in.read(header) == 4 &&
+                    ByteBuffer.wrap(header).getInt() == MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a flattened API list to a snapshot file.
+     */
+    public static void write(ApiList apiList, String fileName)
+            throws IOException {
+        List<PackageInfo> packages = sortedPackages(apiList);
+
+        /* number the classes, and collect the strings */
+        HashMap<ClassInfo,Integer> classIndices =
+            new HashMap<ClassInfo,Integer>();
+        StringTable strings = new StringTable();
+        for (PackageInfo pkgInfo : packages) {
+            strings.add(pkgInfo.getName());
+            for (ClassInfo classInfo : sortedClasses(pkgInfo)) {
+                classIndices.put(classInfo, classIndices.size());
+                strings.add(classInfo.getName());
+                for (String key : fieldKeys(classInfo))
+                    strings.add(key);
+                for (String key : methodKeys(classInfo))
+                    strings.add(key);
+            }
+        }
+
+        /* lay out the class table */
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        DataOutputStream classOut = new DataOutputStream(classBytes);
+        classOut.writeInt(packages.size());
+        for (PackageInfo pkgInfo : packages) {
+            List<ClassInfo> classes = sortedClasses(pkgInfo);
+            classOut.writeInt(strings.indexOf(pkgInfo.getName()));
+            classOut.writeInt(classes.size());
+            for (ClassInfo classInfo : classes) {
+                classOut.writeInt(strings.indexOf(classInfo.getName()));
+
+                String isStatic = classInfo.getStatic();
+                classOut.writeByte(isStatic == null ? 0 :
+                    ("true".equals(isStatic) ? 2 : 1));
+                classOut.writeByte((classInfo.isEnum() ? FLAG_ENUM : 0) |
+                    (classInfo.isAnnotation() ? FLAG_ANNOTATION : 0));
+
+                ClassInfo[] ancestors = classInfo.getAncestors();
+                classOut.writeInt(ancestors.length);
+                for (ClassInfo ancestor : ancestors)
+                    classOut.writeInt(classIndices.get(ancestor));
+
+                writeKeys(classOut, fieldKeys(classInfo), strings);
+                writeKeys(classOut, methodKeys(classInfo), strings);
+            }
+        }
+        classOut.flush();
+
+        /* lay out the string table */
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        DataOutputStream stringOut = new DataOutputStream(stringBytes);
+        int[] offsets = new int[strings.size()];
+        for (int i = 0; i < strings.size(); i++) {
+            byte[] utf8 = strings.get(i).getBytes(UTF_8);
+            offsets[i] = stringOut.size();
+            stringOut.writeInt(utf8.length);
+            stringOut.write(utf8);
+        }
+        stringOut.flush();
+
+        int classTableOffset = 4 * 4 + offsets.length * 4 + stringBytes.size();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(fileName)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(classTableOffset);
+            out.writeInt(offsets.length);
+            for (int offset : offsets)
+                out.writeInt(offset);
+            stringBytes.writeTo(out);
+            classBytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Maps a snapshot file and loads it into a new, frozen API list.
+     */
+    public static ApiList read(String fileName) throws IOException {
+        ByteBuffer buf;
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                file.length());
+        } finally {
+            file.close();
+        }
+
+        if (buf.getInt() != MAGIC)
+            throw new IOException(fileName + " is not an API snapshot");
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException(fileName + " has snapshot version " +
+                version + ", expected " + VERSION + "; recompile it");
+        }
+        int classTableOffset = buf.getInt();
+
+        /*
+         * decode each string once and intern it, so names shared with the
+         * rest of the tool (package and class names, common types) are one
+         * object no matter where they came from
+         */
+        String[] strings = new String[buf.getInt()];
+        int stringData = buf.position() + strings.length * 4;
+        for (int i = 0; i < strings.length; i++) {
+            int offset = stringData + buf.getInt(buf.position() + i * 4);
+            byte[] utf8 = new byte[buf.getInt(offset)];
+            ByteBuffer dup = buf.duplicate();
+            dup.position(offset + 4);
+            dup.get(utf8);
+            strings[i] = new String(utf8, UTF_8).intern();
+        }
+
+        ApiList apiList = new ApiList(fileName);
+        List<ClassInfo> classes = new ArrayList<ClassInfo>();
+        List<int[]> ancestorIndices = new ArrayList<int[]>();
+        List<boolean[]> flags = new ArrayList<boolean[]>();
+
+        buf.position(classTableOffset);
+        int packageCount = buf.getInt();
+        for (int p = 0; p < packageCount; p++) {
+            PackageInfo pkgInfo =
+                apiList.getOrCreatePackage(strings[buf.getInt()]);
+            int classCount = buf.getInt();
+            for (int c = 0; c < classCount; c++) {
+                String name = strings[buf.getInt()];
+                byte isStatic = buf.get();
+                byte classFlags = buf.get();
+                String staticAttr = isStatic == 0 ? null :
+                    (isStatic == 2 ? "true" : "false");
+                ClassInfo classInfo =
+                    pkgInfo.addClass(new ClassInfo(name, null, staticAttr));
+                classes.add(classInfo);
+                flags.add(new boolean[] {
+                    (classFlags & FLAG_ENUM) != 0,
+                    (classFlags & FLAG_ANNOTATION) != 0 });
+
+                int[] ancestors = new int[buf.getInt()];
+                for (int i = 0; i < ancestors.length; i++)
+                    ancestors[i] = buf.getInt();
+                ancestorIndices.add(ancestors);
+
+                int fieldCount = buf.getInt();
+                for (int i = 0; i < fieldCount; i++)
+                    classInfo.addField(FieldInfo.fromKey(strings[buf.getInt()]));
+                int methodCount = buf.getInt();
+                for (int i = 0; i < methodCount; i++)
+                    classInfo.addMethod(MethodInfo.fromKey(strings[buf.getInt()]));
+            }
+        }
+
+        /* now that every class exists, link up the hierarchy */
+        for (int i = 0; i < classes.size(); i++) {
+            int[] indices = ancestorIndices.get(i);
+            ClassInfo[] ancestors = new ClassInfo[indices.length];
+            for (int j = 0; j < indices.length; j++)
+                ancestors[j] = classes.get(indices[j]);
+            boolean[] classFlags = flags.get(i);
+            classes.get(i).setFlattened(classFlags[0], classFlags[1], ancestors);
+        }
+
+        apiList.freeze();
+        return apiList;
+    }
+
+    private static void writeKeys(DataOutputStream out, List<String> keys,
+            StringTable strings) throws IOException {
+        out.writeInt(keys.size());
+        for (String key : keys)
+            out.writeInt(strings.indexOf(key));
+    }
+
+    private static List<PackageInfo> sortedPackages(ApiList apiList) {
+        HashMap<String,PackageInfo> byName = new HashMap<String,PackageInfo>();
+        Iterator<PackageInfo> iter = apiList.getPackageIterator();
+        while (iter.hasNext()) {
+            PackageInfo pkgInfo = iter.next();
+            byName.put(pkgInfo.getName(), pkgInfo);
+        }
+        List<String> names = new ArrayList<String>(byName.keySet());
+        Collections.sort(names);
+        List<PackageInfo> packages = new ArrayList<PackageInfo>();
+        for (String name : names)
+            packages.add(byName.get(name));
+        return packages;
+    }
+
+    private static List<ClassInfo> sortedClasses(PackageInfo pkgInfo) {
+        HashMap<String,ClassInfo> byName = new HashMap<String,ClassInfo>();
+        Iterator<ClassInfo> iter = pkgInfo.getClassIterator();
+        while (iter.hasNext()) {
+            ClassInfo classInfo = iter.next();
+            byName.put(classInfo.getName(), classInfo);
+        }
+        List<String> names = new ArrayList<String>(byName.keySet());
+        Collections.sort(names);
+        List<ClassInfo> classes = new ArrayList<ClassInfo>();
+        for (String name : names)
+            classes.add(byName.get(name));
+        return classes;
+    }
+
+    private static List<String> fieldKeys(ClassInfo classInfo) {
+        List<String> keys = new ArrayList<String>();
+        Iterator<FieldInfo> iter = classInfo.getFieldIterator();
+        while (iter.hasNext())
+            keys.add(iter.next().getNameAndType());
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static List<String> methodKeys(ClassInfo classInfo) {
+        List<String> keys = new ArrayList<String>();
+        Iterator<MethodInfo> iter = classInfo.getMethodIterator();
+        while (iter.hasNext())
+            keys.add(iter.next().getNameAndDescriptor());
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Assigns each distinct string an index, in order of first use.
+     */
+    private static class StringTable {
+        private final HashMap<String,Integer> mIndices =
+            new HashMap<String,Integer>();
+        private final List<String> mStrings = new ArrayList<String>();
+
+        void add(String str) {
+            if (!mIndices.containsKey(str)) {
+                mIndices.put(str, mStrings.size());
+                mStrings.add(str);
+            }
+        }
+
+        int indexOf(String str) {
+            return mIndices.get(str);
+        }
+
+        String get(int index) {
+            return mStrings.get(index);
+        }
+
+        int size() {
+            return mStrings.size();
+        }
+    }
+}
@@ -24,6 +24,12 @@ import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -37,12 +43,10 @@ import java.util.Iterator;
  * libraries that would be included with a "uses-library" directive.
  *
  * For performance we want to allow processing of multiple APKs so
- * we don't have to re-parse the spec file each time.
+ * we don't have to re-parse the spec file each time.  Once flattened, the
+ * spec is frozen and shared by all APKs, which are checked in parallel.
  */
 public class ApkCheck {
-    /* keep track of current APK file name, for error messages */
-    private static ApiList sCurrentApk;
-
     /* show warnings? */
     private static boolean sShowWarnings = false;
     /* show errors? */
@@ -51,12 +55,19 @@ public class ApkCheck {
     /* names of packages we're allowed to ignore */
     private static HashSet<String> sIgnorablePackages = new HashSet<String>();
 
+    /* where to write a compiled snapshot of the API, if anywhere */
+    private static String sSnapshotFile;
+
+    /* number of APKs to check at once */
+    private static int sThreads = Runtime.getRuntime().availableProcessors();
+
 
     /**
      * Program entry point.
      */
     public static void main(String[] args) {
         ApiList apiDescr = new ApiList("public-api");
+        boolean usesLibrary = false;
 
         if (args.length < 2) {
             usage();
@@ -71,6 +82,7 @@ public class ApkCheck {
                 return;
             } else if (args[idx].startsWith("--uses-library=")) {
                 String libName = args[idx].substring(args[idx].indexOf('=')+1);
+                usesLibrary = true;
                 if ("BUILTIN".equals(libName)) {
                     Reader reader = Builtin.getReader();
                     if (!parseXml(apiDescr, reader, "BUILTIN"))
@@ -90,6 +102,19 @@ public class ApkCheck {
                 sShowErrors = true;
             } else if (args[idx].equals("--no-error")) {
                 sShowErrors = false;
+            } else if (args[idx].startsWith("--compile=")) {
+                sSnapshotFile = args[idx].substring(args[idx].indexOf('=')+1);
+            } else if (args[idx].startsWith("--threads=")) {
+                String threads = args[idx].substring(args[idx].indexOf('=')+1);
+                try {
+                    sThreads = Integer.parseInt(threads);
+                } catch (NumberFormatException nfe) {
+                    sThreads = 0;
+                }
+                if (sThreads < 1) {
+                    System.err.println("ERROR: bad thread count " + threads);
+                    return;
+                }
 
             } else if (args[idx].startsWith("--")) {
                 if (args[idx].equals("--")) {
@@ -106,34 +131,129 @@ public class ApkCheck {
                 break;
             }
         }
-        if (idx > args.length - 2) {
+        if (idx > args.length - (sSnapshotFile != null ? 1 : 2)) {
             usage();
             return;
         }
 
-        /* parse base API description */
-        if (!parseApiDescr(apiDescr, args[idx++]))
-            return;
+        if (ApiSnapshot.isSnapshot(args[idx])) {
+            /* already parsed and flattened */
+            if (usesLibrary || sSnapshotFile != null) {
+                System.err.println("ERROR: --uses-library and --compile " +
+                    "must be applied when the snapshot is compiled");
+                return;
+            }
+            try {
+                apiDescr = ApiSnapshot.read(args[idx++]);
+            } catch (IOException ioe) {
+                System.err.println("Error reading snapshot: " +
+                    ioe.getMessage());
+                return;
+            }
+        } else {
+            /* parse base API description */
+            if (!parseApiDescr(apiDescr, args[idx++]))
+                return;
 
-        /* "flatten" superclasses and interfaces */
-        sCurrentApk = apiDescr;
-        flattenInherited(apiDescr);
+            /* "flatten" superclasses and interfaces */
+            ApkReport apiReport = new ApkReport(apiDescr.getDebugString(),
+                sShowWarnings, sShowErrors);
+            flattenInherited(apiDescr, apiReport);
+            System.out.print(apiReport.getOutput());
+
+            if (sSnapshotFile != null) {
+                try {
+                    ApiSnapshot.write(apiDescr, sSnapshotFile);
+                } catch (IOException ioe) {
+                    System.err.println("Error writing " + sSnapshotFile +
+                        ": " + ioe.getMessage());
+                    return;
+                }
+                if (idx == args.length)
+                    return;
+            }
+        }
 
         /* walk through list of libs we want to scan */
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(sThreads);
+        List<Future<ApkReport>> results = new ArrayList<Future<ApkReport>>();
+        int firstApk = idx;
         for ( ; idx < args.length; idx++) {
-            ApiList apkDescr = new ApiList(args[idx]);
-            sCurrentApk = apkDescr;
-            boolean success = parseApiDescr(apkDescr, args[idx]);
-            if (!success) {
-                if (idx < args.length-1)
+            results.add(executor.submit(new CheckTask(apiDescr, args[idx])));
+        }
+        executor.shutdown();
+
+        /* report in the order the files were given */
+        int checked = 0;
+        for (int i = 0; i < results.size(); i++) {
+            String fileName = args[firstApk + i];
+            ApkReport apkReport;
+            try {
+                apkReport = results.get(i).get();
+            } catch (ExecutionException ee) {
+                System.err.println("Error while checking " + fileName + ": " +
+                    ee.getCause());
+                ee.getCause().printStackTrace();
+                apkReport = null;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (apkReport == null) {
+                if (i < results.size()-1)
                     System.err.println("Skipping...");
                 continue;
             }
 
-            check(apiDescr, apkDescr);
-            System.out.println(args[idx] + ": summary: " +
-                apkDescr.getErrorCount() + " errors, " +
-                apkDescr.getWarningCount() + " warnings\n");
+            System.out.print(apkReport.getOutput());
+            System.out.println(fileName + ": summary: " +
+                apkReport.getErrorCount() + " errors, " +
+                apkReport.getWarningCount() + " warnings\n");
+            checked++;
+        }
+
+        long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+        System.out.println("checked " + checked + " of " + results.size() +
+            " APKs in " + elapsed + "ms (" +
+            String.format("%.1f", checked * 1000.0 / elapsed) +
+            " APKs/sec, " + sThreads +
+            (sThreads == 1 ? " thread)" : " threads)"));
+    }
+
+    /**
+     * Parses and checks a single APK description.  The result is null if
+     * the file couldn't be parsed.
+     */
+    private static class CheckTask implements Callable<ApkReport> {
+        private final ApiList mPubList;
+        private final String mFileName;
+
+        CheckTask(ApiList pubList, String fileName) {
+            mPubList = pubList;
+            mFileName = fileName;
+        }
+
+        @Override
+        public ApkReport call() {
+            ApiList apkDescr = new ApiList(mFileName);
+            if (DexReader.isDex(mFileName)) {
+                /* read references straight from the DEX code */
+                try {
+                    DexReader.read(apkDescr, mFileName);
+                } catch (IOException ioe) {
+                    System.err.println("Error reading " + mFileName + ": " +
+                        ioe.getMessage());
+                    return null;
+                }
+            } else if (!parseApiDescr(apkDescr, mFileName)) {
+                return null;
+            }
+
+            ApkReport report = new ApkReport(mFileName, sShowWarnings,
+                sShowErrors);
+            check(mPubList, apkDescr, report);
+            return report;
         }
     }
 
@@ -143,13 +263,18 @@ public class ApkCheck {
     static void usage() {
         System.err.println("Android APK checker v1.0");
         System.err.println("Copyright (C) 2010 The Android Open Source Project\n");
-        System.err.println("Usage: apkcheck [options] public-api.xml apk1.xml ...\n");
+        System.err.println("Usage: apkcheck [options] public-api.xml apk1.xml ...");
+        System.err.println("       apkcheck [options] public-api.xml app1.apk ...");
+        System.err.println("       apkcheck [options] public-api.snapshot apk1.xml ...");
+        System.err.println("       apkcheck [options] --compile=public-api.snapshot public-api.xml\n");
         System.err.println("Options:");
         System.err.println("  --help                  show this message");
         System.err.println("  --uses-library=lib.xml  load additional public API list");
         System.err.println("  --ignore-package=pkg    don't show errors for references to this package");
         System.err.println("  --[no-]warn             enable or disable display of warnings");
         System.err.println("  --[no-]error            enable or disable display of errors");
+        System.err.println("  --threads=N             number of APKs to check at once");
+        System.err.println("  --compile=file          write the flattened API to a snapshot");
     }
 
     /**
@@ -225,8 +350,10 @@ public class ApkCheck {
      *
      * We only need to do this for the public API list.  The dexdeps output
      * doesn't have this sort of information anyway.
+     *
+     * The list is frozen afterward, so it can be shared between threads.
      */
-    static void flattenInherited(ApiList pubList) {
+    static void flattenInherited(ApiList pubList, ApkReport report) {
         Iterator<PackageInfo> pkgIter = pubList.getPackageIterator();
         while (pkgIter.hasNext()) {
             PackageInfo pubPkgInfo = pkgIter.next();
@@ -235,9 +362,11 @@ public class ApkCheck {
             while (classIter.hasNext()) {
                 ClassInfo pubClassInfo = classIter.next();
 
-                pubClassInfo.flattenClass(pubList);
+                pubClassInfo.flattenClass(pubList, report);
             }
         }
+
+        pubList.freeze();
     }
 
     /**
@@ -247,7 +376,7 @@ public class ApkCheck {
      *
      * @return true if all is well
      */
-    static boolean check(ApiList pubList, ApiList apkDescr) {
+    static boolean check(ApiList pubList, ApiList apkDescr, ApkReport report) {
 
         Iterator<PackageInfo> pkgIter = apkDescr.getPackageIterator();
         while (pkgIter.hasNext()) {
@@ -257,7 +386,7 @@ public class ApkCheck {
 
             if (pubPkgInfo == null) {
                 // "illegal package" not a tremendously useful message
-                //apkError("Illegal package ref: " + apkPkgInfo.getName());
+                //report.error("Illegal package ref: " + apkPkgInfo.getName());
                 badPackage = true;
             }
 
@@ -272,14 +401,14 @@ public class ApkCheck {
                      * useful, so we emit the names of each of the classes.
                      */
                     if (isIgnorable(apkPkgInfo)) {
-                        apkWarning("Ignoring class ref: " +
+                        report.warning("Ignoring class ref: " +
                             apkPkgInfo.getName() + "." + apkClassInfo.getName());
                     } else {
-                        apkError("Illegal class ref: " +
+                        report.error("Illegal class ref: " +
                             apkPkgInfo.getName() + "." + apkClassInfo.getName());
                     }
                 } else {
-                    checkClass(pubPkgInfo, apkClassInfo);
+                    checkClass(pubPkgInfo, apkClassInfo, report);
                 }
             }
         }
@@ -291,19 +420,20 @@ public class ApkCheck {
      * Checks the class against the public API.  We check the class
      * itself and then any fields and methods.
      */
-    static boolean checkClass(PackageInfo pubPkgInfo, ClassInfo classInfo) {
+    static boolean checkClass(PackageInfo pubPkgInfo, ClassInfo classInfo,
+            ApkReport report) {
 
         ClassInfo pubClassInfo = pubPkgInfo.getClass(classInfo.getName());
 
         if (pubClassInfo == null) {
             if (isIgnorable(pubPkgInfo)) {
-                apkWarning("Ignoring class ref: " +
+                report.warning("Ignoring class ref: " +
                     pubPkgInfo.getName() + "." + classInfo.getName());
             } else if (classInfo.hasNoFieldMethod()) {
-                apkWarning("Hidden class referenced: " +
+                report.warning("Hidden class referenced: " +
                     pubPkgInfo.getName() + "." + classInfo.getName());
             } else {
-                apkError("Illegal class ref: " +
+                report.error("Illegal class ref: " +
                     pubPkgInfo.getName() + "." + classInfo.getName());
                 // could list specific fields/methods used
             }
@@ -320,10 +450,10 @@ public class ApkCheck {
             FieldInfo pubFieldInfo = pubClassInfo.getField(nameAndType);
             if (pubFieldInfo == null) {
                 if (pubClassInfo.isEnum()) {
-                    apkWarning("Enum field ref: " + pubPkgInfo.getName() +
+                    report.warning("Enum field ref: " + pubPkgInfo.getName() +
                         "." + classInfo.getName() + "." + nameAndType);
                 } else {
-                    apkError("Illegal field ref: " + pubPkgInfo.getName() +
+                    report.error("Illegal field ref: " + pubPkgInfo.getName() +
                         "." + classInfo.getName() + "." + nameAndType);
                 }
             }
@@ -338,15 +468,15 @@ public class ApkCheck {
                 pubMethodInfo = pubClassInfo.getMethodIgnoringReturn(nameAndDescr);
                 if (pubMethodInfo == null) {
                     if (pubClassInfo.isAnnotation()) {
-                        apkWarning("Annotation method ref: " +
+                        report.warning("Annotation method ref: " +
                             pubPkgInfo.getName() + "." + classInfo.getName() +
                             "." + nameAndDescr);
                     } else {
-                        apkError("Illegal method ref: " + pubPkgInfo.getName() +
+                        report.error("Illegal method ref: " + pubPkgInfo.getName() +
                             "." + classInfo.getName() + "." + nameAndDescr);
                     }
                 } else {
-                    apkWarning("Possibly covariant method ref: " +
+                    report.warning("Possibly covariant method ref: " +
                         pubPkgInfo.getName() + "." + classInfo.getName() +
                         "." + nameAndDescr);
                 }
@@ -364,27 +494,6 @@ public class ApkCheck {
         return sIgnorablePackages.contains(pkgInfo.getName());
     }
 
-    /**
-     * Prints a warning message about an APK problem.
-     */
-    public static void apkWarning(String msg) {
-        if (sShowWarnings) {
-            System.out.println("(warn) " + sCurrentApk.getDebugString() +
-                ": " + msg);
-        }
-        sCurrentApk.incrWarnings();
-    }
-
-    /**
-     * Prints an error message about an APK problem.
-     */
-    public static void apkError(String msg) {
-        if (sShowErrors) {
-            System.out.println(sCurrentApk.getDebugString() + ": " + msg);
-        }
-        sCurrentApk.incrErrors();
-    }
-
     /**
      * Recursively dumps the contents of the API.  Sort order is not
      * specified.
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apkcheck;
+
+/**
+ * Collects the warnings and errors found while checking one API list.
+ *
+ * Messages are buffered rather than printed so that several APKs can be
+ * checked at once and still be reported in the order they were given.
+ */
+public class ApkReport {
+    private String mName;
+    private boolean mShowWarnings, mShowErrors;
+    private StringBuilder mOutput;
+    private int mWarnings, mErrors;
+
+    /**
+     * Constructs an ApkReport.
+     *
+     * @param name Name to prefix messages with, usually the file name.
+     * @param showWarnings Whether warning messages are recorded.
+     * @param showErrors Whether error messages are recorded.
+     */
+    public ApkReport(String name, boolean showWarnings, boolean showErrors) {
+        mName = name;
+        mShowWarnings = showWarnings;
+        mShowErrors = showErrors;
+        mOutput = new StringBuilder();
+    }
+
+    /**
+     * Returns the name this report was created with.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Records a warning message about an APK problem.
+     */
+    public void warning(String msg) {
+        if (mShowWarnings) {
+            mOutput.append("(warn) ").append(mName).append(": ").append(msg)
+                .append('\n');
+        }
+        mWarnings++;
+    }
+
+    /**
+     * Records an error message about an APK problem.
+     */
+    public void error(String msg) {
+        if (mShowErrors) {
+            mOutput.append(mName).append(": ").append(msg).append('\n');
+        }
+        mErrors++;
+    }
+
+    /**
+     * Returns the number of warnings recorded.
+     */
+    public int getWarningCount() {
+        return mWarnings;
+    }
+
+    /**
+     * Returns the number of errors recorded.
+     */
+    public int getErrorCount() {
+        return mErrors;
+    }
+
+    /**
+     * Returns the messages recorded so far, one per line.
+     */
+    public String getOutput() {
+        return mOutput.toString();
+    }
+}
@@ -17,20 +17,36 @@
 package com.android.apkcheck;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Container representing a class or interface with fields and methods.
+ *
+ * Only the members a class declares itself are stored in it.  Inherited
+ * members are found by walking the class's ancestors, which are resolved
+ * once when the class is flattened, so memory stays linear in the size of
+ * the API rather than growing with the depth of each hierarchy.
  */
 public class ClassInfo {
+    private static final ClassInfo[] NO_ANCESTORS = new ClassInfo[0];
+
     private String mName;
     // methods are hashed on name:descriptor
-    private HashMap<String,MethodInfo> mMethodList;
+    private Map<String,MethodInfo> mMethodList;
+    // methods are also hashed on name:(params), without the return type
+    private Map<String,MethodInfo> mMethodsIgnoringReturn;
     // fields are hashed on name:type
-    private HashMap<String,FieldInfo> mFieldList;
+    private Map<String,FieldInfo> mFieldList;
+
+    // superclasses and interfaces, direct and indirect, without duplicates
+    private ClassInfo[] mAncestors = NO_ANCESTORS;
 
     private String mSuperclassName;
 
@@ -38,7 +54,7 @@ public class ClassInfo {
     private String mIsStatic;
 
     // holds the name of the superclass and all declared interfaces
-    private ArrayList<String> mSuperNames;
+    private List<String> mSuperNames;
 
     // is this an enumerated type?
     private boolean mIsEnum;
@@ -60,6 +76,7 @@ public class ClassInfo {
     public ClassInfo(String className, String superclassName, String isStatic) {
         mName = className;
         mMethodList = new HashMap<String,MethodInfo>();
+        mMethodsIgnoringReturn = new HashMap<String,MethodInfo>();
         mFieldList = new HashMap<String,FieldInfo>();
         mSuperNames = new ArrayList<String>();
         mIsStatic = isStatic;
@@ -132,16 +149,20 @@ public class ClassInfo {
     }
 
     /**
-     * Retrives a field from the list.
+     * Retrives a field from the list, or from a superclass or interface.
      *
      * @param nameAndType fieldName:type
      */
     public FieldInfo getField(String nameAndType) {
-        return mFieldList.get(nameAndType);
+        FieldInfo fieldInfo = mFieldList.get(nameAndType);
+        for (int i = 0; fieldInfo == null && i < mAncestors.length; i++) {
+            fieldInfo = mAncestors[i].mFieldList.get(nameAndType);
+        }
+        return fieldInfo;
     }
 
     /**
-     * Returns an iterator over all known fields.
+     * Returns an iterator over the fields declared by this class.
      */
     public Iterator<FieldInfo> getFieldIterator() {
         return mFieldList.values().iterator();
@@ -151,23 +172,29 @@ public class ClassInfo {
      * Adds a method to the list.
      */
     public void addMethod(MethodInfo methInfo) {
-        mMethodList.put(methInfo.getNameAndDescriptor(), methInfo);
+        String nameAndDescr = methInfo.getNameAndDescriptor();
+        mMethodList.put(nameAndDescr, methInfo);
+        mMethodsIgnoringReturn.put(stripReturn(nameAndDescr), methInfo);
     }
 
     /**
-     * Returns an iterator over all known methods.
+     * Returns an iterator over the methods declared by this class.
      */
     public Iterator<MethodInfo> getMethodIterator() {
         return mMethodList.values().iterator();
     }
 
     /**
-     * Retrieves a method from the list.
+     * Retrieves a method from the list, or from a superclass or interface.
      *
      * @param nameAndDescr methodName:descriptor
      */
     public MethodInfo getMethod(String nameAndDescr) {
-        return mMethodList.get(nameAndDescr);
+        MethodInfo methInfo = mMethodList.get(nameAndDescr);
+        for (int i = 0; methInfo == null && i < mAncestors.length; i++) {
+            methInfo = mAncestors[i].mMethodList.get(nameAndDescr);
+        }
+        return methInfo;
     }
 
     /**
@@ -182,17 +209,21 @@ public class ClassInfo {
      * @param nameAndDescr methodName:descriptor
      */
     public MethodInfo getMethodIgnoringReturn(String nameAndDescr) {
-        String shortKey = nameAndDescr.substring(0, nameAndDescr.indexOf(')')+1);
-
-        Iterator<MethodInfo> iter = getMethodIterator();
-        while (iter.hasNext()) {
-            MethodInfo methInfo = iter.next();
-            String nad = methInfo.getNameAndDescriptor();
-            if (nad.startsWith(shortKey))
-                return methInfo;
+        String shortKey = stripReturn(nameAndDescr);
+
+        MethodInfo methInfo = mMethodsIgnoringReturn.get(shortKey);
+        for (int i = 0; methInfo == null && i < mAncestors.length; i++) {
+            methInfo = mAncestors[i].mMethodsIgnoringReturn.get(shortKey);
         }
+        return methInfo;
+    }
 
-        return null;
+    /**
+     * Strips the return type from a methodName:descriptor key, leaving
+     * methodName:(params).
+     */
+    private static String stripReturn(String nameAndDescr) {
+        return nameAndDescr.substring(0, nameAndDescr.indexOf(')')+1);
     }
 
     /**
@@ -210,15 +241,17 @@ public class ClassInfo {
     }
 
     /**
-     * Flattens a class.  This involves copying all methods and fields
-     * declared by the superclass and interfaces (and, recursively, their
-     * superclasses and interfaces) into the local structure.
+     * Flattens a class.  This involves resolving the superclass and
+     * interfaces (and, recursively, their superclasses and interfaces)
+     * so that the methods and fields they declare can be found from here.
      *
      * The public API file must be fully parsed before calling here.
      *
      * This also detects if we're an Enum or Annotation.
+     *
+     * @param report Receives warnings about missing superclasses.
      */
-    public void flattenClass(ApiList apiList) {
+    public void flattenClass(ApiList apiList, ApkReport report) {
         if (mFlattened)
             return;
 
@@ -259,32 +292,70 @@ public class ClassInfo {
         }
 
         /*
-         * Flatten our superclass and interfaces.
+         * Flatten our superclass and interfaces.  Each ancestor only appears
+         * once, at its nearest position, even if it's reachable through more
+         * than one path.
          */
+        LinkedHashSet<ClassInfo> ancestors = new LinkedHashSet<ClassInfo>();
         for (int i = 0; i < mSuperNames.size(); i++) {
             /*
              * The contents of mSuperNames are in an ambiguous form.
              * Normalize it to binary form before working with it.
              */
-            String interfaceName = TypeUtils.ambiguousToBinaryName(mSuperNames.get(i),
-                    apiList);
+            String interfaceName = apiList.getBinaryName(mSuperNames.get(i));
             ClassInfo classInfo = lookupClass(interfaceName, apiList);
             if (classInfo == null) {
-                ApkCheck.apkWarning("Class " + interfaceName +
+                report.warning("Class " + interfaceName +
                     " not found (super of " + mName + ")");
                 continue;
             }
 
             /* flatten it */
-            classInfo.flattenClass(apiList);
+            classInfo.flattenClass(apiList, report);
 
-            /* copy everything from it in here */
-            mergeFrom(classInfo);
+            /* remember it and everything it inherits */
+            ancestors.add(classInfo);
+            Collections.addAll(ancestors, classInfo.mAncestors);
+        }
+        if (!ancestors.isEmpty()) {
+            mAncestors = ancestors.toArray(new ClassInfo[ancestors.size()]);
         }
 
         mFlattened = true;
     }
 
+    /**
+     * Returns the superclasses and interfaces, direct and indirect, that
+     * were resolved when the class was flattened.
+     */
+    ClassInfo[] getAncestors() {
+        assert mFlattened;
+        return mAncestors;
+    }
+
+    /**
+     * Marks the class as flattened, using the results of an earlier
+     * flattenClass() call.  The members must already be normalized.
+     */
+    void setFlattened(boolean isEnum, boolean isAnnotation,
+            ClassInfo[] ancestors) {
+        mIsEnum = isEnum;
+        mIsAnnotation = isAnnotation;
+        mAncestors = ancestors.length == 0 ? NO_ANCESTORS : ancestors;
+        mFlattened = true;
+    }
+
+    /**
+     * Makes the field, method, and superclass lists read-only.
+     */
+    void freeze() {
+        mFieldList = Collections.unmodifiableMap(mFieldList);
+        mMethodList = Collections.unmodifiableMap(mMethodList);
+        mMethodsIgnoringReturn =
+            Collections.unmodifiableMap(mMethodsIgnoringReturn);
+        mSuperNames = Collections.unmodifiableList(mSuperNames);
+    }
+
     /**
      * Normalizes the type names used in field and method descriptors.
      *
@@ -308,36 +379,20 @@ public class ClassInfo {
         mFieldList = tmpFieldList;
 
         HashMap<String,MethodInfo> tmpMethodList = new HashMap<String,MethodInfo>();
+        HashMap<String,MethodInfo> tmpShortList = new HashMap<String,MethodInfo>();
         keyIter = mMethodList.keySet().iterator();
         while (keyIter.hasNext()) {
             String key = keyIter.next();
             MethodInfo methodInfo = mMethodList.get(key);
             methodInfo.normalizeTypes(apiList);
-            tmpMethodList.put(methodInfo.getNameAndDescriptor(), methodInfo);
+            String nameAndDescr = methodInfo.getNameAndDescriptor();
+            tmpMethodList.put(nameAndDescr, methodInfo);
+            tmpShortList.put(stripReturn(nameAndDescr), methodInfo);
         }
         mMethodList = tmpMethodList;
+        mMethodsIgnoringReturn = tmpShortList;
     }
 
-    /**
-     * Merges the fields and methods from "otherClass" into this class.
-     *
-     * Redundant entries will be merged.  We don't specify who the winner
-     * will be.
-     */
-    private void mergeFrom(ClassInfo otherClass) {
-        /*System.out.println("merging into " + getName() + ": fields=" +
-            mFieldList.size() + "/" + otherClass.mFieldList.size() +
-            ", methods=" +
-            mMethodList.size() + "/" + otherClass.mMethodList.size());*/
-
-        mFieldList.putAll(otherClass.mFieldList);
-        mMethodList.putAll(otherClass.mMethodList);
-
-        /*System.out.println("  now fields=" + mFieldList.size() +
-            ", methods=" + mMethodList.size());*/
-    }
-
-
     /**
      * Finds the named class in the ApiList.
      *
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apkcheck;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts external references from DEX files, so that an APK can be
+ * checked without first being converted to an XML description.
+ *
+ * The result is what dexdeps would have written: every class that is
+ * referenced but not defined, along with the fields and methods used on
+ * it.  Only the header and the type, proto, field, method, and class
+ * definition tables are read; code is never touched.  Each classes*.dex
+ * entry in an APK is decoded on its own thread, and a class defined in
+ * any of them counts as internal to all of them.
+ */
+public class DexReader {
+    private static final Pattern DEX_ENTRY =
+        Pattern.compile("classes[0-9]*\\.dex");
+
+    private static final int ZIP_MAGIC = 0x504b0304;    // "PK\003\004"
+    private static final int DEX_MAGIC = 0x6465780a;    // "dex\n"
+    private static final int ENDIAN_CONSTANT = 0x12345678;
+
+    /* header offsets */
+    private static final int HDR_ENDIAN_TAG = 40;
+    private static final int HDR_STRING_IDS = 56;
+    private static final int HDR_TYPE_IDS = 64;
+    private static final int HDR_PROTO_IDS = 72;
+    private static final int HDR_FIELD_IDS = 80;
+    private static final int HDR_METHOD_IDS = 88;
+    private static final int HDR_CLASS_DEFS = 96;
+    private static final int HEADER_SIZE = 112;
+
+    private DexReader() {}
+
+    /**
+     * Returns true if the file is an APK (or any other zip archive) or
+     * a bare DEX file, rather than an XML description.
+     */
+    public static boolean isDex(String fileName) {
+        try {
+            int magic = readMagic(fileName);
+            return magic == ZIP_MAGIC || magic == DEX_MAGIC;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the external references of an APK or DEX file into an
+     * API list.
+     */
+    public static void read(ApiList apiList, String fileName)
+            throws IOException {
+        List<Refs> dexRefs = new ArrayList<Refs>();
+        if (readMagic(fileName) == DEX_MAGIC) {
+            FileInputStream in = new FileInputStream(fileName);
+            try {
+                dexRefs.add(new Refs(fileName, readFully(in)));
+            } finally {
+                in.close();
+            }
+        } else {
+            dexRefs.addAll(readZip(fileName));
+        }
+
+        /* classes defined in any of the DEX files are internal */
+        HashSet<String> internal = new HashSet<String>();
+        for (Refs refs : dexRefs)
+            internal.addAll(refs.mDefined);
+        for (Refs refs : dexRefs)
+            refs.addTo(apiList, internal);
+    }
+
+    /**
+     * Decodes every classes*.dex entry of a zip archive, in parallel.
+     * Results come back in entry order.
+     */
+    private static List<Refs> readZip(String fileName) throws IOException {
+        ZipFile zipFile = new ZipFile(fileName);
+        try {
+            /*
+             * Entries are read sequentially, since ZipFile streams share
+             * one file handle, and decoded on the common pool.  That pool
+             * is separate from the one running whole APKs, so waiting on
+             * it here can't starve it.
+             */
+            List<Future<Refs>> futures = new ArrayList<Future<Refs>>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!DEX_ENTRY.matcher(entry.getName()).matches())
+                    continue;
+
+                final String name = fileName + "!" + entry.getName();
+                InputStream in = zipFile.getInputStream(entry);
+                final byte[] data;
+                try {
+                    data = readFully(in);
+                } finally {
+                    in.close();
+                }
+                futures.add(ForkJoinPool.commonPool().submit(
+                    new Callable<Refs>() {
+                        public Refs call() throws IOException {
+                            return new Refs(name, data);
+                        }
+                    }));
+            }
+            if (futures.isEmpty())
+                throw new IOException("no classes.dex in " + fileName);
+
+            List<Refs> results = new ArrayList<Refs>();
+            for (Future<Refs> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (InterruptedException ie) {
+                    throw new IOException("interrupted reading " + fileName);
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    throw new IOException(String.valueOf(cause));
+                }
+            }
+            return results;
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * Returns the first four bytes of the file as a big-endian int.
+     */
+    private static int readMagic(String fileName) throws IOException {
+        FileInputStream in = new FileInputStream(fileName);
+        try {
+            byte[] header = new byte[4];
+            if (in.read(header) != 4)
+                return 0;
+            return ByteBuffer.wrap(header).getInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[65536];
+        int count;
+        while ((count = in.read(buf)) > 0)
+            out.write(buf, 0, count);
+        return out.toByteArray();
+    }
+
+    /**
+     * References found in a single DEX file.
+     */
+    private static class Refs {
+        /* descriptors of classes defined here */
+        final HashSet<String> mDefined = new HashSet<String>();
+
+        /* descriptors of every class type, in type_ids order */
+        final List<String> mTypes = new ArrayList<String>();
+
+        /* parallel lists: class descriptor, name:type key */
+        final List<String> mFieldClasses = new ArrayList<String>();
+        final List<String> mFieldKeys = new ArrayList<String>();
+
+        /* parallel lists: class descriptor, name:descriptor key */
+        final List<String> mMethodClasses = new ArrayList<String>();
+        final List<String> mMethodKeys = new ArrayList<String>();
+
+        /**
+         * Decodes the tables of a DEX file held in memory.
+         */
+        Refs(String name, byte[] data) throws IOException {
+            if (data.length < HEADER_SIZE ||
+                    ByteBuffer.wrap(data).getInt(0) != DEX_MAGIC) {
+                throw new IOException(name + " is not a DEX file");
+            }
+            ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt(HDR_ENDIAN_TAG) != ENDIAN_CONSTANT)
+                throw new IOException(name + " has unsupported byte order");
+
+            try {
+                decode(buf);
+            } catch (IndexOutOfBoundsException ioobe) {
+                throw new IOException(name + " is truncated or corrupt");
+            }
+        }
+
+        private void decode(ByteBuffer buf) {
+            String[] strings = new String[buf.getInt(HDR_STRING_IDS)];
+            int stringIdsOff = buf.getInt(HDR_STRING_IDS + 4);
+            for (int i = 0; i < strings.length; i++)
+                strings[i] = readString(buf, buf.getInt(stringIdsOff + i * 4));
+
+            String[] types = new String[buf.getInt(HDR_TYPE_IDS)];
+            int typeIdsOff = buf.getInt(HDR_TYPE_IDS + 4);
+            for (int i = 0; i < types.length; i++) {
+                types[i] = strings[buf.getInt(typeIdsOff + i * 4)];
+                String classType = classType(types[i]);
+                if (classType != null)
+                    mTypes.add(classType);
+            }
+
+            int protoCount = buf.getInt(HDR_PROTO_IDS);
+            int protoIdsOff = buf.getInt(HDR_PROTO_IDS + 4);
+            String[] protos = new String[protoCount];
+            for (int i = 0; i < protoCount; i++) {
+                int protoOff = protoIdsOff + i * 12;
+                StringBuilder descr = new StringBuilder("(");
+                int paramsOff = buf.getInt(protoOff + 8);
+                if (paramsOff != 0) {
+                    int size = buf.getInt(paramsOff);
+                    for (int j = 0; j < size; j++)
+                        descr.append(types[buf.getShort(paramsOff + 4 + j * 2) & 0xffff]);
+                }
+                descr.append(')').append(types[buf.getInt(protoOff + 4)]);
+                protos[i] = descr.toString();
+            }
+
+            int fieldCount = buf.getInt(HDR_FIELD_IDS);
+            int fieldIdsOff = buf.getInt(HDR_FIELD_IDS + 4);
+            for (int i = 0; i < fieldCount; i++) {
+                int fieldOff = fieldIdsOff + i * 8;
+                mFieldClasses.add(types[buf.getShort(fieldOff) & 0xffff]);
+                mFieldKeys.add(strings[buf.getInt(fieldOff + 4)] + ":" +
+                    types[buf.getShort(fieldOff + 2) & 0xffff]);
+            }
+
+            int methodCount = buf.getInt(HDR_METHOD_IDS);
+            int methodIdsOff = buf.getInt(HDR_METHOD_IDS + 4);
+            for (int i = 0; i < methodCount; i++) {
+                int methodOff = methodIdsOff + i * 8;
+                mMethodClasses.add(types[buf.getShort(methodOff) & 0xffff]);
+                mMethodKeys.add(strings[buf.getInt(methodOff + 4)] + ":" +
+                    protos[buf.getShort(methodOff + 2) & 0xffff]);
+            }
+
+            int classCount = buf.getInt(HDR_CLASS_DEFS);
+            int classDefsOff = buf.getInt(HDR_CLASS_DEFS + 4);
+            for (int i = 0; i < classCount; i++)
+                mDefined.add(types[buf.getInt(classDefsOff + i * 32)]);
+        }
+
+        /**
+         * Adds the references to classes that aren't internal.
+         */
+        void addTo(ApiList apiList, HashSet<String> internal) {
+            for (String type : mTypes) {
+                if (!internal.contains(type))
+                    getOrCreateClass(apiList, type);
+            }
+            for (int i = 0; i < mFieldClasses.size(); i++) {
+                String type = mFieldClasses.get(i);
+                if (type.charAt(0) == 'L' && !internal.contains(type)) {
+                    getOrCreateClass(apiList, type).addField(
+                        FieldInfo.fromKey(mFieldKeys.get(i)));
+                }
+            }
+            for (int i = 0; i < mMethodClasses.size(); i++) {
+                String type = mMethodClasses.get(i);
+                if (type.charAt(0) == 'L' && !internal.contains(type)) {
+                    getOrCreateClass(apiList, type).addMethod(
+                        MethodInfo.fromKey(mMethodKeys.get(i)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the class a type refers to, looking through arrays, or
+     * null for primitive types.
+     */
+    private static String classType(String descriptor) {
+        int start = 0;
+        while (descriptor.charAt(start) == '[')
+            start++;
+        if (descriptor.charAt(start) != 'L')
+            return null;
+        return descriptor.substring(start);
+    }
+
+    /**
+     * Finds or creates the class for a descriptor like "Lfoo/Bar$Baz;".
+     */
+    private static ClassInfo getOrCreateClass(ApiList apiList,
+            String descriptor) {
+        String binaryName = descriptor.substring(1, descriptor.length() - 1);
+        int lastSlash = binaryName.lastIndexOf('/');
+        String pkgName = lastSlash < 0 ? "" :
+            binaryName.substring(0, lastSlash).replace('/', '.');
+        PackageInfo pkgInfo = apiList.getOrCreatePackage(pkgName);
+        return pkgInfo.getOrCreateClass(binaryName.substring(lastSlash + 1),
+            null, null);
+    }
+
+    /**
+     * Reads a string_data_item: a ULEB128 length in UTF-16 units, then
+     * modified UTF-8 terminated by a zero byte.
+     */
+    private static String readString(ByteBuffer buf, int offset) {
+        int utf16Size = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buf.get(offset++);
+            utf16Size |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        char[] chars = new char[utf16Size];
+        for (int i = 0; i < utf16Size; i++) {
+            int c = buf.get(offset++) & 0xff;
+            if (c >= 0xe0) {
+                c = ((c & 0x0f) << 12) | ((buf.get(offset) & 0x3f) << 6) |
+                    (buf.get(offset + 1) & 0x3f);
+                offset += 2;
+            } else if (c >= 0xc0) {
+                c = ((c & 0x1f) << 6) | (buf.get(offset++) & 0x3f);
+            }
+            chars[i] = (char) c;
+        }
+        return new String(chars);
+    }
+}
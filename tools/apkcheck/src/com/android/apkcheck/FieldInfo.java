@@ -36,6 +36,19 @@ public class FieldInfo {
         mType = type;
     }
 
+    /**
+     * Constructs a FieldInfo from a name:type key with an already
+     * normalized type, as stored in an API snapshot.
+     */
+    static FieldInfo fromKey(String nameAndType) {
+        int colon = nameAndType.indexOf(':');
+        FieldInfo fieldInfo = new FieldInfo(nameAndType.substring(0, colon),
+            null);
+        fieldInfo.mNameAndType = nameAndType;
+        fieldInfo.mTypeNormalized = true;
+        return fieldInfo;
+    }
+
     /**
      * Returns the combined name and type.  This value is used as a hash
      * table key.
@@ -51,12 +64,9 @@ public class FieldInfo {
      */
     public void normalizeType(ApiList apiList) {
         if (!mTypeNormalized) {
-            String type = TypeUtils.ambiguousToBinaryName(mType, apiList);
-            if (!type.equals(mType)) {
-                /* name changed, force regen on name+type */
-                mType = type;
-                mNameAndType = null;
-            }
+            mType = apiList.getBinaryName(mType);
+            mNameAndType = apiList.intern(mName + ":" +
+                apiList.getDescriptor(mType));
             mTypeNormalized = true;
         }
     }
@@ -39,25 +39,47 @@ public class MethodInfo {
         mParameters = new ArrayList<String>();
     }
 
+    /**
+     * Constructs a MethodInfo from a name:descriptor key with already
+     * normalized types, as stored in an API snapshot.  The parameter
+     * list is not reconstructed.
+     */
+    static MethodInfo fromKey(String nameAndDescr) {
+        int colon = nameAndDescr.indexOf(':');
+        MethodInfo methInfo = new MethodInfo(nameAndDescr.substring(0, colon),
+            null);
+        methInfo.mNameAndDescriptor = nameAndDescr;
+        methInfo.mParametersNormalized = true;
+        return methInfo;
+    }
+
     /**
      * Returns the method signature.  This is generated when needed.
      */
     public String getNameAndDescriptor() {
-        if (mNameAndDescriptor == null) {
-            StringBuilder newSig = new StringBuilder(mName);
-            newSig.append(":(");
-            for (int i = 0; i < mParameters.size(); i++) {
-                String humanType = mParameters.get(i);
-                String sigType = TypeUtils.typeToDescriptor(humanType);
-                newSig.append(sigType);
-            }
-            newSig.append(")");
-            newSig.append(TypeUtils.typeToDescriptor(mReturn));
-            mNameAndDescriptor = newSig.toString();
-        }
+        if (mNameAndDescriptor == null)
+            mNameAndDescriptor = buildNameAndDescriptor(null);
         return mNameAndDescriptor;
     }
 
+    /**
+     * Builds the method signature, using the list's memo tables if one
+     * is given.
+     */
+    private String buildNameAndDescriptor(ApiList apiList) {
+        StringBuilder newSig = new StringBuilder(mName);
+        newSig.append(":(");
+        for (int i = 0; i < mParameters.size(); i++) {
+            String humanType = mParameters.get(i);
+            newSig.append(apiList != null ? apiList.getDescriptor(humanType) :
+                TypeUtils.typeToDescriptor(humanType));
+        }
+        newSig.append(")");
+        newSig.append(apiList != null ? apiList.getDescriptor(mReturn) :
+            TypeUtils.typeToDescriptor(mReturn));
+        return newSig.toString();
+    }
+
     /**
      * Adds a parameter to the method.  The "type" is a primitive or
      * object type, formatted in human-centric form.  For now we just
@@ -79,15 +101,14 @@ public class MethodInfo {
      */
     public void normalizeTypes(ApiList apiList) {
         if (!mParametersNormalized) {
-            mReturn = TypeUtils.ambiguousToBinaryName(mReturn, apiList);
+            mReturn = apiList.getBinaryName(mReturn);
 
             for (int i = 0; i < mParameters.size(); i++) {
-                String fixed = TypeUtils.ambiguousToBinaryName(mParameters.get(i),
-                        apiList);
+                String fixed = apiList.getBinaryName(mParameters.get(i));
                 mParameters.set(i, fixed);
             }
 
-            mNameAndDescriptor = null;      // force regen
+            mNameAndDescriptor = apiList.intern(buildNameAndDescriptor(apiList));
             mParametersNormalized = true;
         }
     }
@@ -16,15 +16,17 @@
 
 package com.android.apkcheck;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Container representing a package of classes and interfaces.
  */
 public class PackageInfo {
     private String mName;
-    private HashMap<String,ClassInfo> mClassList;
+    private Map<String,ClassInfo> mClassList;
 
     public PackageInfo(String name) {
         mName = name;
@@ -69,6 +71,27 @@ public class PackageInfo {
         return classInfo;
     }
 
+    /**
+     * Adds a class whose name is already in binary form.
+     *
+     * @return the class that was added
+     */
+    ClassInfo addClass(ClassInfo classInfo) {
+        mClassList.put(classInfo.getName(), classInfo);
+        return classInfo;
+    }
+
+    /**
+     * Makes this package and its classes read-only.
+     */
+    void freeze() {
+        Iterator<ClassInfo> iter = getClassIterator();
+        while (iter.hasNext()) {
+            iter.next().freeze();
+        }
+        mClassList = Collections.unmodifiableMap(mClassList);
+    }
+
     /**
      * Returns an iterator for the set of classes in this package.
      */
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Compares {@link Excludes} against running each pattern on its own over a
+ * synthetic path corpus. Fails if the two ever disagree.
+ *
+ * <p>Usage: idegen-excludes-benchmark [excluded-paths] [paths]
+ */
+class ExcludesBenchmark {
+
+    private static final String[] TOP_LEVEL = { "art", "bionic", "build",
+            "dalvik", "development", "external", "frameworks", "out",
+            "packages", "prebuilt", "prebuilts", "vendor" };
+
+    private static final String[] COMPONENTS = { "src", "java", "com",
+            "android", "tests", "apps", "tools", "junit", "layoutlib", "base",
+            "common", "target", "obj", "R", "libs", "android_stubs", "emma",
+            "intermediates", "core", "res" };
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        File excludedPaths = new File(args.length > 0 ? args[0]
+                : "development/tools/idegen/excluded-paths");
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        Configuration.parseFile(excludedPaths, patterns);
+        List<String> paths = corpus(count, patterns);
+        Excludes excludes = new Excludes(patterns);
+
+        int excluded = 0;
+        for (String path : paths) {
+            boolean expected = naive(patterns, path);
+            if (excludes.exclude(path) != expected) {
+                throw new AssertionError("Mismatch for " + path
+                        + ", expected " + expected);
+            }
+            if (expected) {
+                excluded++;
+            }
+        }
+        Log.info(patterns.size() + " patterns, " + paths.size() + " paths, "
+                + excluded + " excluded");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int naiveHits = 0;
+            for (String path : paths) {
+                if (naive(patterns, path)) {
+                    naiveHits++;
+                }
+            }
+            long naiveNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int hits = 0;
+            for (String path : paths) {
+                if (excludes.exclude(path)) {
+                    hits++;
+                }
+            }
+            long nanos = System.nanoTime() - start;
+
+            Log.info("Round " + round + ": patterns " + naiveNanos / 1000000
+                    + "ms, compiled " + nanos / 1000000 + "ms ("
+                    + naiveHits + "/" + hits + ")");
+        }
+    }
+
+    /**
+     * The original matching loop.
+     */
+    private static boolean naive(List<Pattern> patterns, String path) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(path).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generates random directory and .jar paths, along with the literal text
+     * of every pattern so that each one gets exercised.
+     */
+    private static List<String> corpus(int count, List<Pattern> patterns) {
+        Random random = new Random(0);
+        List<String> paths = new ArrayList<String>(count + patterns.size());
+        for (Pattern pattern : patterns) {
+            paths.add(pattern.pattern().replaceAll("[\\^$\\\\]", ""));
+        }
+        StringBuilder path = new StringBuilder();
+        while (paths.size() < count) {
+            path.setLength(0);
+            path.append(TOP_LEVEL[random.nextInt(TOP_LEVEL.length)]);
+            int depth = random.nextInt(8);
+            for (int i = 0; i < depth; i++) {
+                path.append('/')
+                        .append(COMPONENTS[random.nextInt(COMPONENTS.length)]);
+            }
+            if (random.nextInt(10) == 0) {
+                path.append(".jar");
+            }
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+}
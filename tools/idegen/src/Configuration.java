@@ -18,8 +18,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.BufferedReader;
 import java.io.FileReader;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -27,6 +26,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.SortedSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
 
 /**
@@ -53,6 +54,25 @@ public class Configuration {
     /** The vendor directory. */
     private static final String VENDOR_PATH = "./vendor/";
 
+    /** System property overriding the number of traversal threads. */
+    private static final String THREADS_PROPERTY = "idegen.threads";
+
+    /**
+     * Traversal is dominated by file system calls rather than CPU, so use
+     * more threads than cores to keep the disk busy.
+     */
+    private static final int DEFAULT_THREADS =
+            Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * System property overriding where the traversal snapshot is kept. Set
+     * it to an empty string to always traverse the whole tree.
+     */
+    private static final String SNAPSHOT_PROPERTY = "idegen.snapshot";
+
+    /** Default snapshot location, only used if the out directory exists. */
+    private static final String DEFAULT_SNAPSHOT = "out/idegen.snapshot";
+
     /**
      * Constructs a Configuration by traversing the directory tree, looking
      * for .java and .jar files and identifying source roots.
@@ -74,10 +94,27 @@ public class Configuration {
         SortedSet<File> excludedDirs = new TreeSet<File>();
         SortedSet<File> sourceRoots = new TreeSet<File>();
 
-        traverse(new File("."), sourceRoots, jarFiles, excludedDirs, excludes);
+        File snapshotFile = snapshotFile();
+        Snapshot snapshot = snapshotFile != null
+                ? Snapshot.read(snapshotFile) : new Snapshot();
+
+        stopwatch.reset("Read snapshot");
+
+        traverse(new File("."), snapshot, sourceRoots, jarFiles, excludedDirs,
+                excludes);
 
         stopwatch.reset("Traversed tree");
 
+        if (snapshotFile != null) {
+            try {
+                snapshot.write(snapshotFile);
+            } catch (IOException e) {
+                // Only costs a full traversal next time.
+                Log.info("Couldn't write snapshot " + snapshotFile + ": " + e);
+            }
+            stopwatch.reset("Wrote snapshot");
+        }
+
         Log.debug(sourceRoots.size() + " source roots");
         Log.debug(jarFiles.size() + " jar files");
         Log.debug(excludedDirs.size() + " excluded dirs");
@@ -87,6 +124,19 @@ public class Configuration {
         this.excludedDirs = Collections.unmodifiableSortedSet(excludedDirs);
     }
 
+    /**
+     * Returns the file to keep the traversal snapshot in, or null if
+     * snapshots are disabled.
+     */
+    private static File snapshotFile() {
+        String path = System.getProperty(SNAPSHOT_PROPERTY);
+        if (path == null) {
+            File file = new File(DEFAULT_SNAPSHOT);
+            return file.getParentFile().isDirectory() ? file : null;
+        }
+        return path.isEmpty() ? null : new File(path);
+    }
+
     /**
      * Reads excluded path files.
      */
@@ -126,86 +176,39 @@ public class Configuration {
     }
 
     /**
-     * Recursively finds .java source roots, .jar files, and excluded
-     * directories.
+     * Finds .java source roots, .jar files, and excluded directories under
+     * the given directory, one fork-join task per directory. Entries are
+     * visited in name order so the result doesn't depend on scheduling.
+     * Unmodified directories are looked up in the snapshot rather than
+     * listed again.
      */
-    private static void traverse(File directory, Set<File> sourceRoots,
+    private static void traverse(File directory, Snapshot snapshot,
+            Set<File> sourceRoots,
             Collection<File> jarFiles, Collection<File> excludedDirs,
             Excludes excludes) throws IOException {
-        /*
-         * Note it would be faster to stop traversing a source root as soon as
-         * we encounter the first .java file, but it appears we have nested
-         * source roots in our generated source directory (specifically,
-         * R.java files and aidl .java files don't share the same source
-         * root).
-         */
-
-        boolean firstJavaFile = true;
-        File[] files = directory.listFiles();
-        if (files == null) {
-            return;
-        }
-        for (File file : files) {
-            // Trim preceding "./" from path.
-            String path = file.getPath().substring(2);
-
-            // Skip nonexistent files/diretories, e.g. broken symlinks.
-            if (!file.exists()) {
-                Log.debug("Skipped nonexistent: " + path);
-                continue;
-            }
-
-            if (Files.isSymbolicLink(file.toPath())) {
-                Path target = Files.readSymbolicLink(file.toPath()).normalize();
-                if (target.startsWith("") || target.startsWith(".")
-                    || target.startsWith("..")) {
-                    // Don't recurse symbolic link that targets to parent
-                    // or current directory.
-                    Log.debug("Skipped: " + path);
-                    continue;
-                }
-            }
-
-            if (file.isDirectory()) {
-                // Traverse nested directories.
-                if (excludes.exclude(path)) {
-                    // Don't recurse into excluded dirs.
-                    Log.debug("Excluding: " + path);
-                    excludedDirs.add(file);
-                } else {
-                    traverse(file, sourceRoots, jarFiles, excludedDirs,
-                            excludes);
-                }
-            } else if (path.endsWith(".java")) {
-                // Keep track of source roots for .java files.
-                // Do not check excludes in this branch.
-                if (firstJavaFile) {
-                    // Only parse one .java file per directory.
-                    firstJavaFile = false;
-
-                    File sourceRoot = rootOf(file);
-                    if (sourceRoot != null) {
-                        sourceRoots.add(sourceRoot);
-                    }
-                }
-            } else if (path.endsWith(".jar")) {
-                // Keep track of .jar files.
-                if (excludes.exclude(path)) {
-                    Log.debug("Skipped: " + file);
-                } else {
-                    jarFiles.add(file);
-                }
-            }
+        Set<File> concurrentSourceRoots = new ConcurrentSkipListSet<File>();
+        Set<File> concurrentExcludedDirs = new ConcurrentSkipListSet<File>();
+        ForkJoinPool pool = new ForkJoinPool(
+                Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS));
+        try {
+            jarFiles.addAll(pool.invoke(new TraverseTask(directory.toPath(),
+                    TraverseTask.UNKNOWN, snapshot, concurrentSourceRoots,
+                    concurrentExcludedDirs, excludes)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
         }
+        sourceRoots.addAll(concurrentSourceRoots);
+        excludedDirs.addAll(concurrentExcludedDirs);
     }
 
     /**
-     * Determines the source root for a given .java file. Returns null
-     * if the file doesn't have a package or if the file isn't in the
-     * correct directory structure.
+     * Determines the source root for a given .java file and the package it
+     * declares. Returns null if the file doesn't have a package or if the
+     * file isn't in the correct directory structure.
      */
-    private static File rootOf(File javaFile) throws IOException {
-        String packageName = parsePackageName(javaFile);
+    static File rootOf(File javaFile, String packageName) {
         if (packageName == null) {
             // No package.
             // TODO: Treat this as a source root?
@@ -228,7 +231,7 @@ public class Configuration {
      * Reads a Java file and parses out the package name. Returns null if none
      * found.
      */
-    private static String parsePackageName(File file) throws IOException {
+    static String parsePackageName(File file) throws IOException {
         try (BufferedReader in = new BufferedReader(new FileReader(file))) {
             String line;
             while ((line = in.readLine()) != null) {
@@ -14,32 +14,229 @@
  * limitations under the License.
  */
 
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Decides whether or not to exclude certain paths.
+ *
+ * <p>Most excludes are plain paths anchored with "^" and optionally "$". Those
+ * are matched with a single walk over a trie of path characters. Unanchored
+ * literals are matched with {@link String#contains}, and whatever is left is
+ * joined into one alternation so that each path is only run through the regex
+ * engine once. A path is excluded if any of the three matches, which is
+ * exactly when one of the original patterns would have found a match.
  */
 public class Excludes {
 
-    private final List<Pattern> patterns;
+    /** Characters with special meaning outside of an escape. */
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    /** Patterns anchored at the start of the path. */
+    private final Node trie = new Node();
+
+    /** Unanchored literal patterns. */
+    private final List<String> substrings = new ArrayList<String>();
+
+    /** Everything else. May be empty. */
+    private final List<Pattern> regexes = new ArrayList<Pattern>();
 
     /**
      * Constructs a set of excludes matching the given patterns.
      */
     public Excludes(List<Pattern> patterns) {
-        this.patterns = patterns;
+        List<Pattern> combinable = new ArrayList<Pattern>();
+        for (Pattern pattern : patterns) {
+            if (pattern.flags() != 0 || !addLiteral(pattern.pattern())) {
+                if (pattern.flags() == 0 && canCombine(pattern.pattern())) {
+                    combinable.add(pattern);
+                } else {
+                    regexes.add(pattern);
+                }
+            }
+        }
+
+        if (combinable.size() == 1) {
+            regexes.add(combinable.get(0));
+        } else if (!combinable.isEmpty()) {
+            StringBuilder alternation = new StringBuilder();
+            for (Pattern pattern : combinable) {
+                if (alternation.length() > 0) {
+                    alternation.append('|');
+                }
+                alternation.append("(?:").append(pattern.pattern()).append(')');
+            }
+            try {
+                regexes.add(Pattern.compile(alternation.toString()));
+            } catch (PatternSyntaxException e) {
+                // E.g. the same named group appears in two patterns.
+                regexes.addAll(combinable);
+            }
+        }
     }
 
     /**
      * Returns true if the given path should be excluded.
      */
     public boolean exclude(String path) {
-        for (Pattern pattern : patterns) {
-            if (pattern.matcher(path).find()) {
+        if (trie.matches(path)) {
+            return true;
+        }
+        for (String substring : substrings) {
+            if (path.contains(substring)) {
+                return true;
+            }
+        }
+        for (Pattern regex : regexes) {
+            if (regex.matcher(path).find()) {
                 return true;
             }
         }
         return false;
     }
+
+    /**
+     * Adds the given regular expression to the trie or the substring list if
+     * it only matches a literal. Returns false if it's a genuine regex.
+     */
+    private boolean addLiteral(String regex) {
+        boolean startAnchor = regex.startsWith("^");
+        int start = startAnchor ? 1 : 0;
+        boolean endAnchor = regex.length() > start && regex.endsWith("$")
+                && !regex.endsWith("\\$");
+        int end = endAnchor ? regex.length() - 1 : regex.length();
+
+        String literal = unescape(regex.substring(start, end));
+        if (literal == null) {
+            return false;
+        }
+
+        if (startAnchor) {
+            trie.add(literal, endAnchor);
+        } else if (endAnchor) {
+            // Suffixes are rare enough not to bother with.
+            return false;
+        } else {
+            substrings.add(literal);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the literal string matched by the given regex fragment, or null
+     * if it contains anything other than plain characters and escaped
+     * punctuation.
+     */
+    private static String unescape(String fragment) {
+        StringBuilder literal = new StringBuilder(fragment.length());
+        for (int i = 0; i < fragment.length(); i++) {
+            char c = fragment.charAt(i);
+            if (c == '\\') {
+                // A backslash before a non-alphanumeric character quotes it.
+                if (++i == fragment.length()) {
+                    return null;
+                }
+                c = fragment.charAt(i);
+                if (Character.isLetterOrDigit(c) || c > 0x7f) {
+                    return null;
+                }
+            } else if (METACHARACTERS.indexOf(c) >= 0) {
+                return null;
+            }
+            literal.append(c);
+        }
+        return literal.toString();
+    }
+
+    /**
+     * Returns false if the regex can't be embedded in an alternation without
+     * changing its meaning, i.e. it uses a numbered back reference or might
+     * contain a comment that would swallow the closing parenthesis.
+     */
+    private static boolean canCombine(String regex) {
+        if (regex.indexOf('#') >= 0) {
+            return false;
+        }
+        for (int i = 0; i < regex.length() - 1; i++) {
+            if (regex.charAt(i) == '\\') {
+                char next = regex.charAt(++i);
+                if (next >= '1' && next <= '9') {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given string is a single line terminator, which
+     * "$" also matches in front of.
+     */
+    private static boolean isLineTerminator(String s, int index) {
+        int remaining = s.length() - index;
+        if (remaining == 1) {
+            char c = s.charAt(index);
+            return c == '\n' || c == '\r' || c == '\u0085'
+                    || c == '\u2028' || c == '\u2029';
+        }
+        return remaining == 2 && s.charAt(index) == '\r'
+                && s.charAt(index + 1) == '\n';
+    }
+
+    /**
+     * Trie node keyed by path character.
+     */
+    private static class Node {
+
+        private final Map<Character, Node> children
+                = new HashMap<Character, Node>();
+
+        /** A "^literal" pattern ends here. */
+        private boolean prefix;
+
+        /** A "^literal$" pattern ends here. */
+        private boolean exact;
+
+        void add(String literal, boolean exact) {
+            Node node = this;
+            for (int i = 0; i < literal.length(); i++) {
+                Character c = literal.charAt(i);
+                Node child = node.children.get(c);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            if (exact) {
+                node.exact = true;
+            } else {
+                node.prefix = true;
+            }
+        }
+
+        boolean matches(String path) {
+            Node node = this;
+            for (int i = 0; ; i++) {
+                if (node.prefix) {
+                    return true;
+                }
+                if (node.exact && (i == path.length()
+                        || isLineTerminator(path, i))) {
+                    return true;
+                }
+                if (i == path.length()) {
+                    return false;
+                }
+                node = node.children.get(path.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+        }
+    }
 }
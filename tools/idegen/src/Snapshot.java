@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Directory listings from a previous traversal, keyed by path. A listing is
+ * reused as long as the directory's mtime hasn't changed, which saves listing
+ * the directory, stat'ing its entries and parsing its .java file. Excludes
+ * are applied on top of the listings on every run, so editing excluded-paths
+ * doesn't invalidate the snapshot. Only the directories visited by the
+ * current traversal are written back, so deleted and newly excluded
+ * directories drop out.
+ */
+class Snapshot {
+
+    private static final int MAGIC = 0x69646567; // "ideg"
+    private static final int VERSION = 1;
+
+    /**
+     * Listings modified this recently may change again within the same mtime
+     * tick, so they're saved as stale and rescanned next time.
+     */
+    private static final long RACY_MILLIS = 2000;
+
+    /** Marks a listing that must be rescanned. */
+    static final long STALE = -1;
+
+    /**
+     * What traversal needs to know about a single directory.
+     */
+    static class Directory {
+
+        /** mtime of the directory when it was listed, or {@link #STALE}. */
+        final long mtime;
+
+        /** Names of nested directories, excluded or not, sorted. */
+        final List<String> subdirs;
+
+        /** Names of .jar files, excluded or not, sorted. */
+        final List<String> jars;
+
+        /** Name of the .java file parsed for a package, or null if none. */
+        final String javaFile;
+
+        /** mtime of {@link #javaFile} when it was parsed. */
+        final long javaFileMtime;
+
+        /** Package declared in {@link #javaFile}, or null if none. */
+        final String packageName;
+
+        Directory(long mtime, List<String> subdirs, List<String> jars,
+                String javaFile, long javaFileMtime, String packageName) {
+            this.mtime = mtime;
+            this.subdirs = subdirs;
+            this.jars = jars;
+            this.javaFile = javaFile;
+            this.javaFileMtime = javaFileMtime;
+            this.packageName = packageName;
+        }
+    }
+
+    /** Listings read from the previous snapshot. */
+    private final Map<String, Directory> previous
+            = new HashMap<String, Directory>();
+
+    /** Listings recorded by the current traversal. */
+    private final Map<String, Directory> directories
+            = new ConcurrentHashMap<String, Directory>();
+
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * Returns the listing saved for the given directory if it's still
+     * current, or null if the directory needs to be rescanned.
+     */
+    Directory get(String path, long mtime) {
+        Directory directory = previous.get(path);
+        if (directory == null || directory.mtime == STALE
+                || directory.mtime != mtime) {
+            return null;
+        }
+        return directory;
+    }
+
+    /**
+     * Records the listing for a directory. Listings that were modified just
+     * before this traversal started are marked stale.
+     */
+    void put(String path, Directory directory) {
+        if (directory.mtime != STALE
+                && directory.mtime > startMillis - RACY_MILLIS) {
+            directory = new Directory(STALE, directory.subdirs,
+                    directory.jars, directory.javaFile,
+                    directory.javaFileMtime, directory.packageName);
+        }
+        directories.put(path, directory);
+    }
+
+    /** Returns the number of directory listings recorded by this run. */
+    int size() {
+        return directories.size();
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write}. Returns an empty snapshot
+     * if the file doesn't exist or can't be read.
+     */
+    static Snapshot read(File file) {
+        Snapshot snapshot = new Snapshot();
+        if (!file.isFile()) {
+            return snapshot;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.info("Ignoring snapshot with unknown version: " + file);
+                return snapshot;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long mtime = in.readLong();
+                List<String> subdirs = readNames(in);
+                List<String> jars = readNames(in);
+                String javaFile = null;
+                long javaFileMtime = 0;
+                String packageName = null;
+                if (in.readBoolean()) {
+                    javaFile = in.readUTF();
+                    javaFileMtime = in.readLong();
+                    if (in.readBoolean()) {
+                        packageName = in.readUTF();
+                    }
+                }
+                snapshot.previous.put(path, new Directory(mtime, subdirs,
+                        jars, javaFile, javaFileMtime, packageName));
+            }
+        } catch (IOException e) {
+            Log.info("Ignoring unreadable snapshot " + file + ": " + e);
+            snapshot.previous.clear();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes the listings recorded by this run to the given file, replacing
+     * it atomically.
+     */
+    void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            // Sorted so that identical trees give identical snapshots.
+            Map<String, Directory> sorted
+                    = new TreeMap<String, Directory>(directories);
+            out.writeInt(sorted.size());
+            for (Map.Entry<String, Directory> entry : sorted.entrySet()) {
+                Directory directory = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(directory.mtime);
+                writeNames(out, directory.subdirs);
+                writeNames(out, directory.jars);
+                out.writeBoolean(directory.javaFile != null);
+                if (directory.javaFile != null) {
+                    out.writeUTF(directory.javaFile);
+                    out.writeLong(directory.javaFileMtime);
+                    out.writeBoolean(directory.packageName != null);
+                    if (directory.packageName != null) {
+                        out.writeUTF(directory.packageName);
+                    }
+                }
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Couldn't rename " + temp + " to " + file);
+        }
+    }
+
+    private static List<String> readNames(DataInputStream in)
+            throws IOException {
+        int count = in.readInt();
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+
+    private static void writeNames(DataOutputStream out, List<String> names)
+            throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds .java source roots, .jar files, and excluded directories under a
+ * single directory, forking a subtask per nested directory. Source roots and
+ * excluded dirs go into shared concurrent sets; .jar files are returned so
+ * that the parent can splice them in directory order, which keeps the output
+ * independent of scheduling.
+ *
+ * <p>Directory listings are taken from the given {@link Snapshot} when the
+ * directory hasn't been modified since, and the snapshot is updated with any
+ * listings that had to be rescanned.
+ */
+class TraverseTask extends RecursiveTask<List<File>> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** mtime value for a directory that hasn't been stat'ed yet. */
+    static final long UNKNOWN = Long.MIN_VALUE;
+
+    private final Path directory;
+    private final long mtime;
+    private final Snapshot snapshot;
+    private final Set<File> sourceRoots;
+    private final Set<File> excludedDirs;
+    private final Excludes excludes;
+
+    TraverseTask(Path directory, long mtime, Snapshot snapshot,
+            Set<File> sourceRoots, Set<File> excludedDirs, Excludes excludes) {
+        this.directory = directory;
+        this.mtime = mtime;
+        this.snapshot = snapshot;
+        this.sourceRoots = sourceRoots;
+        this.excludedDirs = excludedDirs;
+        this.excludes = excludes;
+    }
+
+    @Override
+    protected List<File> compute() {
+        try {
+            return traverse();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<File> traverse() throws IOException {
+        /*
+         * Note it would be faster to stop traversing a source root as soon as
+         * we encounter the first .java file, but it appears we have nested
+         * source roots in our generated source directory (specifically,
+         * R.java files and aidl .java files don't share the same source
+         * root).
+         */
+
+        long mtime = this.mtime;
+        if (mtime == UNKNOWN) {
+            BasicFileAttributes attributes = readAttributes(directory);
+            if (attributes == null) {
+                return Collections.emptyList();
+            }
+            mtime = attributes.lastModifiedTime().toMillis();
+        }
+
+        String key = directory.toString();
+        Map<String, Long> subdirMtimes = Collections.emptyMap();
+        Snapshot.Directory listing = snapshot.get(key, mtime);
+        if (listing != null && listing.javaFile != null) {
+            // Editing a file doesn't touch its directory.
+            BasicFileAttributes attributes =
+                    readAttributes(directory.resolve(listing.javaFile));
+            if (attributes == null || attributes.lastModifiedTime().toMillis()
+                    != listing.javaFileMtime) {
+                listing = null;
+            }
+        }
+        if (listing == null) {
+            subdirMtimes = new HashMap<String, Long>();
+            listing = scan(mtime, subdirMtimes);
+            if (listing == null) {
+                return Collections.emptyList();
+            }
+        }
+        snapshot.put(key, listing);
+
+        if (listing.packageName != null) {
+            File sourceRoot = Configuration.rootOf(
+                    directory.resolve(listing.javaFile).toFile(),
+                    listing.packageName);
+            if (sourceRoot != null) {
+                sourceRoots.add(sourceRoot);
+            }
+        }
+
+        // Either a .jar File or a forked TraverseTask, in directory order.
+        List<Object> results = new ArrayList<Object>();
+        Iterator<String> subdirs = listing.subdirs.iterator();
+        Iterator<String> jars = listing.jars.iterator();
+        String subdir = next(subdirs);
+        String jar = next(jars);
+        while (subdir != null || jar != null) {
+            if (jar == null || (subdir != null && subdir.compareTo(jar) < 0)) {
+                Path entry = directory.resolve(subdir);
+                // Trim preceding "./" from path.
+                String path = entry.toString().substring(2);
+
+                // Traverse nested directories.
+                if (excludes.exclude(path)) {
+                    // Don't recurse into excluded dirs.
+                    Log.debug("Excluding: " + path);
+                    excludedDirs.add(entry.toFile());
+                } else {
+                    Long subdirMtime = subdirMtimes.get(subdir);
+                    TraverseTask task = new TraverseTask(entry,
+                            subdirMtime != null ? subdirMtime : UNKNOWN,
+                            snapshot, sourceRoots, excludedDirs, excludes);
+                    task.fork();
+                    results.add(task);
+                }
+                subdir = next(subdirs);
+            } else {
+                Path entry = directory.resolve(jar);
+                String path = entry.toString().substring(2);
+
+                // Keep track of .jar files.
+                if (excludes.exclude(path)) {
+                    Log.debug("Skipped: " + path);
+                } else {
+                    results.add(entry.toFile());
+                }
+                jar = next(jars);
+            }
+        }
+
+        List<File> jarFiles = new ArrayList<File>();
+        for (Object result : results) {
+            if (result instanceof TraverseTask) {
+                jarFiles.addAll(((TraverseTask) result).join());
+            } else {
+                jarFiles.add((File) result);
+            }
+        }
+        return jarFiles;
+    }
+
+    /**
+     * Lists the directory and parses its first .java file. Fills in the
+     * mtimes of nested directories so that subtasks needn't stat them again.
+     * Returns null if the directory can't be read.
+     */
+    private Snapshot.Directory scan(long mtime, Map<String, Long> subdirMtimes)
+            throws IOException {
+        List<String> names = list(directory);
+        if (names == null) {
+            return null;
+        }
+
+        List<String> subdirs = new ArrayList<String>();
+        List<String> jars = new ArrayList<String>();
+        String javaFile = null;
+        long javaFileMtime = 0;
+        String packageName = null;
+        for (String name : names) {
+            Path entry = directory.resolve(name);
+            // Trim preceding "./" from path.
+            String path = entry.toString().substring(2);
+
+            BasicFileAttributes attributes = readAttributes(entry,
+                    LinkOption.NOFOLLOW_LINKS);
+            if (attributes == null) {
+                Log.debug("Skipped nonexistent: " + path);
+                continue;
+            }
+
+            if (attributes.isSymbolicLink()) {
+                // Skip nonexistent files/diretories, e.g. broken symlinks.
+                attributes = readAttributes(entry);
+                if (attributes == null) {
+                    Log.debug("Skipped nonexistent: " + path);
+                    continue;
+                }
+
+                Path target = Files.readSymbolicLink(entry).normalize();
+                if (target.startsWith("") || target.startsWith(".")
+                    || target.startsWith("..")) {
+                    // Don't recurse symbolic link that targets to parent
+                    // or current directory.
+                    Log.debug("Skipped: " + path);
+                    continue;
+                }
+            }
+
+            if (attributes.isDirectory()) {
+                subdirs.add(name);
+                subdirMtimes.put(name, attributes.lastModifiedTime().toMillis());
+            } else if (name.endsWith(".java")) {
+                // Only parse one .java file per directory.
+                if (javaFile == null) {
+                    javaFile = name;
+                    javaFileMtime = attributes.lastModifiedTime().toMillis();
+                    packageName = Configuration.parsePackageName(entry.toFile());
+                }
+            } else if (name.endsWith(".jar")) {
+                jars.add(name);
+            }
+        }
+        return new Snapshot.Directory(mtime, subdirs, jars, javaFile,
+                javaFileMtime, packageName);
+    }
+
+    private static String next(Iterator<String> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * Lists file names in a directory sorted, or returns null if it can't be
+     * read.
+     */
+    private static List<String> list(Path directory) {
+        List<String> names = new ArrayList<String>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                names.add(entry.getFileName().toString());
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Reads attributes in a single stat call, or returns null if the file
+     * doesn't exist.
+     */
+    private static BasicFileAttributes readAttributes(Path path,
+            LinkOption... options) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, options);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
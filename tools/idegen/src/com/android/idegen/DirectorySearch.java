@@ -20,6 +20,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import java.io.File;
@@ -29,6 +30,7 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -50,6 +52,10 @@ public class DirectorySearch {
 
     private static final Pattern EXCLUDE_PATTERN = Pattern.compile("values-..(-.*)*");
 
+    // Canonical paths are requested for the same few files over and over.  Resolving one means
+    // a system call per path component, so remember them.
+    private static final ConcurrentMap<File, String> canonicalPaths = Maps.newConcurrentMap();
+
     private static File repoRoot = null;
     public static final String REL_TEMPLATE_DIR = "templates";
     public static final String REL_TEMPLATE_PATH_FROM_ROOT = "development/tools/idegen/"
@@ -64,6 +70,18 @@ public class DirectorySearch {
         return repoRoot;
     }
 
+    /**
+     * Returns the canonical path of a file, only resolving it the first time it is requested.
+     */
+    public static String getCanonicalPath(File file) throws IOException {
+        String path = canonicalPaths.get(file);
+        if (path == null) {
+            path = file.getCanonicalPath();
+            canonicalPaths.put(file, path);
+        }
+        return path;
+    }
+
     /**
      * Find the repo root.  This is the root branch directory of a full repo checkout.
      *
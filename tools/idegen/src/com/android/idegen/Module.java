@@ -101,9 +101,10 @@ public class Module {
         this.parseMakeFileForSource = parseMakeFileForSource;
 
         // TODO: auto-detect when framework dependency is needed instead of using coded list.
+        String makeFilePath = DirectorySearch.getCanonicalPath(makeFile);
         for (String dir : DIRS_WITH_AUTO_DEPENDENCIES) {
             // length + 2 to account for slash
-            boolean isDir = makeFile.getCanonicalPath().startsWith(
+            boolean isDir = makeFilePath.startsWith(
                     DirectorySearch.getRepoRoot() + "/" + dir);
             if (isDir) {
                 Collections.addAll(this.explicitModuleNameDependencies, AUTO_DEPENDENCIES);
@@ -114,8 +115,8 @@ public class Module {
     }
 
     private String calculateRelativePartToRepoRoot() throws IOException {
-        String rel = moduleRoot.getCanonicalPath().substring(
-                DirectorySearch.getRepoRoot().getCanonicalPath().length());
+        String rel = DirectorySearch.getCanonicalPath(moduleRoot).substring(
+                DirectorySearch.getCanonicalPath(DirectorySearch.getRepoRoot()).length());
         int count = 0;
         // Count the number of slashes to determine how far back to go.
         for (int i = 0; i < rel.length(); i++) {
@@ -285,14 +286,17 @@ public class Module {
     private void buildDependentModules() throws IOException {
         Set<String> moduleNameDependencies = explicitModuleNameDependencies;
 
-        String[] copy = moduleNameDependencies.toArray(new String[moduleNameDependencies.size()]);
+        List<String> copy = Lists.newArrayList(moduleNameDependencies);
         for (String dependency : copy) {
             logger.info("Building dependency " + dependency);
-            Module child = moduleCache.getAndCacheByName(dependency);
+        }
+        List<Module> children = moduleCache.getAndCacheByNames(copy);
+        for (int i = 0; i < copy.size(); i++) {
+            Module child = children.get(i);
             if (child == null) {
-                moduleNameDependencies.remove(dependency);
+                moduleNameDependencies.remove(copy.get(i));
             } else {
-                allDependencies.add(child.getDir().getCanonicalPath());
+                allDependencies.add(DirectorySearch.getCanonicalPath(child.getDir()));
                 //allDependencies.addAll(child.getAllDependencies());
                 //logger.info("Adding iml " + child.getName() + " " + child.getImlFile());
                 allDependentImlFiles.add(child.getImlFile());
@@ -301,14 +305,14 @@ public class Module {
         }
         // Don't include self.  The current module may have been brought in by framework
         // dependencies which will create a circular reference.
-        allDependencies.remove(this.getDir().getCanonicalPath());
+        allDependencies.remove(DirectorySearch.getCanonicalPath(this.getDir()));
         allDependentImlFiles.remove(this.getImlFile());
 
         // TODO: add implicit dependencies.  Convert all modules to be based on directory.
-        for (File dependency : implicitModulePathDependencies) {
-            Module child = moduleCache.getAndCacheByDir(dependency);
+        for (Module child : moduleCache.getAndCacheByDirs(
+                Lists.newArrayList(implicitModulePathDependencies))) {
             if (child != null) {
-                allDependencies.add(child.getDir().getCanonicalPath());
+                allDependencies.add(DirectorySearch.getCanonicalPath(child.getDir()));
                 //allDependencies.addAll(child.getAllDependencies());
                 //logger.info("Adding iml " + child.getName() + " " + child.getImlFile());
                 allDependentImlFiles.add(child.getImlFile());
@@ -17,15 +17,27 @@
 package com.android.idegen;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.logging.Logger;
 
 /**
  * Cache to hold built modules.
+ *
+ * Modules are built on a work-stealing pool. Each module is built by whichever thread first adds
+ * it to the cache, and a module's dependencies are looked up (and built) in parallel. Since the
+ * thread that adds a module also waits for it to be built, looking up a top level module returns
+ * once all of its transitive dependencies are built.
  */
 public class ModuleCache {
 
@@ -37,7 +49,9 @@ public class ModuleCache {
 
     // Mapping of canonical module directory to module.  Use string instead of File since File
     // does not provide equality based on canonical path.
-    HashMap<String, Module> modulesByPath = Maps.newHashMap();
+    ConcurrentMap<String, Module> modulesByPath = Maps.newConcurrentMap();
+
+    private final ForkJoinPool pool = new ForkJoinPool();
 
     private ModuleCache() {
     }
@@ -57,16 +71,93 @@ public class ModuleCache {
         if (moduleDir.exists()) {
             Module module = getModule(moduleDir);
             if (module == null) {
-                module = new Module(moduleDir);
-                // Must put module before building it.  Otherwise infinite loop.
-                putModule(moduleDir, module);
-                module.build();
+                Module created = new Module(moduleDir);
+                // Must put module before building it.  Otherwise infinite loop.  Another thread
+                // may have put the same module in the meantime, in which case it builds it.
+                module = modulesByPath.putIfAbsent(
+                        DirectorySearch.getCanonicalPath(moduleDir), created);
+                if (module == null) {
+                    module = created;
+                    module.build();
+                }
             }
             return module;
         }
         return null;
     }
 
+    /**
+     * Looks up and builds the given modules in parallel.
+     *
+     * @return the modules in the same order as the names, with null for modules that were not
+     * found.
+     */
+    public List<Module> getAndCacheByNames(List<String> moduleNames) throws IOException {
+        List<RecursiveTask<Module>> tasks = Lists.newArrayList();
+        for (final String moduleName : moduleNames) {
+            tasks.add(new RecursiveTask<Module>() {
+                @Override
+                protected Module compute() {
+                    try {
+                        return getAndCacheByName(moduleName);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        return invokeAll(tasks);
+    }
+
+    /**
+     * Looks up and builds the modules in the given directories in parallel.
+     *
+     * @return the modules in the same order as the directories, with null for directories that
+     * do not exist.
+     */
+    public List<Module> getAndCacheByDirs(List<File> moduleDirs) throws IOException {
+        List<RecursiveTask<Module>> tasks = Lists.newArrayList();
+        for (final File moduleDir : moduleDirs) {
+            tasks.add(new RecursiveTask<Module>() {
+                @Override
+                protected Module compute() {
+                    try {
+                        return getAndCacheByDir(moduleDir);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        return invokeAll(tasks);
+    }
+
+    /**
+     * Runs the given tasks on the pool, or in the current pool if already running in one, and
+     * returns their results.
+     */
+    private List<Module> invokeAll(final List<RecursiveTask<Module>> tasks) throws IOException {
+        try {
+            if (ForkJoinTask.inForkJoinPool()) {
+                ForkJoinTask.invokeAll(tasks);
+            } else {
+                pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        ForkJoinTask.invokeAll(tasks);
+                    }
+                });
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        List<Module> modules = Lists.newArrayListWithCapacity(tasks.size());
+        for (RecursiveTask<Module> task : tasks) {
+            modules.add(task.getRawResult());
+        }
+        return modules;
+    }
+
     public Module getAndCacheByName(String moduleName) throws IOException {
         Preconditions.checkState(indexes != null, "You must call init() first.");
         Preconditions.checkNotNull(moduleName);
@@ -87,11 +178,11 @@ public class ModuleCache {
     }
 
     private void putModule(File moduleDir, Module module) throws IOException {
-        modulesByPath.put(moduleDir.getCanonicalPath(), module);
+        modulesByPath.put(DirectorySearch.getCanonicalPath(moduleDir), module);
     }
 
     private Module getModule(File moduleDir) throws IOException {
-        return modulesByPath.get(moduleDir.getCanonicalPath());
+        return modulesByPath.get(DirectorySearch.getCanonicalPath(moduleDir));
     }
 
     public Iterable<Module> getModules() {
@@ -17,40 +17,125 @@
 package com.android.idegen;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.common.io.LineProcessor;
+import com.google.common.primitives.UnsignedBytes;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Mapping of module names to make files.
+ *
+ * The text index is compiled into a binary index next to it, which later runs memory map instead
+ * of reading the text file again. The binary index is rebuilt whenever the text file's size or
+ * modification time changes. Layout, all integers big endian:
+ *
+ * <pre>
+ *   int    magic
+ *   int    version
+ *   long   size of the text index
+ *   long   modification time of the text index
+ *   int    number of modules
+ *   int    size of the binary index
+ *   int[2] per module, sorted by name: name offset, make file offset
+ *   ...    string table: per string, an unsigned short length and UTF-8 bytes
+ * </pre>
+ *
+ * Offsets are relative to the start of the file. Names are sorted by their UTF-8 bytes so that
+ * lookups can binary search without decoding.
  */
 public class ModuleIndexes {
 
     private static final Logger logger = Logger.getLogger(ModuleIndexes.class.getName());
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Comparator<byte[]> BYTES_ORDER = UnsignedBytes.lexicographicalComparator();
+
+    private static final String BINARY_SUFFIX = ".bin";
+    private static final int MAGIC = 0x6d696478; // "midx"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+    private static final int ENTRY_SIZE = 4 + 4;
+
     private File indexFile;
-    private HashMap<String, String> moduleNameToMakeFileMap;
-    private HashMap<String, Set<String>> makeFileToModuleNamesMap;
+    private ByteBuffer index;
+    private int count;
 
     public ModuleIndexes(File indexFile) {
         this.indexFile = indexFile;
     }
 
     public void build() throws IOException {
+        File binaryFile = new File(indexFile.getPath() + BINARY_SUFFIX);
+        long size = indexFile.length();
+        long lastModified = indexFile.lastModified();
+
+        ByteBuffer mapped = map(binaryFile);
+        if (mapped != null && mapped.getLong(8) == size && mapped.getLong(16) == lastModified) {
+            logger.info("Using index " + binaryFile.getCanonicalPath());
+            index = mapped;
+        } else {
+            index = compile(size, lastModified);
+            try {
+                File temp = new File(binaryFile.getPath() + ".tmp");
+                Files.write(index.array(), temp);
+                Files.move(temp, binaryFile);
+            } catch (IOException e) {
+                // Not fatal, the index will just be compiled again next time.
+                logger.log(Level.WARNING, "Unable to write index " + binaryFile, e);
+            }
+        }
+        count = index.getInt(24);
+    }
+
+    /**
+     * Maps the binary index, or returns null if it doesn't exist, has an unknown format or
+     * doesn't have the size its header claims, as happens when a write is cut short.
+     */
+    private static ByteBuffer map(File binaryFile) throws IOException {
+        long length = binaryFile.length();
+        if (!binaryFile.isFile() || length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(binaryFile, "r")) {
+            // The mapping stays valid after the channel is closed.
+            ByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    file.length());
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+                return null;
+            }
+            int count = mapped.getInt(24);
+            if (mapped.getInt(28) != mapped.limit() || count < 0
+                    || count > (mapped.limit() - HEADER_SIZE) / ENTRY_SIZE) {
+                logger.warning("Ignoring corrupt index " + binaryFile);
+                return null;
+            }
+            return mapped;
+        }
+    }
 
-        moduleNameToMakeFileMap = Maps.newHashMap();
-        makeFileToModuleNamesMap = Maps.newHashMap();
+    /**
+     * Reads the text index and lays it out in the binary format.
+     */
+    private ByteBuffer compile(long size, long lastModified) throws IOException {
+        // Later lines win, as they did when the text index was read into a map.
+        final Map<byte[], byte[]> modules = new TreeMap<byte[], byte[]>(BYTES_ORDER);
         logger.info("Building index from " + indexFile.getCanonicalPath());
-        Files.readLines(indexFile, Charset.forName("UTF-8"),
+        Files.readLines(indexFile, UTF_8,
                 new LineProcessor<Object>() {
                     int count = 0;
 
@@ -64,8 +149,7 @@ public class ModuleIndexes {
                         } else {
                             String makeFile = arr[0];
                             String moduleName = arr[1];
-                            moduleNameToMakeFileMap.put(moduleName, makeFile);
-                            append(makeFile, moduleName);
+                            modules.put(moduleName.getBytes(UTF_8), makeFile.getBytes(UTF_8));
                         }
                         return true;
                     }
@@ -75,24 +159,85 @@ public class ModuleIndexes {
                         return null;
                     }
                 });
-    }
 
-    private void append(String makeFile, String moduleName) {
-        Set<String> moduleNames = makeFileToModuleNamesMap.get(makeFile);
-        if (moduleNames == null) {
-            moduleNames = Sets.newHashSet();
-            makeFileToModuleNamesMap.put(makeFile, moduleNames);
-        } else {
-            // Create a aggregate module place holder.
-            //moduleNameToMakeFileMap.put(getAggregateName(moduleDir), makeFile);
+        // Lay out the string table, sharing make files between the modules they define.
+        HashMap<String, Integer> offsets = Maps.newHashMap();
+        List<byte[]> strings = Lists.newArrayList();
+        int tableSize = 0;
+        int[] entries = new int[modules.size() * 2];
+        int tableStart = HEADER_SIZE + entries.length * 4;
+        int i = 0;
+        for (Map.Entry<byte[], byte[]> module : modules.entrySet()) {
+            for (byte[] string : new byte[][] { module.getKey(), module.getValue() }) {
+                Preconditions.checkArgument(string.length <= 0xffff, "Index entry too long");
+                String key = new String(string, UTF_8);
+                Integer offset = offsets.get(key);
+                if (offset == null) {
+                    offset = tableStart + tableSize;
+                    offsets.put(key, offset);
+                    strings.add(string);
+                    tableSize += 2 + string.length;
+                }
+                entries[i++] = offset;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(tableStart + tableSize);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(lastModified)
+                .putInt(modules.size()).putInt(buffer.capacity());
+        for (int entry : entries) {
+            buffer.putInt(entry);
+        }
+        for (byte[] string : strings) {
+            buffer.putShort((short) string.length).put(string);
         }
-        moduleNames.add(moduleName);
+        return buffer;
     }
 
     public String getMakeFile(String moduleName) {
-        Preconditions.checkState(moduleNameToMakeFileMap != null,
+        Preconditions.checkState(index != null,
                 "Index not built. Call build() first.");
 
-        return moduleNameToMakeFileMap.get(moduleName);
+        // Only absolute reads, so that lookups can run concurrently.
+        byte[] key = moduleName.getBytes(UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = HEADER_SIZE + mid * ENTRY_SIZE;
+            int cmp = compare(index.getInt(entry), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return readString(index.getInt(entry + 4));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares the string at the given offset with the given UTF-8 bytes.
+     */
+    private int compare(int offset, byte[] key) {
+        int length = index.getShort(offset) & 0xffff;
+        offset += 2;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = UnsignedBytes.compare(index.get(offset + i), key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    private String readString(int offset) {
+        byte[] bytes = new byte[index.getShort(offset) & 0xffff];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = index.get(offset + 2 + i);
+        }
+        return new String(bytes, UTF_8);
     }
 }
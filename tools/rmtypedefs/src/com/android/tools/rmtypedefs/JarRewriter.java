@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.rmtypedefs;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Rewrites a .jar file in place, removing and replacing a few entries.
+ * <p>
+ * Entries that are left alone are copied byte for byte, local header and
+ * compressed data together, so they are never inflated or recompressed.
+ * Only replaced entries are deflated again. Zip64 archives are not
+ * supported.
+ */
+class JarRewriter {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int VERSION_DEFLATED = 20;
+
+    private JarRewriter() {
+    }
+
+    /**
+     * Rewrites the given jar, dropping the entries named in {@code removed} and replacing
+     * the contents of the entries in {@code replaced}. Entry order is preserved.
+     */
+    static void rewrite(File jar, Set<String> removed, Map<String, byte[]> replaced)
+            throws IOException {
+        File temp = new File(jar.getPath() + ".tmp");
+        RandomAccessFile in = new RandomAccessFile(jar, "r");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            FileChannel inChannel = in.getChannel();
+            FileChannel outChannel = out.getChannel();
+            ByteBuffer zip = inChannel.map(FileChannel.MapMode.READ_ONLY, 0, inChannel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            int end = findEnd(zip);
+            int count = zip.getShort(end + 10) & 0xffff;
+            long centralOffset = zip.getInt(end + 16) & 0xffffffffL;
+            if (count == 0xffff || centralOffset == 0xffffffffL) {
+                throw new IOException("Zip64 archives are not supported");
+            }
+
+            // Locate the central directory records, and where each entry's data begins
+            int[] records = new int[count];
+            long[] starts = new long[count];
+            int position = (int) centralOffset;
+            for (int i = 0; i < count; i++) {
+                if (zip.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new IOException("Bad central directory entry at " + position);
+                }
+                records[i] = position;
+                starts[i] = zip.getInt(position + 42) & 0xffffffffL;
+                position += recordSize(zip, position);
+            }
+            long[] sortedStarts = starts.clone();
+            Arrays.sort(sortedStarts);
+
+            ByteArrayOutputStream central = new ByteArrayOutputStream();
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                byte[] record = new byte[recordSize(zip, records[i])];
+                for (int j = 0; j < record.length; j++) {
+                    record[j] = zip.get(records[i] + j);
+                }
+                ByteBuffer header = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN);
+                int nameLength = header.getShort(28) & 0xffff;
+                // Decoded the same way ZipFile decodes names, so the two always agree
+                String name = new String(record, CENTRAL_HEADER_SIZE, nameLength,
+                        Charsets.UTF_8);
+                if (removed.contains(name)) {
+                    continue;
+                }
+
+                long offset = outChannel.position();
+                byte[] contents = replaced.get(name);
+                if (contents != null) {
+                    writeEntry(outChannel, header, record, nameLength, contents);
+                } else {
+                    // Everything up to the next entry: header, data and any data descriptor
+                    int next = Arrays.binarySearch(sortedStarts, starts[i]) + 1;
+                    long limit = next < count ? sortedStarts[next] : centralOffset;
+                    if (zip.getInt((int) starts[i]) != LOCAL_HEADER_SIGNATURE) {
+                        throw new IOException("Bad local header for " + name);
+                    }
+                    transfer(inChannel, starts[i], limit - starts[i], outChannel);
+                }
+                header.putInt(42, (int) offset);
+                central.write(record);
+                kept++;
+            }
+
+            long newCentralOffset = outChannel.position();
+            int commentLength = zip.getShort(end + 20) & 0xffff;
+            ByteBuffer trailer = ByteBuffer.allocate(END_SIZE + commentLength)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt(END_SIGNATURE).putShort((short) 0).putShort((short) 0)
+                    .putShort((short) kept).putShort((short) kept)
+                    .putInt(central.size()).putInt((int) newCentralOffset)
+                    .putShort((short) commentLength);
+            for (int j = 0; j < commentLength; j++) {
+                trailer.put(zip.get(end + END_SIZE + j));
+            }
+            trailer.flip();
+            writeFully(outChannel, ByteBuffer.wrap(central.toByteArray()));
+            writeFully(outChannel, trailer);
+        } finally {
+            out.close();
+            in.close();
+        }
+        Files.move(temp, jar);
+    }
+
+    /**
+     * Writes a deflated entry with a fresh local header, and updates its central directory
+     * record to match.
+     */
+    private static void writeEntry(FileChannel out, ByteBuffer header, byte[] record,
+            int nameLength, byte[] contents) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+        byte[] compressed = deflate(contents);
+
+        int flags = (header.getShort(8) & 0xffff) & ~FLAG_DATA_DESCRIPTOR;
+        int version = Math.max(header.getShort(6) & 0xffff, VERSION_DEFLATED);
+        header.putShort(6, (short) version);
+        header.putShort(8, (short) flags);
+        header.putShort(10, (short) METHOD_DEFLATED);
+        header.putInt(16, (int) crc.getValue());
+        header.putInt(20, compressed.length);
+        header.putInt(24, contents.length);
+
+        ByteBuffer local = ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameLength)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(LOCAL_HEADER_SIGNATURE)
+                .putShort((short) version)
+                .putShort((short) flags)
+                .putShort((short) METHOD_DEFLATED)
+                .putShort(header.getShort(12))  // time
+                .putShort(header.getShort(14))  // date
+                .putInt((int) crc.getValue())
+                .putInt(compressed.length)
+                .putInt(contents.length)
+                .putShort((short) nameLength)
+                .putShort((short) 0);
+        local.put(record, CENTRAL_HEADER_SIZE, nameLength);
+        local.flip();
+        writeFully(out, local);
+        writeFully(out, ByteBuffer.wrap(compressed));
+    }
+
+    private static byte[] deflate(byte[] contents) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(contents);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Finds the end of central directory record, which is followed only by the archive
+     * comment.
+     */
+    private static int findEnd(ByteBuffer zip) throws IOException {
+        int last = zip.limit() - END_SIZE;
+        int first = Math.max(0, last - 0xffff);
+        for (int position = last; position >= first; position--) {
+            if (zip.getInt(position) == END_SIGNATURE
+                    && position + END_SIZE + (zip.getShort(position + 20) & 0xffff)
+                            == zip.limit()) {
+                return position;
+            }
+        }
+        throw new IOException("Not a zip file");
+    }
+
+    private static int recordSize(ByteBuffer zip, int record) {
+        return CENTRAL_HEADER_SIZE + (zip.getShort(record + 28) & 0xffff)
+                + (zip.getShort(record + 30) & 0xffff) + (zip.getShort(record + 32) & 0xffff);
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out)
+            throws IOException {
+        while (count > 0) {
+            long transferred = in.transferTo(position, count, out);
+            if (transferred <= 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
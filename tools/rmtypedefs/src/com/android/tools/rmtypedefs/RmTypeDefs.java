@@ -17,7 +17,9 @@
 package com.android.tools.rmtypedefs;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 
 import org.objectweb.asm.AnnotationVisitor;
@@ -27,11 +29,22 @@ import org.objectweb.asm.ClassWriter;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.objectweb.asm.Opcodes.ACC_ANNOTATION;
 import static org.objectweb.asm.Opcodes.ASM5;
 
 /**
@@ -57,6 +70,7 @@ public class RmTypeDefs {
     private Set<String> mAnnotationNames = Sets.newHashSet();
     private List<File> mAnnotationClassFiles = Lists.newArrayList();
     private Set<File> mAnnotationOuterClassFiles = Sets.newHashSet();
+    private Map<File, JarTypeDefs> mJarTypeDefs = Maps.newLinkedHashMap();
 
     public static void main(String[] args) {
         new RmTypeDefs().run(args);
@@ -102,9 +116,12 @@ public class RmTypeDefs {
         }
 
         // Record typedef annotation names and files
+        List<File> classFiles = Lists.newArrayList();
+        List<File> jarFiles = Lists.newArrayList();
         for (File dir : dirs) {
-            checkFile(dir);
+            collectFiles(dir, classFiles, jarFiles);
         }
+        checkFiles(classFiles, jarFiles);
 
         // Rewrite the .class files for any classes that *contain* typedefs as innerclasses
         rewriteOuterClasses();
@@ -112,44 +129,157 @@ public class RmTypeDefs {
         // Removes the actual .class files for the typedef annotations
         deleteAnnotationClasses();
 
+        // Does both of the above for typedefs found inside .jar files
+        rewriteJars();
+
         System.exit(mHaveError ? -1 : 0);
     }
 
     /**
-     * Visits the given directory tree recursively and calls {@link #checkClass(java.io.File)}
-     * for any .class files encountered
+     * Visits the given directory tree recursively and collects the .class and .jar files
+     * encountered
      */
-    private void checkFile(File file) {
+    private static void collectFiles(File file, List<File> classFiles, List<File> jarFiles) {
         if (file.isDirectory()) {
             File[] files = file.listFiles();
             if (files != null) {
                 for (File f : files) {
-                    checkFile(f);
+                    collectFiles(f, classFiles, jarFiles);
                 }
             }
         } else if (file.isFile()) {
             String path = file.getPath();
             if (path.endsWith(".class")) {
-                checkClass(file);
+                classFiles.add(file);
             } else if (path.endsWith(".jar")) {
-                System.err.println(path + ": Warning: Encountered .jar file; .class files "
-                        + "are not scanned and removed inside .jar files");
+                jarFiles.add(file);
+            }
+        }
+    }
+
+    /**
+     * Checks the given .class and .jar files for typedef annotations, spread across all
+     * available processors, and records them in the order the files were given
+     */
+    private void checkFiles(List<File> classFiles, List<File> jarFiles) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<TypeDefVisitor>> classResults = Lists.newArrayList();
+            for (final File file : classFiles) {
+                classResults.add(executor.submit(new Callable<TypeDefVisitor>() {
+                    @Override
+                    public TypeDefVisitor call() throws IOException {
+                        return checkClass(Files.toByteArray(file), file.getPath());
+                    }
+                }));
+            }
+            List<Future<JarTypeDefs>> jarResults = Lists.newArrayList();
+            for (final File file : jarFiles) {
+                jarResults.add(executor.submit(new Callable<JarTypeDefs>() {
+                    @Override
+                    public JarTypeDefs call() throws IOException {
+                        return checkJar(file);
+                    }
+                }));
             }
+
+            for (int i = 0; i < classFiles.size(); i++) {
+                TypeDefVisitor visitor = getResult(classResults.get(i), classFiles.get(i));
+                if (visitor != null) {
+                    warnIfRetained(visitor);
+                    addTypeDef(visitor.mName, classFiles.get(i));
+                }
+            }
+            for (int i = 0; i < jarFiles.size(); i++) {
+                JarTypeDefs typeDefs = getResult(jarResults.get(i), jarFiles.get(i));
+                if (!typeDefs.mTypeDefs.isEmpty()) {
+                    for (TypeDefVisitor visitor : typeDefs.mTypeDefs.values()) {
+                        warnIfRetained(visitor);
+                    }
+                    addTypeDefs(typeDefs);
+                }
+            }
+        } finally {
+            executor.shutdown();
         }
     }
 
     /**
-     * Checks the given .class file to see if it's a typedef annotation, and if so
-     * records that fact by calling {@link #addTypeDef(String, java.io.File)}
+     * Waits for the given scan to finish, exiting if the file could not be read
      */
-    private void checkClass(File file) {
+    private static <T> T getResult(Future<T> future, File file) {
         try {
-            byte[] bytes = Files.toByteArray(file);
-            ClassReader classReader = new ClassReader(bytes);
-            classReader.accept(new TypeDefVisitor(file), 0);
-        } catch (IOException e) {
-            System.err.println("Could not read " + file + ": " + e.getLocalizedMessage());
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             System.exit(1);
+        } catch (ExecutionException e) {
+            System.err.println("Could not read " + file + ": "
+                    + e.getCause().getLocalizedMessage());
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Checks the given class file contents to see if it's a typedef annotation, and if so
+     * returns the visitor describing it; returns null otherwise. Method bodies are never
+     * visited, and anything that isn't an annotation is rejected by its access flags before any
+     * of its members are visited.
+     */
+    private static TypeDefVisitor checkClass(byte[] bytes, String path) {
+        ClassReader classReader = new ClassReader(bytes);
+        if ((classReader.getAccess() & ACC_ANNOTATION) == 0) {
+            return null;
+        }
+        TypeDefVisitor visitor = new TypeDefVisitor(path);
+        classReader.accept(visitor,
+                ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return visitor.isTypeDef() ? visitor : null;
+    }
+
+    /**
+     * Checks all the .class entries of the given .jar file for typedef annotations
+     */
+    private static JarTypeDefs checkJar(File file) throws IOException {
+        JarTypeDefs typeDefs = new JarTypeDefs(file);
+        ZipFile zipFile = new ZipFile(file);
+        try {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                typeDefs.mEntries.add(entry.getName());
+                if (!entry.getName().endsWith(".class")) {
+                    continue;
+                }
+                InputStream in = zipFile.getInputStream(entry);
+                byte[] bytes;
+                try {
+                    bytes = ByteStreams.toByteArray(in);
+                } finally {
+                    in.close();
+                }
+                TypeDefVisitor visitor = checkClass(bytes, file + ":" + entry.getName());
+                if (visitor != null) {
+                    typeDefs.mTypeDefs.put(entry.getName(), visitor);
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        return typeDefs;
+    }
+
+    /**
+     * Warns if the given typedef annotation is retained in class files
+     */
+    private void warnIfRetained(TypeDefVisitor visitor) {
+        if (!visitor.mSourceRetention && !visitor.mName.equals(STRING_DEF)
+                && !visitor.mName.equals(INT_DEF)) {
+            System.err.println(visitor.mPath + ": Warning: Annotation should be annotated "
+                    + "with @Retention(RetentionPolicy.SOURCE)");
+            mHaveError = true;
         }
     }
 
@@ -159,7 +289,7 @@ public class RmTypeDefs {
     static void usage(PrintStream out) {
         out.println("Android TypeDef Remover 1.0");
         out.println("Copyright (C) 2013 The Android Open Source Project\n");
-        out.println("Usage: rmtypedefs folder1 [folder2 [folder3...]]\n");
+        out.println("Usage: rmtypedefs folder-or-jar1 [folder-or-jar2 [folder-or-jar3...]]\n");
         out.println("Options:");
         out.println("  -h,--help                  show this message");
         out.println("  -q,--quiet                 quiet");
@@ -192,6 +322,30 @@ public class RmTypeDefs {
         }
     }
 
+    /**
+     * Records the typedef annotations found in a .jar file, along with the entries of the
+     * outer classes containing them
+     */
+    private void addTypeDefs(JarTypeDefs typeDefs) {
+        mJarTypeDefs.put(typeDefs.mFile, typeDefs);
+        for (Map.Entry<String, TypeDefVisitor> entry : typeDefs.mTypeDefs.entrySet()) {
+            String entryName = entry.getKey();
+            mAnnotationNames.add(entry.getValue().mName);
+
+            int index = entryName.lastIndexOf('$');
+            if (index != -1 && index > entryName.lastIndexOf('/')) {
+                String container = entryName.substring(0, index) + ".class";
+                if (typeDefs.mEntries.contains(container)) {
+                    typeDefs.mOuterClasses.add(container);
+                } else {
+                    System.err.println("Warning: Could not find outer class " + container
+                            + " for typedef " + typeDefs.mFile + ":" + entryName);
+                    mHaveError = true;
+                }
+            }
+        }
+    }
+
     /**
      * Rewrites the outer classes containing the typedefs such that they no longer refer to
      * the (now removed) typedef annotation inner classes
@@ -207,19 +361,7 @@ public class RmTypeDefs {
                 continue;
             }
 
-            ClassWriter classWriter = new ClassWriter(ASM5);
-            ClassVisitor classVisitor = new ClassVisitor(ASM5, classWriter) {
-                @Override
-                public void visitInnerClass(String name, String outerName, String innerName,
-                        int access) {
-                    if (!mAnnotationNames.contains(name)) {
-                        super.visitInnerClass(name, outerName, innerName, access);
-                    }
-                }
-            };
-            ClassReader reader = new ClassReader(bytes);
-            reader.accept(classVisitor, 0);
-            byte[] rewritten = classWriter.toByteArray();
+            byte[] rewritten = rewriteOuterClass(bytes);
             try {
                 Files.write(rewritten, file);
             } catch (IOException e) {
@@ -231,6 +373,25 @@ public class RmTypeDefs {
         }
     }
 
+    /**
+     * Returns the given outer class with the typedef annotation inner classes removed
+     */
+    private byte[] rewriteOuterClass(byte[] bytes) {
+        ClassWriter classWriter = new ClassWriter(ASM5);
+        ClassVisitor classVisitor = new ClassVisitor(ASM5, classWriter) {
+            @Override
+            public void visitInnerClass(String name, String outerName, String innerName,
+                    int access) {
+                if (!mAnnotationNames.contains(name)) {
+                    super.visitInnerClass(name, outerName, innerName, access);
+                }
+            }
+        };
+        ClassReader reader = new ClassReader(bytes);
+        reader.accept(classVisitor, 0);
+        return classWriter.toByteArray();
+    }
+
     /**
      * Performs the actual deletion (or display, if in dry-run mode) of the typedef annotation
      * files
@@ -255,13 +416,76 @@ public class RmTypeDefs {
     }
 
     /**
-     * Visitor which visits .class files and checks whether each class is a typedef annotation
-     * (and if so, calls {@link #addTypeDef(String, java.io.File)}
+     * Removes the typedef annotation entries from each .jar file that has any, and rewrites
+     * the outer classes containing them. Every other entry is copied as is, without being
+     * recompressed.
      */
-    private class TypeDefVisitor extends ClassVisitor {
+    private void rewriteJars() {
+        for (JarTypeDefs typeDefs : mJarTypeDefs.values()) {
+            File file = typeDefs.mFile;
+            if (mVerbose) {
+                for (String entryName : typeDefs.mTypeDefs.keySet()) {
+                    System.out.println((mDryRun ? "Would delete " : "Deleting ")
+                            + file + ":" + entryName);
+                }
+            }
+            if (mDryRun) {
+                continue;
+            }
 
-        /** Class file name */
-        private File mFile;
+            Map<String, byte[]> rewritten = Maps.newHashMap();
+            try {
+                ZipFile zipFile = new ZipFile(file);
+                try {
+                    for (String entryName : typeDefs.mOuterClasses) {
+                        InputStream in = zipFile.getInputStream(zipFile.getEntry(entryName));
+                        try {
+                            rewritten.put(entryName,
+                                    rewriteOuterClass(ByteStreams.toByteArray(in)));
+                        } finally {
+                            in.close();
+                        }
+                    }
+                } finally {
+                    zipFile.close();
+                }
+                JarRewriter.rewrite(file, typeDefs.mTypeDefs.keySet(), rewritten);
+            } catch (IOException e) {
+                System.err.println("Could not rewrite " + file + ": " + e.getLocalizedMessage());
+                mHaveError = true;
+            }
+        }
+    }
+
+    /**
+     * Typedef annotations found in a single .jar file
+     */
+    private static class JarTypeDefs {
+        /** The .jar file */
+        private final File mFile;
+
+        /** Names of all entries in the .jar file */
+        private final Set<String> mEntries = Sets.newHashSet();
+
+        /** Typedef annotations, keyed by entry name */
+        private final Map<String, TypeDefVisitor> mTypeDefs = Maps.newLinkedHashMap();
+
+        /** Entry names of the outer classes containing the typedef annotations */
+        private final Set<String> mOuterClasses = Sets.newLinkedHashSet();
+
+        public JarTypeDefs(File file) {
+            mFile = file;
+        }
+    }
+
+    /**
+     * Visitor which visits .class files and checks whether each class is a typedef annotation.
+     * Holds no references to the tool, so that many classes can be checked at once.
+     */
+    private static class TypeDefVisitor extends ClassVisitor {
+
+        /** Class file path, for messages */
+        private String mPath;
 
         /** Class name */
         private String mName;
@@ -275,9 +499,14 @@ public class RmTypeDefs {
         /** Does the annotation have source retention? Only applies if {@link #mAnnotation} */
         private boolean mSourceRetention;
 
-        public TypeDefVisitor(File file) {
+        public TypeDefVisitor(String path) {
             super(ASM5);
-            mFile = file;
+            mPath = path;
+        }
+
+        /** Returns true if this class is a typedef annotation */
+        public boolean isTypeDef() {
+            return mAnnotation && mTypedef;
         }
 
         public void visit(
@@ -309,18 +538,5 @@ public class RmTypeDefs {
             }
             return null;
         }
-
-        public void visitEnd() {
-            if (mAnnotation && mTypedef) {
-                if (!mSourceRetention && !mName.equals(STRING_DEF) && !mName.equals(INT_DEF)) {
-                    System.err.println(mFile + ": Warning: Annotation should be annotated "
-                            + "with @Retention(RetentionPolicy.SOURCE)");
-                    mHaveError = true;
-                }
-
-                addTypeDef(mName, mFile);
-            }
-        }
     }
 }
-
@@ -2,6 +2,8 @@ package com.android.tools.rmtypedefs;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 
 import junit.framework.TestCase;
@@ -9,12 +11,21 @@ import junit.framework.TestCase;
 import org.eclipse.jdt.core.compiler.batch.BatchCompiler;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.Permission;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
 
 import static com.google.common.base.Charsets.UTF_8;
 import static java.io.File.separatorChar;
@@ -28,6 +39,152 @@ public class RmTypeDefsTest extends TestCase {
         // finally verifies that the tool exits with a 0 exit code.
 
         File dir = Files.createTempDir();
+        compileTestClasses(dir);
+
+        assertEquals(""
+            + "testDir/\n"
+            + "    testDir/android/\n"
+            + "        testDir/android/annotation/\n"
+            + "            testDir/android/annotation/IntDef.class\n"
+            + "            testDir/android/annotation/IntDef.java\n"
+            + "    testDir/test/\n"
+            + "        testDir/test/pkg/\n"
+            + "            testDir/test/pkg/TestClass$DisplayOptions.class\n"
+            + "            testDir/test/pkg/TestClass$Inherits.class\n"
+            + "            testDir/test/pkg/TestClass$StaticInnerClass$Visibility.class\n"
+            + "            testDir/test/pkg/TestClass$StaticInnerClass.class\n"
+            + "            testDir/test/pkg/TestClass.class\n"
+            + "            testDir/test/pkg/TestClass.java\n",
+            getDirectoryContents(dir));
+
+        runRmTypeDefs("--verbose", dir.getPath());
+
+        // TODO: check that the classes are identical
+        // BEFORE removal
+
+        assertEquals(""
+                + "testDir/\n"
+                + "    testDir/android/\n"
+                + "        testDir/android/annotation/\n"
+                + "            testDir/android/annotation/IntDef.class\n"
+                + "            testDir/android/annotation/IntDef.java\n"
+                + "    testDir/test/\n"
+                + "        testDir/test/pkg/\n"
+                + "            testDir/test/pkg/TestClass$Inherits.class\n"
+                + "            testDir/test/pkg/TestClass$StaticInnerClass.class\n"
+                + "            testDir/test/pkg/TestClass.class\n"
+                + "            testDir/test/pkg/TestClass.java\n",
+                getDirectoryContents(dir));
+
+        // Make sure the Visibility symbol is completely gone from the outer class
+        assertDoesNotContainBytes(new File(dir,
+                "test/pkg/TestClass$StaticInnerClass.class".replace('/', separatorChar)),
+                "Visibility");
+
+        deleteDir(dir);
+    }
+
+    public void testJar() throws IOException {
+        // Compiles the same classes as above into a .jar, along with a resource, runs the
+        // RmTypeDefs tool on the .jar, and verifies that the typedef annotation entries are
+        // gone while all the other entries are kept.
+
+        File dir = Files.createTempDir();
+        File classes = new File(dir, "classes");
+        compileTestClasses(classes);
+        File jar = new File(dir, "test.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            addClassFiles(out, classes, "");
+            out.putNextEntry(new JarEntry("res/values.txt"));
+            out.write("values".getBytes(UTF_8));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+
+        assertEquals(""
+                + "android/annotation/IntDef.class\n"
+                + "res/values.txt\n"
+                + "test/pkg/TestClass$DisplayOptions.class\n"
+                + "test/pkg/TestClass$Inherits.class\n"
+                + "test/pkg/TestClass$StaticInnerClass$Visibility.class\n"
+                + "test/pkg/TestClass$StaticInnerClass.class\n"
+                + "test/pkg/TestClass.class\n",
+                getJarContents(jar));
+        Map<String, byte[]> original = getStoredEntries(jar);
+
+        runRmTypeDefs("--verbose", jar.getPath());
+
+        assertEquals(""
+                + "android/annotation/IntDef.class\n"
+                + "res/values.txt\n"
+                + "test/pkg/TestClass$Inherits.class\n"
+                + "test/pkg/TestClass$StaticInnerClass.class\n"
+                + "test/pkg/TestClass.class\n",
+                getJarContents(jar));
+
+        JarFile jarFile = new JarFile(jar);
+        try {
+            // Entries that weren't rewritten are copied as stored, headers and compressed data
+            Map<String, byte[]> rewritten = getStoredEntries(jar);
+            for (String name : new String[] { "android/annotation/IntDef.class",
+                    "res/values.txt", "test/pkg/TestClass$Inherits.class" }) {
+                assertTrue(name, Arrays.equals(original.get(name), rewritten.get(name)));
+            }
+            assertEquals("values", new String(getEntryBytes(jarFile, "res/values.txt"), UTF_8));
+
+            // Make sure the Visibility symbol is completely gone from the outer class
+            assertDoesNotContainBytes("test/pkg/TestClass$StaticInnerClass.class in " + jar,
+                    getEntryBytes(jarFile, "test/pkg/TestClass$StaticInnerClass.class"),
+                    "Visibility");
+        } finally {
+            jarFile.close();
+        }
+
+        deleteDir(dir);
+    }
+
+    /**
+     * Returns the bytes each entry of the given jar occupies in the file, from its local header
+     * up to the next entry, keyed by entry name. Assumes the jar has no archive comment.
+     */
+    private static Map<String, byte[]> getStoredEntries(File jar) throws IOException {
+        byte[] bytes = Files.toByteArray(jar);
+        ByteBuffer zip = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int end = bytes.length - 22;
+        assertEquals(0x06054b50, zip.getInt(end));
+        int count = zip.getShort(end + 10) & 0xffff;
+        int centralDirectory = zip.getInt(end + 16);
+
+        Map<Integer, String> names = Maps.newTreeMap();
+        int position = centralDirectory;
+        for (int i = 0; i < count; i++) {
+            assertEquals(0x02014b50, zip.getInt(position));
+            int nameLength = zip.getShort(position + 28) & 0xffff;
+            int extraLength = zip.getShort(position + 30) & 0xffff;
+            int commentLength = zip.getShort(position + 32) & 0xffff;
+            names.put(zip.getInt(position + 42),
+                    new String(bytes, position + 46, nameLength, UTF_8));
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+
+        Map<String, byte[]> entries = Maps.newHashMap();
+        List<Integer> offsets = Lists.newArrayList(names.keySet());
+        for (int i = 0; i < offsets.size(); i++) {
+            int start = offsets.get(i);
+            int limit = i + 1 < offsets.size() ? offsets.get(i + 1) : centralDirectory;
+            entries.put(names.get(start), Arrays.copyOfRange(bytes, start, limit));
+        }
+        return entries;
+    }
+
+    /**
+     * Creates a test class containing various typedefs, as well as the @IntDef annotation
+     * itself (to make the test case independent of the SDK), and compiles them using ECJ.
+     * The class files are written next to the sources.
+     */
+    private static void compileTestClasses(File dir) throws IOException {
         String testClass = ""
             + "package test.pkg;\n"
             + "\n"
@@ -119,22 +276,13 @@ public class RmTypeDefsTest extends TestCase {
                 new PrintWriter(System.err), null);
         assertTrue(compileSuccessful);
 
-        assertEquals(""
-            + "testDir/\n"
-            + "    testDir/android/\n"
-            + "        testDir/android/annotation/\n"
-            + "            testDir/android/annotation/IntDef.class\n"
-            + "            testDir/android/annotation/IntDef.java\n"
-            + "    testDir/test/\n"
-            + "        testDir/test/pkg/\n"
-            + "            testDir/test/pkg/TestClass$DisplayOptions.class\n"
-            + "            testDir/test/pkg/TestClass$Inherits.class\n"
-            + "            testDir/test/pkg/TestClass$StaticInnerClass$Visibility.class\n"
-            + "            testDir/test/pkg/TestClass$StaticInnerClass.class\n"
-            + "            testDir/test/pkg/TestClass.class\n"
-            + "            testDir/test/pkg/TestClass.java\n",
-            getDirectoryContents(dir));
+    }
 
+    /**
+     * Runs the RmTypeDefs tool with the given arguments, and verifies that it exits with a 0
+     * exit code.
+     */
+    private static void runRmTypeDefs(String... args) {
         // Trap System.exit calls:
         System.setSecurityManager(new SecurityManager() {
             @Override
@@ -149,39 +297,18 @@ public class RmTypeDefsTest extends TestCase {
             }
         });
         try {
-            RmTypeDefs.main(new String[]{"--verbose", dir.getPath()});
+            RmTypeDefs.main(args);
         } catch (ExitException e) {
             assertEquals(0, e.getStatus());
         }
         System.setSecurityManager(null);
-
-        // TODO: check that the classes are identical
-        // BEFORE removal
-
-        assertEquals(""
-                + "testDir/\n"
-                + "    testDir/android/\n"
-                + "        testDir/android/annotation/\n"
-                + "            testDir/android/annotation/IntDef.class\n"
-                + "            testDir/android/annotation/IntDef.java\n"
-                + "    testDir/test/\n"
-                + "        testDir/test/pkg/\n"
-                + "            testDir/test/pkg/TestClass$Inherits.class\n"
-                + "            testDir/test/pkg/TestClass$StaticInnerClass.class\n"
-                + "            testDir/test/pkg/TestClass.class\n"
-                + "            testDir/test/pkg/TestClass.java\n",
-                getDirectoryContents(dir));
-
-        // Make sure the Visibility symbol is completely gone from the outer class
-        assertDoesNotContainBytes(new File(dir,
-                "test/pkg/TestClass$StaticInnerClass.class".replace('/', separatorChar)),
-                "Visibility");
-
-        deleteDir(dir);
     }
 
     private void assertDoesNotContainBytes(File file, String sub) throws IOException {
-        byte[] contents = Files.toByteArray(file);
+        assertDoesNotContainBytes("class file " + file, Files.toByteArray(file), sub);
+    }
+
+    private void assertDoesNotContainBytes(String where, byte[] contents, String sub) {
         // Like the strings command, look for 4 or more consecutive printable characters
         for (int i = 0, n = contents.length; i < n; i++) {
             if (Character.isJavaIdentifierStart(contents[i])) {
@@ -191,7 +318,7 @@ public class RmTypeDefsTest extends TestCase {
                             int length = j - i - 1;
                             if (length == sub.length()) {
                                 String symbol = new String(contents, i, length, UTF_8);
-                                assertFalse("Found " + sub + " in class file " + file,
+                                assertFalse("Found " + sub + " in " + where,
                                         sub.equals(symbol));
                             }
                         }
@@ -203,6 +330,52 @@ public class RmTypeDefsTest extends TestCase {
         }
     }
 
+    private static void addClassFiles(JarOutputStream out, File dir, String prefix)
+            throws IOException {
+        File[] files = dir.listFiles();
+        assertNotNull(files);
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                addClassFiles(out, file, name + "/");
+            } else if (name.endsWith(".class")) {
+                out.putNextEntry(new JarEntry(name));
+                out.write(Files.toByteArray(file));
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static String getJarContents(File jar) throws IOException {
+        List<String> names = Lists.newArrayList();
+        JarFile jarFile = new JarFile(jar);
+        try {
+            for (JarEntry entry : Collections.list(jarFile.entries())) {
+                names.add(entry.getName());
+            }
+        } finally {
+            jarFile.close();
+        }
+        Collections.sort(names);
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            sb.append(name).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] getEntryBytes(JarFile jarFile, String name) throws IOException {
+        JarEntry entry = jarFile.getJarEntry(name);
+        assertNotNull(name, entry);
+        InputStream in = jarFile.getInputStream(entry);
+        try {
+            return ByteStreams.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
     String getDirectoryContents(File root) {
         StringBuilder sb = new StringBuilder();
         list(sb, root, "", 0, "testDir");